@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+/**
+ * Behaviour of a send once the outbound queue of a connection or the global limit of pending frames is reached.
+ */
+public enum BackpressurePolicy {
+
+  /**
+   * Waits for space up to {@link Channel#getBackpressureTimeout()}, fails afterwards. The sending thread is not
+   * blocked, the future of the send completes once the frame is written.
+   */
+  BLOCK,
+  /**
+   * Fails the send immediately, the result message holds the error.
+   */
+  FAIL,
+  /**
+   * Drops the oldest queued frame of a {@link de.timesnake.channel.util.message.MessageType#isCoalescable()
+   * coalescable} type to make space, fails if there is none.
+   */
+  DROP_OLDEST
+}
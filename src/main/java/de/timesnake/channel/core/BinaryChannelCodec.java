@@ -0,0 +1,506 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.message.ChannelMessage;
+import de.timesnake.channel.util.message.ChannelServerMessage;
+import de.timesnake.channel.util.message.ChannelUserMessage;
+import de.timesnake.channel.util.message.MessageType;
+import de.timesnake.library.basic.util.Status;
+import de.timesnake.library.basic.util.Tuple;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Compact binary codec.
+ * <p>
+ * Frame layout: {@code flags, [request id], channel tag, message tag, source, identifier, value}. The request id is
+ * only written for requests and responses, flagged in the first byte.
+ * A compressed value, also flagged, is written as its encoded length followed by the deflated bytes up to the end of
+ * the frame. The header stays uncompressed, so frames are routed without decompressing them.
+ * Channel and message types are written as their registry ordinals, values with a one byte type tag followed by a
+ * specialized encoding. Values without a specialized encoding fall back to java serialization, which only accepts the
+ * classes passed by its {@link ObjectInputFilter}. Control payloads and identifiers have specialized encodings, so a
+ * peer can not make them deserialize arbitrary classes.
+ * <p>
+ * Frames are assembled in pooled buffers and copied out in their exact size. Decoded short strings and sources are
+ * cached by their bytes, so repeated identifiers and senders do not allocate.
+ */
+public class BinaryChannelCodec implements ChannelCodec {
+
+  private static final int FLAGS_NONE = 0;
+  private static final int FLAG_REQUEST = 1;
+  private static final int FLAG_RESPONSE = 1 << 1;
+  private static final int FLAG_COMPRESSED = 1 << 2;
+
+  private static final int NULL = 0;
+  private static final int STRING = 1;
+  private static final int INTEGER = 2;
+  private static final int LONG = 3;
+  private static final int BOOLEAN = 4;
+  private static final int UNIQUE_ID = 5;
+  private static final int ENUM = 6;
+  private static final int TUPLE = 7;
+  private static final int ARRAY_LIST = 8;
+  private static final int LINKED_LIST = 9;
+  private static final int PARTICIPANT = 10;
+  private static final int LISTENER_DATA = 11;
+  private static final int SUBSCRIPTIONS = 12;
+  private static final int LISTENER_FILTER = 13;
+  private static final int LISTENER_DELTA = 14;
+  private static final int LISTENER_VERSION = 15;
+  private static final int MEMBER_STATE = 16;
+  private static final int SERIALIZED = 127;
+
+  private static final List<Class<?>> ENUM_CLASSES = List.of(Status.Server.class, Status.User.class,
+      ChannelServerMessage.State.class, ChannelUserMessage.Sound.class);
+  private static final List<Object[]> ENUM_CONSTANTS = ENUM_CLASSES.stream()
+      .map(c -> (Object[]) c.getEnumConstants())
+      .toList();
+
+  /**
+   * Passes the classes of this and the timesnake library, JDK values and collections.
+   */
+  public static final ObjectInputFilter SERIALIZED_FILTER = ObjectInputFilter.Config.createFilter(
+      "maxdepth=16;maxrefs=4096;maxarray=65536;java.lang.*;java.util.*;java.time.*;de.timesnake.**;!*");
+
+  private static final MemberState.Status[] MEMBER_STATUSES = MemberState.Status.values();
+
+  private static final int MAX_POOLED_OUTPUTS = 16;
+  private static final int MAX_POOLED_OUTPUT_CAPACITY = 64 * 1024;
+  private static final int CACHE_SIZE = 1024;
+
+  private final FrameCompressor compressor;
+  private final ObjectInputFilter serializedFilter;
+
+  private final Queue<FrameOutput> outputs = new ConcurrentLinkedQueue<>();
+  private final StringCache strings = new StringCache(CACHE_SIZE);
+  private final ChannelParticipant[] participants = new ChannelParticipant[CACHE_SIZE];
+
+  public BinaryChannelCodec() {
+    this(new FrameCompressor());
+  }
+
+  /**
+   * @param compressor compressor of the values, also used to decompress received values
+   */
+  public BinaryChannelCodec(FrameCompressor compressor) {
+    this(compressor, SERIALIZED_FILTER);
+  }
+
+  /**
+   * @param compressor       compressor of the values, also used to decompress received values
+   * @param serializedFilter filter of the classes of values without specialized encoding
+   */
+  public BinaryChannelCodec(FrameCompressor compressor, ObjectInputFilter serializedFilter) {
+    this.compressor = compressor;
+    this.serializedFilter = serializedFilter;
+  }
+
+  @Override
+  public ByteBuffer encode(ChannelMessage<?, ?> message) {
+    FrameOutput out = this.outputs.poll();
+    if (out == null) {
+      out = new FrameOutput(512);
+    }
+
+    try {
+      return this.encode(out, message);
+    } finally {
+      if (out.capacity() <= MAX_POOLED_OUTPUT_CAPACITY && this.outputs.size() < MAX_POOLED_OUTPUTS) {
+        this.outputs.offer(out.reset());
+      }
+    }
+  }
+
+  private ByteBuffer encode(FrameOutput out, ChannelMessage<?, ?> message) {
+    if (message.isRequest()) {
+      out.writeByte(FLAG_REQUEST).writeVarLong(message.getRequestId());
+    } else if (message.isResponse()) {
+      out.writeByte(FLAG_RESPONSE).writeVarLong(message.getRequestId());
+    } else {
+      out.writeByte(FLAGS_NONE);
+    }
+    this.writeChannelType(out, message.getChannelType());
+    this.writeMessageType(out, message.getChannelType(), message.getMessageType());
+    this.writeParticipant(out, message.getSource());
+    this.writeValue(out, message.getIdentifier());
+
+    int valueStart = out.position();
+    this.writeValue(out, message.getValue());
+    if (!this.compressor.isCompressed(message.getMessageType(), out.position() - valueStart)) {
+      return out.copy();
+    }
+    return this.compress(out, valueStart);
+  }
+
+  private ByteBuffer compress(FrameOutput encoded, int valueStart) {
+    ByteBuffer frame = encoded.toBuffer();
+    byte[] compressed = this.compressor.compress(frame.slice(valueStart, frame.limit() - valueStart));
+    if (compressed == null) {
+      return encoded.copy();
+    }
+
+    FrameOutput out = new FrameOutput(valueStart + 5 + compressed.length);
+    out.writeByte(frame.get(0) | FLAG_COMPRESSED);
+    out.write(frame.slice(1, valueStart - 1));
+    out.writeVarInt(frame.limit() - valueStart);
+    out.write(ByteBuffer.wrap(compressed));
+    return out.toBuffer();
+  }
+
+  @Override
+  public ChannelMessage<?, ?> decode(ByteBuffer frame) {
+    return this.decode(frame, true);
+  }
+
+  @Override
+  public ChannelMessage<?, ?> decodeHeader(ByteBuffer frame) {
+    return this.decode(frame.duplicate(), false);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private ChannelMessage<?, ?> decode(ByteBuffer frame, boolean withValue) {
+    FrameInput in = new FrameInput(frame);
+    int flags = in.readByte();
+    boolean compressed = (flags & FLAG_COMPRESSED) != 0;
+    flags &= ~FLAG_COMPRESSED;
+    if (flags != FLAGS_NONE && flags != FLAG_REQUEST && flags != FLAG_RESPONSE) {
+      throw new ChannelCodecException("unsupported frame flags " + flags);
+    }
+    long requestId = flags != FLAGS_NONE ? in.readVarLong() : 0;
+
+    ChannelType channelType = this.readChannelType(in);
+    MessageType messageType = this.readMessageType(in, channelType);
+    ChannelParticipant source = this.readParticipant(in);
+    Serializable identifier = this.readIdentifier(in);
+    Serializable value = null;
+    if (withValue && compressed) {
+      int length = in.readVarInt();
+      value = this.readValue(new FrameInput(this.compressor.decompress(in.getBuffer(), length)));
+    } else if (withValue) {
+      value = this.readValue(in);
+    }
+
+    ChannelMessage<?, ?> message = channelType.createMessage(identifier, messageType, value);
+    if (source != null) {
+      message.setSource(source);
+    }
+    if (flags == FLAG_REQUEST) {
+      message.setRequest(requestId);
+    } else if (flags == FLAG_RESPONSE) {
+      message.setResponse(requestId);
+    }
+    return message;
+  }
+
+  private void writeChannelType(FrameOutput out, ChannelType<?> channelType) {
+    int tag = channelType.getOrdinal();
+    if (tag < 0) {
+      throw new ChannelCodecException("unknown channel type " + channelType);
+    }
+    out.writeVarInt(tag);
+  }
+
+  private ChannelType<?> readChannelType(FrameInput in) {
+    int tag = in.readVarInt();
+    ChannelType<?> channelType = ChannelType.getType(tag);
+    if (channelType == null) {
+      throw new ChannelCodecException("unknown channel tag " + tag);
+    }
+    return channelType;
+  }
+
+  private void writeMessageType(FrameOutput out, ChannelType<?> channelType, MessageType<?> messageType) {
+    if (messageType.getChannelType() != channelType) {
+      throw new ChannelCodecException("unknown message type " + messageType + " of channel " + channelType);
+    }
+    out.writeVarInt(messageType.getOrdinal());
+  }
+
+  private MessageType<?> readMessageType(FrameInput in, ChannelType<?> channelType) {
+    int tag = in.readVarInt();
+    MessageType<?> messageType = channelType.getMessageType(tag);
+    if (messageType == null) {
+      throw new ChannelCodecException("unknown message tag " + tag + " of channel " + channelType);
+    }
+    return messageType;
+  }
+
+  private void writeParticipant(FrameOutput out, ChannelParticipant participant) {
+    if (participant == null) {
+      out.writeBoolean(false);
+      return;
+    }
+    out.writeBoolean(true);
+    out.writeString(participant.getHostname());
+    out.writeVarInt(participant.getListenPort());
+  }
+
+  private ChannelParticipant readParticipant(FrameInput in) {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    String hostname = this.readString(in);
+    int port = in.readVarInt();
+
+    int index = (31 * hostname.hashCode() + port) & (this.participants.length - 1);
+    ChannelParticipant participant = this.participants[index];
+    if (participant == null || participant.getListenPort() != port || !participant.getHostname().equals(hostname)) {
+      participant = new ChannelParticipant(hostname, port);
+      this.participants[index] = participant;
+    }
+    return participant;
+  }
+
+  private String readString(FrameInput in) {
+    int length = in.readVarInt();
+    ByteBuffer buffer = in.getBuffer();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new ChannelCodecException("invalid length " + length);
+    }
+    String value = this.strings.get(buffer, buffer.position(), length);
+    buffer.position(buffer.position() + length);
+    return value;
+  }
+
+  private void writeValue(FrameOutput out, Object value) {
+    switch (value) {
+      case null -> out.writeByte(NULL);
+      case String s -> out.writeByte(STRING).writeString(s);
+      case Integer i -> out.writeByte(INTEGER).writeSignedVarInt(i);
+      case Long l -> out.writeByte(LONG).writeSignedVarLong(l);
+      case Boolean b -> out.writeByte(BOOLEAN).writeBoolean(b);
+      case UUID uuid -> out.writeByte(UNIQUE_ID).writeUUID(uuid);
+      case ChannelParticipant participant -> {
+        out.writeByte(PARTICIPANT);
+        this.writeParticipant(out, participant);
+      }
+      case Tuple<?, ?> tuple when tuple.getClass() == Tuple.class -> {
+        out.writeByte(TUPLE);
+        this.writeValue(out, tuple.getA());
+        this.writeValue(out, tuple.getB());
+      }
+      case MessageListenerData<?> data -> {
+        out.writeByte(LISTENER_DATA);
+        this.writeChannelType(out, data.getChannelType());
+        this.writeMessageType(out, data.getChannelType(), data.getMessageType());
+        this.writeValue(out, data.getIdentifier());
+      }
+      case Subscriptions subscriptions when subscriptions.getClass() == Subscriptions.class -> {
+        out.writeByte(SUBSCRIPTIONS);
+        this.writeSubscriptions(out, subscriptions);
+      }
+      case ListenerFilter filter -> {
+        out.writeByte(LISTENER_FILTER);
+        this.writeListenerFilter(out, filter);
+      }
+      case ListenerDelta delta when delta.getClass() == ListenerDelta.class -> {
+        out.writeByte(LISTENER_DELTA).writeSignedVarLong(delta.getEpoch()).writeSignedVarLong(delta.getSince())
+            .writeSignedVarLong(delta.getVersion());
+        this.writeSubscriptions(out, delta.getAdded());
+        this.writeSubscriptions(out, delta.getRemoved());
+      }
+      case ListenerVersion version when version.getClass() == ListenerVersion.class ->
+          out.writeByte(LISTENER_VERSION).writeSignedVarLong(version.getEpoch())
+              .writeSignedVarLong(version.getVersion());
+      case MemberState state when state.getClass() == MemberState.class -> {
+        out.writeByte(MEMBER_STATE);
+        this.writeParticipant(out, state.getParticipant());
+        out.writeVarInt(state.getStatus().ordinal()).writeSignedVarLong(state.getIncarnation());
+      }
+      case Enum<?> e when ENUM_CLASSES.contains(e.getDeclaringClass()) ->
+          out.writeByte(ENUM).writeVarInt(ENUM_CLASSES.indexOf(e.getDeclaringClass())).writeVarInt(e.ordinal());
+      case ArrayList<?> list when list.getClass() == ArrayList.class -> {
+        out.writeByte(ARRAY_LIST).writeVarInt(list.size());
+        list.forEach(v -> this.writeValue(out, v));
+      }
+      case LinkedList<?> list when list.getClass() == LinkedList.class -> {
+        out.writeByte(LINKED_LIST).writeVarInt(list.size());
+        list.forEach(v -> this.writeValue(out, v));
+      }
+      default -> out.writeByte(SERIALIZED).writeBytes(this.serialize(value));
+    }
+  }
+
+  private <T extends Serializable> T readValue(FrameInput in) {
+    return this.readValue(in, in.readByte());
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private <T extends Serializable> T readValue(FrameInput in, int tag) {
+    Object value = switch (tag) {
+      case NULL -> null;
+      case STRING -> this.readString(in);
+      case INTEGER -> in.readSignedVarInt();
+      case LONG -> in.readSignedVarLong();
+      case BOOLEAN -> in.readBoolean();
+      case UNIQUE_ID -> in.readUUID();
+      case PARTICIPANT -> this.readParticipant(in);
+      case TUPLE -> new Tuple<>(this.readValue(in), this.readValue(in));
+      case LISTENER_DATA -> {
+        ChannelType<?> channelType = this.readChannelType(in);
+        MessageType<?> messageType = this.readMessageType(in, channelType);
+        yield new MessageListenerData<>(channelType, messageType, this.readIdentifier(in));
+      }
+      case SUBSCRIPTIONS -> this.readSubscriptions(in);
+      case LISTENER_FILTER -> this.readListenerFilter(in);
+      case LISTENER_DELTA -> new ListenerDelta(in.readSignedVarLong(), in.readSignedVarLong(), in.readSignedVarLong(),
+          this.readSubscriptions(in), this.readSubscriptions(in));
+      case LISTENER_VERSION -> new ListenerVersion(in.readSignedVarLong(), in.readSignedVarLong());
+      case MEMBER_STATE -> {
+        ChannelParticipant participant = this.readParticipant(in);
+        int status = in.readVarInt();
+        if (participant == null || status < 0 || status >= MEMBER_STATUSES.length) {
+          throw new ChannelCodecException("invalid member state");
+        }
+        yield new MemberState(participant, MEMBER_STATUSES[status], in.readSignedVarLong());
+      }
+      case ENUM -> {
+        int index = in.readVarInt();
+        int ordinal = in.readVarInt();
+        if (index < 0 || index >= ENUM_CLASSES.size()) {
+          throw new ChannelCodecException("unknown enum tag " + index);
+        }
+        Object[] constants = ENUM_CONSTANTS.get(index);
+        if (ordinal < 0 || ordinal >= constants.length) {
+          throw new ChannelCodecException("unknown enum ordinal " + ordinal);
+        }
+        yield constants[ordinal];
+      }
+      case ARRAY_LIST -> this.readList(in, new ArrayList<>());
+      case LINKED_LIST -> this.readList(in, new LinkedList<>());
+      case SERIALIZED -> this.deserialize(in.readBytes());
+      default -> throw new ChannelCodecException("unknown value tag " + tag);
+    };
+    return (T) value;
+  }
+
+  /**
+   * Reads an identifier, which is null, a string, a UUID or a participant.
+   */
+  private Serializable readIdentifier(FrameInput in) {
+    int tag = in.readByte();
+    if (tag != NULL && tag != STRING && tag != UNIQUE_ID && tag != PARTICIPANT) {
+      throw new ChannelCodecException("invalid identifier tag " + tag);
+    }
+    return this.readValue(in, tag);
+  }
+
+  /**
+   * Writes the message types of the set, each with its wildcard flag and identifiers.
+   */
+  private void writeSubscriptions(FrameOutput out, Subscriptions subscriptions) {
+    BitSet slots = subscriptions.getSlots();
+    out.writeVarInt(slots.cardinality());
+    for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+      MessageType<?> messageType = subscriptions.getMessageType(slot);
+      this.writeChannelType(out, messageType.getChannelType());
+      this.writeMessageType(out, messageType.getChannelType(), messageType);
+      out.writeBoolean(subscriptions.hasWildcard(slot));
+      IdentifierSet identifiers = subscriptions.getIdentifiers(slot);
+      out.writeVarInt(identifiers != null ? identifiers.size() : 0);
+      if (identifiers != null) {
+        identifiers.forEach(i -> this.writeValue(out, i));
+      }
+    }
+  }
+
+  private Subscriptions readSubscriptions(FrameInput in) {
+    Subscriptions subscriptions = new Subscriptions();
+    for (int n = in.readVarInt(); n > 0; n--) {
+      ChannelType<?> channelType = this.readChannelType(in);
+      MessageType<?> messageType = this.readMessageType(in, channelType);
+      if (in.readBoolean()) {
+        subscriptions.add(messageType, null);
+      }
+      for (int i = in.readVarInt(); i > 0; i--) {
+        Serializable identifier = this.readIdentifier(in);
+        if (identifier == null) {
+          throw new ChannelCodecException("null identifier of " + messageType);
+        }
+        subscriptions.add(messageType, identifier);
+      }
+    }
+    return subscriptions;
+  }
+
+  private void writeListenerFilter(FrameOutput out, ListenerFilter filter) {
+    out.writeVarInt(filter.getChannelTypes().size());
+    filter.getChannelTypes().forEach(t -> this.writeChannelType(out, t));
+    out.writeVarInt(filter.getMessageTypes().size());
+    for (MessageType<?> messageType : filter.getMessageTypes()) {
+      this.writeChannelType(out, messageType.getChannelType());
+      this.writeMessageType(out, messageType.getChannelType(), messageType);
+    }
+    out.writeVarInt(filter.getIdentifiers().size());
+    filter.getIdentifiers().forEach(i -> this.writeValue(out, i));
+    out.writeVarInt(filter.getPatterns().size());
+    filter.getPatterns().forEach(out::writeString);
+  }
+
+  private ListenerFilter readListenerFilter(FrameInput in) {
+    List<ChannelType<?>> channelTypes = new ArrayList<>();
+    for (int n = in.readVarInt(); n > 0; n--) {
+      channelTypes.add(this.readChannelType(in));
+    }
+    List<MessageType<?>> messageTypes = new ArrayList<>();
+    for (int n = in.readVarInt(); n > 0; n--) {
+      messageTypes.add(this.readMessageType(in, this.readChannelType(in)));
+    }
+    List<Serializable> identifiers = new ArrayList<>();
+    for (int n = in.readVarInt(); n > 0; n--) {
+      Serializable identifier = this.readIdentifier(in);
+      if (identifier == null) {
+        throw new ChannelCodecException("null identifier in listener filter");
+      }
+      identifiers.add(identifier);
+    }
+    int patternCount = in.readVarInt();
+    if (patternCount < 0 || patternCount > ListenerFilter.MAX_PATTERNS) {
+      throw new ChannelCodecException("invalid pattern count " + patternCount);
+    }
+    List<String> patterns = new ArrayList<>(patternCount);
+    for (int n = patternCount; n > 0; n--) {
+      patterns.add(this.readString(in));
+    }
+
+    try {
+      return ListenerFilter.of(channelTypes, messageTypes, identifiers, patterns);
+    } catch (IllegalArgumentException e) {
+      throw new ChannelCodecException("invalid listener filter", e);
+    }
+  }
+
+  private <C extends Collection<Object>> C readList(FrameInput in, C list) {
+    int size = in.readVarInt();
+    for (int i = 0; i < size; i++) {
+      list.add(this.readValue(in));
+    }
+    return list;
+  }
+
+  private byte[] serialize(Object value) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(value);
+    } catch (IOException e) {
+      throw new ChannelCodecException("unable to serialize " + value.getClass().getName(), e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private Object deserialize(byte[] bytes) {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      in.setObjectInputFilter(this.serializedFilter);
+      return in.readObject();
+    } catch (IOException | ClassNotFoundException e) {
+      throw new ChannelCodecException("unable to deserialize value", e);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+public class BlockingChannelTransport implements ChannelTransport {
+
+  protected final Channel manager;
+
+  protected ChannelServer server;
+  protected Thread serverThread;
+
+  public BlockingChannelTransport(Channel manager) {
+    this.manager = manager;
+    this.server = new ChannelServer(manager);
+  }
+
+  @Override
+  public void start() {
+    this.serverThread = this.manager.getExecutorFactory().newThread("channel-server", this.server);
+    this.serverThread.start();
+  }
+
+  @Override
+  public void stop() {
+    this.server.close();
+    if (this.serverThread != null && this.serverThread.isAlive()) {
+      this.serverThread.interrupt();
+    }
+  }
+
+  @Override
+  public void connect(ChannelConnection connection, boolean reconnect) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(connection.getHostname(), connection.getParticipant().getListenPort()),
+          (int) this.manager.getConnectTimeout().toMillis());
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+    this.manager.updateConnectionLink(new SocketLink(socket, this.manager.getExecutorFactory()), connection, reconnect);
+  }
+
+  public ChannelServer getServer() {
+    return server;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally sized direct buffers. Buffers of another capacity are not taken back.
+ */
+public class BufferPool {
+
+  private final int bufferSize;
+  private final int maxPooled;
+  private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooled = new AtomicInteger();
+
+  public BufferPool(int bufferSize, int maxPooled) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+  public ByteBuffer acquire() {
+    ByteBuffer buffer = this.buffers.poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(this.bufferSize);
+    }
+    this.pooled.decrementAndGet();
+    return buffer.clear();
+  }
+
+  public void release(ByteBuffer buffer) {
+    if (buffer.capacity() != this.bufferSize || !buffer.isDirect()) {
+      return;
+    }
+    if (this.pooled.incrementAndGet() > this.maxPooled) {
+      this.pooled.decrementAndGet();
+      return;
+    }
+    this.buffers.offer(buffer);
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+}
@@ -4,11 +4,11 @@
 
 package de.timesnake.channel.core;
 
+import de.timesnake.channel.util.listener.ChannelException;
 import de.timesnake.channel.util.listener.ChannelListener;
 import de.timesnake.channel.util.listener.ResultMessage;
 import de.timesnake.channel.util.message.ChannelMessage;
-import de.timesnake.channel.util.message.FilterMessage;
-import de.timesnake.channel.util.message.MessageType.Control;
+import de.timesnake.channel.util.message.MessageType;
 import de.timesnake.channel.util.message.VoidMessage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -16,12 +16,12 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.net.Socket;
 import java.time.Duration;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
 
 public abstract class Channel implements de.timesnake.channel.util.Channel {
 
@@ -45,12 +45,15 @@ public abstract class Channel implements de.timesnake.channel.util.Channel {
   protected String listenHostName;
   protected final ChannelParticipant self;
 
-  protected ChannelServer server;
-  protected Thread serverThread;
+  protected ChannelExecutorFactory executorFactory;
+  protected ChannelCodec codec;
+  protected ChannelTransport transport;
 
   protected ListenerBasedChannelSender sender;
   protected ControlMessageManager controlMessageManager;
   protected LocalListenerManager localListenerManager;
+  protected HeartbeatMonitor heartbeatMonitor;
+  protected Membership membership;
 
   protected ConcurrentHashMap<ChannelParticipant, ChannelConnection> channelByParticipant = new ConcurrentHashMap<>();
 
@@ -64,41 +67,58 @@ public abstract class Channel implements de.timesnake.channel.util.Channel {
   }
 
   private void load() {
-    this.server = new ChannelServer(this);
+    this.executorFactory = this.createExecutorFactory();
+    this.codec = this.createCodec();
+    this.transport = this.createTransport();
     this.controlMessageManager = new ControlMessageManager(this);
     this.localListenerManager = new LocalListenerManager(this);
-    this.sender = new ListenerBasedChannelSender(this);
+    this.sender = this.getTopology() == Topology.HUB ? new RelayChannelSender(this) :
+        new ListenerBasedChannelSender(this);
+    this.heartbeatMonitor = new HeartbeatMonitor(this);
+    this.membership = new Membership(this);
   }
 
   public void start() {
-    this.serverThread = new Thread(this.server);
-    this.serverThread.setDaemon(true);
-    this.serverThread.start();
+    this.transport.start();
+    this.heartbeatMonitor.start();
+    this.membership.start();
     logger.info("Channel started, listening on {}", this.self);
   }
 
   public void registerToNetwork(ChannelParticipant networkMember, Duration retryPeriod) {
-    this.initConnectThread = new Thread(() -> {
+    this.initConnectThread = this.executorFactory.newThread("channel-init", () -> {
+      // the other members learn about this channel by gossip and connect to it
       this.connectToInitHost(networkMember, retryPeriod);
-      this.getSender().sendMessageSync(networkMember, new ChannelControlMessage<>(this.self, Control.HOSTS_REQUEST));
     });
     this.initConnectThread.start();
   }
 
-  private void connectToInitHost(ChannelParticipant networkMember, Duration retryPeriod) {
-    ResultMessage resultMessage = this.getControlMessageManager().initConnectionToHost(networkMember);
+  /**
+   * @return true once connected, false if interrupted before
+   */
+  private boolean connectToInitHost(ChannelParticipant networkMember, Duration retryPeriod) {
+    while (true) {
+      ResultMessage resultMessage = this.getControlMessageManager().initConnectionToHost(networkMember);
+
+      if (resultMessage.isSuccessful()) {
+        logger.info("Connected to channel network");
+        this.onNetworkConnected();
+        return true;
+      }
 
-    if (resultMessage.isSuccessful()) {
-      logger.info("Connected to channel network");
-      this.onNetworkConnected();
-    } else {
       logger.warn("Failed to connect to init host, retrying ...");
+      // start over with a new connection, the failed one may have opened its circuit
+      ChannelConnection connection = this.getChannelConnection(networkMember);
+      if (connection != null) {
+        this.disconnectHost(connection);
+      }
+
       try {
         Thread.sleep(retryPeriod.toMillis());
-      } catch (InterruptedException ignored) {
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
       }
-
-      this.connectToInitHost(networkMember, retryPeriod);
     }
   }
 
@@ -107,14 +127,17 @@ public abstract class Channel implements de.timesnake.channel.util.Channel {
   }
 
   public void stop() {
-    ChannelControlMessage<VoidMessage> msg = new ChannelControlMessage<>(this.getSelf(), Control.CLOSE);
-    this.getKnownParticipants().forEach(p -> this.getSender().sendMessageSync(p, msg));
+    this.heartbeatMonitor.stop();
+    this.membership.stop();
 
-    if (this.serverThread.isAlive()) {
-      this.serverThread.interrupt();
-    }
+    ChannelControlMessage<VoidMessage> msg = new ChannelControlMessage<>(this.getSelf(), ControlMessageType.CLOSE);
+    this.getSender().sendMessageSync(List.copyOf(this.getKnownParticipants()), msg);
+
+    this.transport.stop();
 
+    ChannelException stopped = new ChannelException("channel stopped");
     for (ChannelConnection connection : this.getChannelConnections()) {
+      connection.getWriter().close(stopped);
       try {
         connection.close();
       } catch (IOException e) {
@@ -129,14 +152,15 @@ public abstract class Channel implements de.timesnake.channel.util.Channel {
     this.logger.info("Channel stopped");
   }
 
-  protected void acceptConnection(Socket socket) {
-    ChannelConnection connection = new ChannelConnection(this, socket.getInetAddress().getHostName());
-    this.updateConnectionSocket(socket, connection, false);
+  protected void acceptConnection(ChannelLink link) {
+    // the address only, a reverse lookup would stall the selector thread of the nio transport
+    ChannelConnection connection = new ChannelConnection(this, link.getSocket().getInetAddress().getHostAddress());
+    this.updateConnectionLink(link, connection, false);
   }
 
-  protected void updateConnectionSocket(Socket socket, ChannelConnection connection, boolean reconnect) {
+  protected void updateConnectionLink(ChannelLink link, ChannelConnection connection, boolean reconnect) {
     try {
-      connection.updateSocket(socket, reconnect);
+      connection.updateLink(link, reconnect);
     } catch (IOException e) {
       logger.warn("Failed to add connection of host '{}': {}", connection.getHostname(), e.getMessage());
     }
@@ -148,6 +172,9 @@ public abstract class Channel implements de.timesnake.channel.util.Channel {
         this.channelByParticipant.remove(connection.getParticipant());
       }
       connection.close();
+      ChannelException disconnected = new ChannelException("disconnected from '" + connection.getParticipant() + "'");
+      connection.getPendingRequests().failAll(disconnected);
+      connection.getWriter().close(disconnected);
       logger.info("Closed socket to '{}'", connection.getParticipant().getName());
       this.onConnectionClose(connection);
     } catch (IOException e) {
@@ -166,7 +193,7 @@ public abstract class Channel implements de.timesnake.channel.util.Channel {
   }
 
   @Override
-  public Future<ResultMessage> sendMessage(ChannelMessage<?, ?> message) {
+  public CompletableFuture<ResultMessage> sendMessage(ChannelMessage<?, ?> message) {
     return this.sender.sendMessageStashed(message);
   }
 
@@ -175,6 +202,11 @@ public abstract class Channel implements de.timesnake.channel.util.Channel {
     return this.sender.sendMessageSyncAndStashed(message);
   }
 
+  @Override
+  public CompletableFuture<ChannelMessage<?, ?>> request(ChannelMessage<?, ?> message, Duration timeout) {
+    return this.sender.request(message, timeout);
+  }
+
   @Override
   public void addListener(ChannelListener listener) {
     this.localListenerManager.addLocalListener(listener);
@@ -235,8 +267,236 @@ public abstract class Channel implements de.timesnake.channel.util.Channel {
 
   }
 
-  protected ChannelServer getServer() {
-    return server;
+  /**
+   * Creates the factory for all threads and executors of this channel. Use {@link ChannelExecutorFactory#VIRTUAL}
+   * to run receivers, sends and listener dispatch on virtual threads.
+   */
+  protected ChannelExecutorFactory createExecutorFactory() {
+    return ChannelExecutorFactory.PLATFORM;
+  }
+
+  public ChannelExecutorFactory getExecutorFactory() {
+    return executorFactory;
+  }
+
+  /**
+   * Creates the codec used for all connections. Override to plug in another wire format, all participants of a
+   * network must use the same one.
+   */
+  protected ChannelCodec createCodec() {
+    return new BinaryChannelCodec(new FrameCompressor(this.getCompression(), this::getCompressionThreshold,
+        this.getCompressionDictionary()));
+  }
+
+  /**
+   * Compression of encoded values, none by default. Received values are decompressed regardless.
+   */
+  protected Compression getCompression() {
+    return Compression.NONE;
+  }
+
+  /**
+   * @return minimum encoded value size in bytes to compress a value of the message type, negative for never
+   */
+  protected int getCompressionThreshold(MessageType<?> messageType) {
+    return 512;
+  }
+
+  /**
+   * Preset dictionary of compressed values, like a concatenation of typical encoded values with the most frequent
+   * strings last. All participants of a network must use the same one.
+   *
+   * @return the dictionary or null for none
+   */
+  protected byte[] getCompressionDictionary() {
+    return null;
+  }
+
+  public ChannelCodec getCodec() {
+    return codec;
+  }
+
+  /**
+   * Transport used for all connections, read once while loading the channel.
+   */
+  protected TransportType getTransportType() {
+    return TransportType.BLOCKING;
+  }
+
+  /**
+   * Number of event loop threads of the {@link TransportType#NIO} transport.
+   */
+  protected int getEventLoopThreads() {
+    return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  protected ChannelTransport createTransport() {
+    return switch (this.getTransportType()) {
+      case BLOCKING -> new BlockingChannelTransport(this);
+      case NIO -> new NioChannelTransport(this, this.getEventLoopThreads());
+    };
+  }
+
+  /**
+   * Capacity of the outbound queue of each connection, the per peer limit of pending frames.
+   */
+  protected int getOutboundQueueCapacity() {
+    return 1024;
+  }
+
+  /**
+   * Limit of frames queued or being written over all connections.
+   */
+  protected int getMaxPendingFrames() {
+    return 16 * 1024;
+  }
+
+  /**
+   * Behaviour of sends once {@link #getOutboundQueueCapacity()} or {@link #getMaxPendingFrames()} is reached.
+   * With {@link BackpressurePolicy#BLOCK} a send waits for space without blocking the calling thread, only its future
+   * completes later.
+   */
+  protected BackpressurePolicy getBackpressurePolicy() {
+    return BackpressurePolicy.BLOCK;
+  }
+
+  /**
+   * Maximum time a send waits for space with {@link BackpressurePolicy#BLOCK}.
+   */
+  protected Duration getBackpressureTimeout() {
+    return Duration.ofSeconds(3);
+  }
+
+  /**
+   * Maximum number of frames written and flushed at once by the writer of a connection.
+   */
+  protected int getMaxBatchSize() {
+    return 64;
+  }
+
+  /**
+   * Time the writer of a connection waits for further frames before writing an incomplete batch. Zero writes as soon
+   * as frames are queued.
+   */
+  protected Duration getMaxBatchLinger() {
+    return Duration.ZERO;
+  }
+
+  /**
+   * Enables at-least-once delivery of all non control messages. Messages are numbered per connection, acknowledged
+   * by the participant and replayed after a reconnect, duplicates are dropped by the receiver. Send results complete
+   * once the message is acknowledged. All participants of a network must use the same mode.
+   */
+  protected boolean isReliableDelivery() {
+    return false;
+  }
+
+  /**
+   * Time a received message waits for outgoing messages to carry its acknowledgement, before it is written alone.
+   */
+  protected Duration getAckDelay() {
+    return Duration.ofMillis(10);
+  }
+
+  /**
+   * Maximum number of links opened at once. Connects run on their own threads, so slow or unreachable participants do
+   * not hold the threads of writes, heartbeats and gossip.
+   */
+  protected int getMaxConcurrentConnects() {
+    return 8;
+  }
+
+  /**
+   * Maximum time to open a link to a participant.
+   */
+  protected Duration getConnectTimeout() {
+    return Duration.ofSeconds(3);
+  }
+
+  /**
+   * Delay before the first reconnect after a failed connect or write, doubled for each further failure.
+   */
+  protected Duration getReconnectBackoff() {
+    return Duration.ofMillis(100);
+  }
+
+  /**
+   * Upper bound of the reconnect delay, also the time a circuit stays open.
+   */
+  protected Duration getMaxReconnectBackoff() {
+    return Duration.ofSeconds(30);
+  }
+
+  /**
+   * Number of failed connects or writes in a row, after which the circuit of a participant opens and sends to it fail
+   * immediately.
+   */
+  protected int getCircuitBreakerThreshold() {
+    return CONNECTION_RETRIES;
+  }
+
+  /**
+   * Interval of heartbeats over connections without other writes and of the idle check. Zero disables heartbeats and
+   * idle detection.
+   */
+  protected Duration getHeartbeatInterval() {
+    return Duration.ofSeconds(5);
+  }
+
+  /**
+   * Time without any read from a participant, after which it is disconnected. Must exceed twice the heartbeat interval
+   * of the participants.
+   */
+  protected Duration getIdleTimeout() {
+    return Duration.ofSeconds(15);
+  }
+
+  /**
+   * Time changes of the listeners of this channel are collected, before they are sent as one delta. Zero sends each
+   * change at once.
+   */
+  protected Duration getListenerBatchWindow() {
+    return Duration.ofMillis(20);
+  }
+
+  /**
+   * Interval of gossip rounds, which disseminate membership changes. Zero disables the rounds, then only directly
+   * connected participants learn about this channel.
+   */
+  protected Duration getGossipInterval() {
+    return Duration.ofMillis(200);
+  }
+
+  /**
+   * Number of random participants each gossip round is sent to.
+   */
+  protected int getGossipFanout() {
+    return 3;
+  }
+
+  /**
+   * Time a suspected participant has to refute the suspicion, before it is declared dead.
+   */
+  protected Duration getSuspicionTimeout() {
+    return Duration.ofSeconds(10);
+  }
+
+  /**
+   * Role of this channel in the network, read once while loading the channel. Spokes must only register at hubs.
+   */
+  protected Topology getTopology() {
+    return Topology.MESH;
+  }
+
+  /**
+   * Time a hub waits for the response to a relayed request.
+   */
+  protected Duration getRelayTimeout() {
+    return Duration.ofSeconds(10);
+  }
+
+  public ChannelTransport getTransport() {
+    return transport;
   }
 
   public ListenerBasedChannelSender getSender() {
@@ -247,11 +507,18 @@ public abstract class Channel implements de.timesnake.channel.util.Channel {
     return localListenerManager;
   }
 
+  public Membership getMembership() {
+    return membership;
+  }
+
   public ControlMessageManager getControlMessageManager() {
     return controlMessageManager;
   }
 
-  protected FilterMessage<MessageListenerData<?>> getListenerFilter() {
-    return messageListenerData -> true;
+  /**
+   * @return filter of the remote listeners this channel wants to know of, sent to each participant with the init
+   */
+  protected ListenerFilter getListenerFilter() {
+    return ListenerFilter.all();
   }
 }
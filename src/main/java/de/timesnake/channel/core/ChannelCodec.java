@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.message.ChannelMessage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts messages to frames and back. The transport only prefixes each frame with its length.
+ * <p>
+ * Implementations must be thread-safe, a single instance is shared by all connections of a channel.
+ */
+public interface ChannelCodec {
+
+  /**
+   * Encodes the message including its source.
+   *
+   * @param message message to encode
+   * @return frame buffer, positioned at its start
+   * @throws ChannelCodecException if the message can not be encoded
+   */
+  ByteBuffer encode(ChannelMessage<?, ?> message);
+
+  /**
+   * Decodes a complete frame.
+   *
+   * @param frame frame buffer without the length prefix
+   * @return decoded message
+   * @throws ChannelCodecException if the frame is malformed
+   */
+  ChannelMessage<?, ?> decode(ByteBuffer frame);
+
+  /**
+   * Decodes all but the value of a frame, so it can be routed without decoding the value. The position of the frame is
+   * not changed.
+   *
+   * @param frame frame buffer without the length prefix
+   * @return message without value or null if this codec only decodes complete frames
+   * @throws ChannelCodecException if the frame is malformed
+   */
+  default ChannelMessage<?, ?> decodeHeader(ByteBuffer frame) {
+    return null;
+  }
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.listener.ChannelException;
+
+public class ChannelCodecException extends ChannelException {
+
+  public ChannelCodecException(String message) {
+    super(message);
+  }
+
+  public ChannelCodecException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -7,27 +7,36 @@ package de.timesnake.channel.core;
 import de.timesnake.channel.util.message.MessageType;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.Predicate;
 
 public class ChannelConnection {
 
+  public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
   private final Channel manager;
 
   private final String hostname;
   private ChannelParticipant participant;
-  private Socket socket;
-  private ObjectOutputStream outputStream;
-  private ObjectInputStream inputStream;
+  private ChannelLink link;
+  private boolean dialed;
+  /**
+   * Guards the link, so adopting a link dialed by the participant and installing the own dialed link never interleave.
+   */
+  private final ReentrantLock linkLock = new ReentrantLock();
+  private boolean dialing;
   private ChannelReceiver receiver;
 
-  private Predicate<MessageListenerData<?>> listenerFilter;
+  private ListenerFilter listenerFilter;
   private final ReentrantLock writeLock = new ReentrantLock();
-
+  private final ConnectionWriter writer;
+  private final PendingRequests pendingRequests = new PendingRequests();
+  private final InboundSequence inboundSequence = new InboundSequence();
+  private volatile long lastRead = System.nanoTime();
 
   public ChannelConnection(Channel manager, ChannelParticipant participant) {
     this(manager, participant.getHostname());
@@ -37,6 +46,7 @@ public class ChannelConnection {
   public ChannelConnection(Channel manager, String hostname) {
     this.manager = manager;
     this.hostname = hostname;
+    this.writer = new ConnectionWriter(manager, this);
   }
 
   public String getHostname() {
@@ -51,38 +61,108 @@ public class ChannelConnection {
     this.participant = participant;
   }
 
+  public ChannelLink getLink() {
+    return link;
+  }
+
   public Socket getSocket() {
-    return socket;
+    return this.link != null ? this.link.getSocket() : null;
   }
 
-  public void updateSocket(Socket socket, boolean reconnect) throws IOException {
-    this.close();
+  /**
+   * @return true if the current link was opened by this channel, false if it was accepted
+   */
+  public boolean isDialed() {
+    return dialed;
+  }
 
-    this.socket = socket;
-    this.outputStream = new ObjectOutputStream(socket.getOutputStream());
-    this.inputStream = new ObjectInputStream(socket.getInputStream());
+  public boolean isOpen() {
+    return this.link != null && this.link.isOpen();
+  }
 
-    if (reconnect) {
-      this.manager.getSender().sendMessageSync(this.participant, new ChannelControlMessage<>(this.manager.getSelf(),
-          MessageType.Control.RECONNECT));
+  public void updateSocket(Socket socket, boolean reconnect) throws IOException {
+    this.updateLink(new SocketLink(socket, this.manager.getExecutorFactory()), reconnect);
+  }
+
+  public void updateLink(ChannelLink link, boolean reconnect) throws IOException {
+    this.linkLock.lock();
+    try {
+      if (this.dialing && this.isOpen()) {
+        // the link dialed by the participant was adopted while dialing, the one dialed by the smaller participant is
+        // kept on both sides
+        if (this.manager.getSelf().compareTo(this.participant) > 0) {
+          link.close();
+          return;
+        }
+        // the participant moves its connection to the own link
+        reconnect = true;
+      }
+      this.dialing = false;
+
+      this.close();
+
+      this.link = link;
+      // links are accepted before the participant is known
+      this.dialed = this.participant != null;
+      this.markRead();
+
+      if (reconnect) {
+        // written directly, the writer of this connection may be the caller
+        ByteBuffer frame = this.manager.getSender().encode(new ChannelControlMessage<>(this.manager.getSelf(),
+            ControlMessageType.RECONNECT));
+        this.writeLock.lock();
+        try {
+          link.writeFrame(frame);
+        } finally {
+          this.writeLock.unlock();
+        }
+      }
+
+      this.updateReceiver();
+    } finally {
+      this.linkLock.unlock();
     }
-
-    this.updateReceiver();
   }
 
   public void updateToReconnectedConnection(ChannelConnection connection) throws IOException {
-    this.close();
+    this.linkLock.lock();
+    try {
+      this.close();
+
+      this.link = connection.link;
+      this.dialed = connection.dialed;
+      this.receiver = connection.receiver;
+      this.receiver.connection = this;
+      this.markRead();
+      this.writer.resume();
+    } finally {
+      this.linkLock.unlock();
+    }
+  }
 
-    this.socket = connection.socket;
-    this.outputStream = connection.outputStream;
-    this.inputStream = connection.inputStream;
-    this.receiver = connection.receiver;
-    this.receiver.connection = this;
+  /**
+   * Marks the start or end of a connect of the writer. A link of the participant adopted while dialing is resolved
+   * against the dialed one once it is installed.
+   */
+  void setDialing(boolean dialing) {
+    this.linkLock.lock();
+    try {
+      this.dialing = dialing;
+    } finally {
+      this.linkLock.unlock();
+    }
+  }
+
+  /**
+   * Lock held while the link changes, see {@link #updateLink(ChannelLink, boolean)}.
+   */
+  public ReentrantLock getLinkLock() {
+    return linkLock;
   }
 
   public void closeSocket() throws IOException {
-    if (this.socket != null) {
-      this.socket.close();
+    if (this.link != null) {
+      this.link.close();
     }
   }
 
@@ -91,12 +171,48 @@ public class ChannelConnection {
     this.closeSocket();
   }
 
-  public ObjectOutputStream getOutputStream() {
-    return outputStream;
+  /**
+   * Writes a batch of frames to the current link. Callers must hold the write lock, all other writes go through
+   * the {@link #getWriter() writer}.
+   */
+  public void writeFrames(List<ByteBuffer> frames) throws IOException {
+    ChannelLink link = this.link;
+    if (link == null) {
+      throw new SocketException("no link to '" + this.hostname + "'");
+    }
+    link.writeFrames(frames);
+  }
+
+  public ConnectionWriter getWriter() {
+    return writer;
+  }
+
+  /**
+   * Records a frame read from the participant, a new link counts as read.
+   */
+  public void markRead() {
+    this.lastRead = System.nanoTime();
+  }
+
+  /**
+   * @return {@link System#nanoTime()} of the last frame read from the participant
+   */
+  public long getLastRead() {
+    return lastRead;
+  }
+
+  /**
+   * @return sequence numbers of the reliable frames received over this connection
+   */
+  public InboundSequence getInboundSequence() {
+    return inboundSequence;
   }
 
-  public ObjectInputStream getInputStream() {
-    return inputStream;
+  /**
+   * @return requests sent to the participant of this connection waiting for their response
+   */
+  public PendingRequests getPendingRequests() {
+    return pendingRequests;
   }
 
   public void updateReceiver() {
@@ -110,11 +226,11 @@ public class ChannelConnection {
     }
   }
 
-  public Predicate<MessageListenerData<?>> getListenerFilter() {
+  public ListenerFilter getListenerFilter() {
     return listenerFilter;
   }
 
-  public void setListenerFilter(Predicate<MessageListenerData<?>> listenerFilter) {
+  public void setListenerFilter(ListenerFilter listenerFilter) {
     this.listenerFilter = listenerFilter;
   }
 
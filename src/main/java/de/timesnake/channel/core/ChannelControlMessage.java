@@ -15,14 +15,14 @@ public class ChannelControlMessage<Value extends Serializable> extends ChannelMe
 
   public ChannelControlMessage(@NotNull ChannelParticipant host, @NotNull MessageType<Value> type, Value value) {
     super(ChannelType.CONTROL, host, type, value);
-    if (!MessageType.Control.TYPES.contains(type)) {
+    if (!ControlMessageType.TYPES.contains(type)) {
       throw new InvalidMessageTypeException();
     }
   }
 
   public ChannelControlMessage(@NotNull ChannelParticipant host, @NotNull MessageType<Value> type) {
     super(ChannelType.CONTROL, host, type);
-    if (!MessageType.Control.TYPES.contains(type)) {
+    if (!ControlMessageType.TYPES.contains(type)) {
       throw new InvalidMessageTypeException();
     }
   }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the threads and executors of a channel: reader loops, async sends, listener registration and message
+ * dispatch.
+ */
+public interface ChannelExecutorFactory {
+
+  /**
+   * Bounded pools of daemon platform threads.
+   */
+  ChannelExecutorFactory PLATFORM = new PlatformExecutorFactory();
+
+  /**
+   * One virtual thread per task, allows thousands of connections and in-flight sends.
+   */
+  ChannelExecutorFactory VIRTUAL = new VirtualExecutorFactory();
+
+  /**
+   * @param name       thread name prefix
+   * @param maxThreads upper bound of concurrently running tasks, may be ignored if threads are cheap
+   * @return executor for short tasks
+   */
+  ExecutorService newExecutor(String name, int maxThreads);
+
+  /**
+   * @return unstarted thread for a long-running loop
+   */
+  Thread newThread(String name, Runnable task);
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.listener.ChannelHandler;
+import de.timesnake.channel.util.listener.ChannelListener;
+import de.timesnake.channel.util.listener.InconsistentChannelListenerException;
+import de.timesnake.channel.util.message.ChannelMessage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.util.Objects;
+
+/**
+ * {@link ChannelHandler} method resolved once on registration. The call is generated via {@link LambdaMetafactory},
+ * with a plain {@link MethodHandle} as fallback, so dispatching a message needs no reflection.
+ */
+public final class ChannelHandlerInvoker {
+
+  private static final Logger LOGGER = LogManager.getLogger("channel.local_listener");
+
+  private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object.class);
+  private static final MethodType VOID_INVOKER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+  public static ChannelHandlerInvoker of(Method method) {
+    ChannelHandler annotation = method.getAnnotation(ChannelHandler.class);
+    return new ChannelHandlerInvoker(method, createInvoker(method), annotation.async());
+  }
+
+  private static Invoker createInvoker(Method method) {
+    Class<?> declaringClass = method.getDeclaringClass();
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(declaringClass, MethodHandles.lookup());
+      MethodHandle target = lookup.unreflect(method);
+      MethodType instantiatedType = MethodType.methodType(method.getReturnType(), declaringClass,
+          method.getParameterTypes()[0]);
+
+      if (method.getReturnType() == void.class) {
+        CallSite site = LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(VoidInvoker.class),
+            VOID_INVOKER_TYPE, target, instantiatedType);
+        VoidInvoker invoker = (VoidInvoker) site.getTarget().invokeExact();
+        return (listener, msg) -> {
+          invoker.invoke(listener, msg);
+          return null;
+        };
+      }
+
+      CallSite site = LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(Invoker.class),
+          INVOKER_TYPE, target, instantiatedType);
+      return (Invoker) site.getTarget().invokeExact();
+    } catch (Throwable e) {
+      LOGGER.debug("Unable to generate invoker for '{}', using method handle: {}", method, e.getMessage());
+    }
+
+    try {
+      method.setAccessible(true);
+      MethodHandle handle = MethodHandles.lookup().unreflect(method).asType(INVOKER_TYPE);
+      return (listener, msg) -> handle.invokeExact(listener, msg);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      throw new InconsistentChannelListenerException("unable to access handler " + method, e);
+    }
+  }
+
+  private final Method method;
+  private final Invoker invoker;
+  private final boolean async;
+
+  private ChannelHandlerInvoker(Method method, Invoker invoker, boolean async) {
+    this.method = method;
+    this.invoker = invoker;
+    this.async = async;
+  }
+
+  /**
+   * @return the value returned by the handler, null if it returns nothing or failed
+   */
+  public Object invoke(ChannelListener listener, ChannelMessage<?, ?> msg) {
+    try {
+      return this.invoker.invoke(listener, msg);
+    } catch (Throwable e) {
+      LOGGER.warn("Unable to invoke listener of '{}': {}", this.method.getDeclaringClass().getName(), e.getMessage(),
+          e);
+      return null;
+    }
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  public boolean isAsync() {
+    return async;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    ChannelHandlerInvoker that = (ChannelHandlerInvoker) o;
+    return Objects.equals(method, that.method);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(method);
+  }
+
+  @FunctionalInterface
+  public interface Invoker {
+
+    Object invoke(Object listener, Object message) throws Throwable;
+  }
+
+  @FunctionalInterface
+  public interface VoidInvoker {
+
+    void invoke(Object listener, Object message) throws Throwable;
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Byte level link of a connection, carrying length prefixed frames.
+ */
+public interface ChannelLink {
+
+  Socket getSocket();
+
+  boolean isOpen();
+
+  /**
+   * Starts to pass received frames to the receiver.
+   */
+  void startReading(ChannelReceiver receiver);
+
+  void stopReading();
+
+  /**
+   * Writes a frame with its length prefix. Callers must hold the write lock of the connection.
+   * The frame may be shared by several links and must be left unchanged.
+   */
+  void writeFrame(ByteBuffer frame) throws IOException;
+
+  /**
+   * Writes a batch of frames and flushes once. Callers must hold the write lock of the connection.
+   */
+  default void writeFrames(List<ByteBuffer> frames) throws IOException {
+    for (ByteBuffer frame : frames) {
+      this.writeFrame(frame);
+    }
+  }
+
+  void close() throws IOException;
+}
@@ -7,7 +7,7 @@ package de.timesnake.channel.core;
 import java.io.Serializable;
 import java.util.Objects;
 
-public class ChannelParticipant implements Serializable {
+public class ChannelParticipant implements Serializable, Comparable<ChannelParticipant> {
 
   private final String hostname;
   private final int listenPort;
@@ -29,6 +29,15 @@ public class ChannelParticipant implements Serializable {
     return this.getHostname() + ":" + this.getListenPort();
   }
 
+  /**
+   * Orders by hostname and listen port, the same on all participants.
+   */
+  @Override
+  public int compareTo(ChannelParticipant o) {
+    int result = this.hostname.compareTo(o.hostname);
+    return result != 0 ? result : Integer.compare(this.listenPort, o.listenPort);
+  }
+
   @Override
   public String toString() {
     return this.getHostname() + ":" + this.getListenPort();
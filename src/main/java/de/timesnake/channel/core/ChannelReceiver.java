@@ -9,9 +9,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.EOFException;
-import java.io.OptionalDataException;
-import java.io.StreamCorruptedException;
+import java.io.IOException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 public class ChannelReceiver {
 
@@ -19,63 +19,109 @@ public class ChannelReceiver {
 
   protected final Channel manager;
   protected ChannelConnection connection;
-  protected Thread thread;
+  protected final ChannelLink link;
+  private final boolean forwarding;
 
   protected ChannelReceiver(Channel manager, ChannelConnection connection) {
     this.manager = manager;
     this.connection = connection;
+    this.link = connection.getLink();
+    this.forwarding = manager.getTopology() == Topology.HUB;
   }
 
   public void start() {
-    this.thread = new Thread(this::listenToSocket);
-    this.thread.setDaemon(true);
-    this.thread.start();
+    this.link.startReading(this);
   }
 
   public void stop() {
-    if (this.thread != null && this.thread.isAlive()) {
-      this.thread.interrupt();
+    this.link.stopReading();
+  }
+
+  /**
+   * Decodes and handles a frame in the calling thread.
+   *
+   * @param frame frame, only valid during the call
+   */
+  public void receive(ByteBuffer frame) {
+    Runnable handling = this.decodeFrame(frame);
+    if (handling != null) {
+      handling.run();
+    }
+  }
+
+  /**
+   * Decodes a frame in the calling thread. Frames a hub forwards are only decoded up to their value.
+   *
+   * @param frame frame, only valid during the call
+   * @return the handling of the frame, to run in receive order, or null if the frame is malformed and unsequenced
+   */
+  public Runnable decodeFrame(ByteBuffer frame) {
+    if (this.forwarding) {
+      ChannelMessage<?, ?> header;
+      try {
+        header = this.manager.getCodec().decodeHeader(frame);
+      } catch (ChannelCodecException e) {
+        logger.warn("Exception while reading message: {}: {}", e.getClass().getSimpleName(), e.getMessage());
+        return null;
+      }
+
+      if (header != null && this.manager.getSender().isForwarded(this.connection, header)) {
+        this.connection.markRead();
+        // the frame is queued at the writers, the read buffer is reused
+        ByteBuffer forwarded = ByteBuffer.allocate(frame.remaining()).put(frame.duplicate()).flip();
+        return () -> this.forward(header, forwarded);
+      }
+    }
+
+    int start = frame.position();
+    ChannelMessage<?, ?> msg = this.decode(frame);
+    if (msg != null) {
+      return () -> this.handleMessage(msg);
     }
+    return this.manager.isReliableDelivery() ? this.skip(frame.position(start)) : null;
   }
 
-  private void listenToSocket() {
+  /**
+   * Counts a sequenced frame whose value is malformed, so the inbound sequence keeps matching the numbering of the
+   * sender. A frame without readable header closes the link, the sender announces its sequence again on reconnect.
+   *
+   * @return the counting of the frame, to run in receive order, or null if it is not counted
+   */
+  private Runnable skip(ByteBuffer frame) {
+    ChannelMessage<?, ?> header;
     try {
-      while (true) {
-        ChannelMessage<?, ?> msg;
-        try {
-          msg = (ChannelMessage<?, ?>) connection.getInputStream().readObject();
-        } catch (StreamCorruptedException e) {
-          logger.warn("Exception while reading message: {}: {}", e.getClass().getSimpleName(), e.getMessage());
-          continue;
-        } catch (OptionalDataException e) {
-          logger.warn("Exception while reading message: {} object read failure: {}", e.getClass().getSimpleName(),
-              e.eof);
-          continue;
-        }
-
-        if (msg == null) {
-          logger.debug("Received from '{}': null", connection.getParticipant());
-          continue;
-        }
-
-        logger.debug("Received from '{}': {}", connection.getParticipant(), msg);
-
-        this.handleMessage(msg);
+      header = this.manager.getCodec().decodeHeader(frame);
+    } catch (ChannelCodecException e) {
+      logger.warn("Closing link to '{}', unreadable frame in reliable delivery", connection.getParticipant());
+      try {
+        this.link.close();
+      } catch (IOException ex) {
+        logger.warn("Exception while closing link to '{}': {}", connection.getParticipant(), ex.getMessage());
       }
-    } catch (EOFException ignored) {
+      return null;
+    }
+    return ChannelType.CONTROL.equals(header.getChannelType()) ? null : () -> this.accept(header);
+  }
 
-    } catch (SocketException e) {
-      logger.info("Socket exception for '{}:{}': {}", connection.getSocket().getInetAddress().getHostName(),
-          connection.getSocket().getPort(), e.getMessage());
-    } catch (Exception e) {
-      logger.warn("Exception while handling message from '{}:{}': {}",
-          connection.getParticipant() != null ? connection.getParticipant().getName() : "unknown",
-          connection.getParticipant() != null ? connection.getParticipant().getListenPort() : "", e.getMessage());
-      e.printStackTrace();
+  /**
+   * @return the decoded message or null if the frame is malformed
+   */
+  public ChannelMessage<?, ?> decode(ByteBuffer frame) {
+    this.connection.markRead();
+
+    ChannelMessage<?, ?> msg;
+    try {
+      msg = this.manager.getCodec().decode(frame);
+    } catch (ChannelCodecException e) {
+      logger.warn("Exception while reading message: {}: {}", e.getClass().getSimpleName(), e.getMessage());
+      return null;
     }
+
+    logger.debug("Received from '{}': {}", connection.getParticipant(), msg);
+    return msg;
   }
 
-  private void handleMessage(ChannelMessage<?, ?> msg) {
+  public void handleMessage(ChannelMessage<?, ?> msg) {
     ChannelType<?> type = msg.getChannelType();
 
     if (ChannelType.CONTROL.equals(type)) {
@@ -83,6 +129,58 @@ public class ChannelReceiver {
       return;
     }
 
+    if (!this.accept(msg)) {
+      return;
+    }
+
+    if (msg.isResponse()) {
+      this.manager.getSender().handleResponse(msg);
+      return;
+    }
+
     this.manager.getLocalListenerManager().invokeLocalListeners(msg);
+    this.manager.getSender().relay(this.connection, msg);
+  }
+
+  private void forward(ChannelMessage<?, ?> header, ByteBuffer frame) {
+    if (this.accept(header)) {
+      this.manager.getSender().forward(this.connection, header, frame);
+    }
+  }
+
+  /**
+   * @return false if the message is a duplicate of a reliably delivered one
+   */
+  private boolean accept(ChannelMessage<?, ?> msg) {
+    if (!this.manager.isReliableDelivery()) {
+      return true;
+    }
+    boolean accepted = this.connection.getInboundSequence().accept();
+    this.connection.getWriter().scheduleAck();
+    if (!accepted) {
+      logger.debug("Dropped duplicate from '{}': {}", connection.getParticipant(), msg);
+    }
+    return accepted;
+  }
+
+  /**
+   * Called once the link stopped reading.
+   *
+   * @param cause exception which ended the link, null if closed regularly
+   */
+  public void onClose(Exception cause) {
+    if (cause == null || cause instanceof EOFException) {
+      return;
+    }
+
+    if (cause instanceof SocketException) {
+      logger.info("Socket exception for '{}:{}': {}", connection.getHostname(), this.link.getSocket().getPort(),
+          cause.getMessage());
+    } else {
+      logger.warn("Exception while handling message from '{}:{}': {}",
+          connection.getParticipant() != null ? connection.getParticipant().getName() : "unknown",
+          connection.getParticipant() != null ? connection.getParticipant().getListenPort() : "", cause.getMessage());
+      cause.printStackTrace();
+    }
   }
 }
@@ -10,13 +10,12 @@ import de.timesnake.channel.util.message.ChannelMessage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.IOException;
-import java.net.ConnectException;
-import java.net.Socket;
-import java.util.Collection;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class ChannelSender {
 
@@ -24,138 +23,320 @@ public abstract class ChannelSender {
 
   protected final Channel manager;
 
-  protected boolean stashEnabled = true;
-  protected final Set<ChannelMessage<?, ?>> messageStash = ConcurrentHashMap.newKeySet();
+  protected volatile boolean stashEnabled = true;
+  /**
+   * Messages stashed until this channel is initialized, equal messages are stashed and sent separately.
+   */
+  protected final Queue<StashedMessage> messageStash = new ConcurrentLinkedQueue<>();
 
-  protected final ExecutorService executorService = new ThreadPoolExecutor(5, 100,
-      5L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+  protected final ExecutorService writerExecutorService;
+  protected final ExecutorService connectExecutorService;
+
+  /**
+   * Global limit of frames queued or being written over all connections.
+   */
+  protected final FramePermits pendingFramePermits;
+  private final int maxPendingFrames;
+
+  private final AtomicLong requestIds = new AtomicLong();
 
   public ChannelSender(Channel manager) {
     this.manager = manager;
+    this.writerExecutorService = manager.getExecutorFactory().newExecutor("channel-writer", 100);
+    this.connectExecutorService = manager.getExecutorFactory().newExecutor("channel-connect",
+        manager.getMaxConcurrentConnects());
+    this.maxPendingFrames = manager.getMaxPendingFrames();
+    this.pendingFramePermits = new FramePermits(this.maxPendingFrames);
   }
 
-  public abstract Collection<ChannelParticipant> getListenerParticipants(ChannelMessage<?, ?> message);
+  /**
+   * @return an immutable list of the participants listening to the message
+   */
+  public abstract List<ChannelParticipant> getListenerParticipants(ChannelMessage<?, ?> message);
 
+  public ExecutorService getWriterExecutorService() {
+    return writerExecutorService;
+  }
+
+  ExecutorService getConnectExecutorService() {
+    return connectExecutorService;
+  }
+
+  FramePermits getPendingFramePermits() {
+    return pendingFramePermits;
+  }
+
+  /**
+   * @return the number of frames queued or being written over all connections
+   */
+  public int getPendingFrameCount() {
+    return this.maxPendingFrames - this.pendingFramePermits.availablePermits();
+  }
+
+  /**
+   * Sends all stashed messages to the known participants and disables stashing.
+   */
   public void unstash() {
     this.stashEnabled = false;
-    this.manager.getKnownParticipants().forEach(this::sendStashedMessages);
-    this.messageStash.clear();
+    List<ChannelParticipant> participants = this.sendStash();
+    logger.info("Send stash to {}", participants);
   }
 
-  protected void sendStashedMessages(ChannelParticipant participant) {
-    this.messageStash.forEach(m -> manager.getSender().sendMessageSync(participant, m));
-    logger.info("Send stash to '{}'", participant);
+  /**
+   * Sends and removes the stashed messages, each is taken by exactly one caller.
+   *
+   * @return the participants the messages are sent to
+   */
+  private List<ChannelParticipant> sendStash() {
+    List<ChannelParticipant> participants = List.copyOf(this.manager.getKnownParticipants());
+    StashedMessage stashed;
+    while ((stashed = this.messageStash.poll()) != null) {
+      CompletableFuture<ResultMessage> result = stashed.result();
+      this.sendMessage(participants, stashed.message()).whenComplete((r, e) -> {
+        if (e != null) {
+          result.completeExceptionally(e);
+        } else {
+          result.complete(r);
+        }
+      });
+    }
+    return participants;
   }
 
-  public Future<ResultMessage> sendMessageStashed(ChannelMessage<?, ?> message) {
-    return this.executorService.submit(() -> this.sendMessageSyncAndStashed(message));
+  /**
+   * @return future of the stashed message, completed once the stash is sent
+   */
+  private CompletableFuture<ResultMessage> stash(ChannelMessage<?, ?> message) {
+    StashedMessage stashed = new StashedMessage(message, new CompletableFuture<>());
+    this.messageStash.offer(stashed);
+    // the stash may have been sent meanwhile
+    if (!this.stashEnabled) {
+      this.sendStash();
+    }
+    return stashed.result();
   }
 
-  public ResultMessage sendMessageSyncAndStashed(ChannelMessage<?, ?> message) {
-    ResultMessage resultMessage = new ResultMessage();
+  /**
+   * Sends the message or stashes it until this channel is initialized.
+   *
+   * @return future completed once the message is written to all participants, for a stashed message after the stash
+   * is sent
+   */
+  public CompletableFuture<ResultMessage> sendMessageStashed(ChannelMessage<?, ?> message) {
+    if (!this.stashEnabled) {
+      return this.sendMessage(message);
+    }
 
+    return this.stash(message);
+  }
+
+  /**
+   * Sends the message and waits until it is written. A stashed message is not waited for.
+   */
+  public ResultMessage sendMessageSyncAndStashed(ChannelMessage<?, ?> message) {
     if (!this.stashEnabled) {
-      for (ChannelParticipant participant : this.getListenerParticipants(message)) {
-        resultMessage.addResult(this.sendMessageSync(participant, message));
-      }
-    } else {
-      this.messageStash.add(message);
+      return this.sendMessageSync(message);
     }
 
-    return resultMessage;
+    this.stash(message);
+    return new ResultMessage();
   }
 
-  public Future<ResultMessage> sendMessage(ChannelMessage<?, ?> message) {
-    return this.executorService.submit(() -> this.sendMessageSync(message));
+  public CompletableFuture<ResultMessage> sendMessage(ChannelMessage<?, ?> message) {
+    return this.sendMessage(this.getListenerParticipants(message), message);
   }
 
   public ResultMessage sendMessageSync(ChannelMessage<?, ?> message) {
-    ResultMessage resultMessage = new ResultMessage();
-    for (ChannelParticipant participant : this.getListenerParticipants(message)) {
-      resultMessage.addResult(this.sendMessageSync(participant, message));
+    return this.sendMessage(message).join();
+  }
+
+  /**
+   * Sends the message to all participants. The message is encoded once, the frame is queued at the writer of each
+   * connection, so the connections are written in parallel.
+   *
+   * @return future completed once the frame is written to all connections, never completed exceptionally
+   */
+  public CompletableFuture<ResultMessage> sendMessage(List<ChannelParticipant> participants,
+                                                     ChannelMessage<?, ?> message) {
+    if (participants.isEmpty()) {
+      return CompletableFuture.completedFuture(new ResultMessage());
     }
-    return resultMessage;
+    return this.sendFrame(participants, this.encode(message), message);
   }
 
-  public Future<ResultMessage> sendMessage(ChannelParticipant participant, ChannelMessage<?, ?> message) {
-    return this.executorService.submit(() -> this.sendMessageSync(participant, message));
+  /**
+   * Queues an encoded frame at the writer of each participant.
+   *
+   * @param message the encoded message
+   * @return future completed once the frame is written to all connections, never completed exceptionally
+   */
+  protected CompletableFuture<ResultMessage> sendFrame(List<ChannelParticipant> participants, ByteBuffer frame,
+                                                       ChannelMessage<?, ?> message) {
+    CompletableFuture<?>[] results = new CompletableFuture<?>[participants.size()];
+    for (int i = 0; i < participants.size(); i++) {
+      results[i] = this.write(this.getConnection(participants.get(i)), frame, message);
+    }
+
+    return CompletableFuture.allOf(results).thenApply(v -> {
+      ResultMessage resultMessage = new ResultMessage();
+      for (CompletableFuture<?> result : results) {
+        resultMessage.addResult((ResultMessage) result.join());
+      }
+      return resultMessage;
+    });
   }
 
-  public ResultMessage sendMessageSync(ChannelParticipant participant, ChannelMessage<?, ?> message) {
-    ChannelConnection connection = this.manager.getChannelByParticipant()
-        .computeIfAbsent(participant, h -> new ChannelConnection(this.manager, participant));
+  public ResultMessage sendMessageSync(List<ChannelParticipant> participants, ChannelMessage<?, ?> message) {
+    return this.sendMessage(participants, message).join();
+  }
+
+  public CompletableFuture<ResultMessage> sendMessage(ChannelParticipant participant, ChannelMessage<?, ?> message) {
+    return this.write(this.getConnection(participant), this.encode(message), message);
+  }
 
-    return this.sendMessageSync(connection, message);
+  public ResultMessage sendMessageSync(ChannelParticipant participant, ChannelMessage<?, ?> message) {
+    return this.sendMessage(participant, message).join();
   }
 
   public ResultMessage sendMessageSync(ChannelConnection connection, ChannelMessage<?, ?> message) {
-    ChannelParticipant participant = connection.getParticipant();
-    try {
-      ReentrantLock hostLock = connection.getWriteLock();
-      boolean locked = false;
-
-      try {
-        locked = hostLock.tryLock(3, TimeUnit.SECONDS);
-        if (!locked) {
-          logger.warn("Unable to lock connection to '{}', due to timeout", connection.getParticipant());
-          return new ResultMessage().addResult(participant, false,
-              new ChannelException("send lock error", new TimeoutException("timed out while locking")));
-        }
+    return this.write(connection, this.encode(message), message).join();
+  }
 
-        this.sendMessageSync(connection, message, 0, null);
-      } catch (InterruptedException e) {
-        logger.warn("Unable to lock connection to '{}', due to interruption", participant);
-        return new ResultMessage().addResult(participant, false, new ChannelException("send lock error", e));
-      } finally {
-        if (locked) {
-          hostLock.unlock();
-        }
-      }
-      return new ResultMessage().addResult(participant, true, null);
-    } catch (IOException e) {
-      logger.warn("Failed to setup connection to '{}': {}", participant, e.getMessage());
-      return new ResultMessage().addResult(participant, false, new ChannelException("connection setup exception", e));
-    }
+  /**
+   * Sends the message as request to all participants listening to it. The first response completes the future, later
+   * responses are dropped.
+   *
+   * @param timeout time to wait for a response, the future fails with a {@link TimeoutException} afterward
+   * @return future of the response, fails with a {@link ChannelException} if no participant listens to the message or
+   * the request could not be sent to any of them
+   */
+  public CompletableFuture<ChannelMessage<?, ?>> request(ChannelMessage<?, ?> message, Duration timeout) {
+    return this.request(this.getListenerParticipants(message), message, timeout);
   }
 
-  private void sendMessageSync(ChannelConnection connection, ChannelMessage<?, ?> message, int retry,
-                               Exception lastException) throws IOException {
-    if (retry > Channel.CONNECTION_RETRIES) {
-      throw new IOException("Unable to establish connection to '" + connection.getParticipant() + "': " + lastException.getMessage(), lastException);
+  /**
+   * Sends the message as request to the participants. The first response completes the future, later responses are
+   * dropped.
+   */
+  public CompletableFuture<ChannelMessage<?, ?>> request(List<ChannelParticipant> participants,
+                                                         ChannelMessage<?, ?> message, Duration timeout) {
+    if (participants.isEmpty()) {
+      return CompletableFuture.failedFuture(new ChannelException("no listener for request " + message.getMessageType()));
     }
 
-    if (retry == Channel.CONNECTION_RETRIES) {
-      this.manager.disconnectHost(connection);
-      logger.warn("Unable to send messages to '{}' -> disconnected", connection.getParticipant());
-      return;
-    }
+    message.setRequest(this.requestIds.incrementAndGet());
+    CompletableFuture<ChannelMessage<?, ?>> response = new CompletableFuture<>();
+    response.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
 
-    if (retry == Channel.CONNECTION_RETRIES - 1) {
-      logger.info("Unable to send message to '{}' -> reconnecting", connection.getParticipant());
-      Socket socket = new Socket(connection.getHostname(), connection.getParticipant().getListenPort());
-      this.manager.updateConnectionSocket(socket, connection, true);
+    List<ChannelConnection> connections = participants.stream().map(this::getConnection).toList();
+    for (ChannelConnection connection : connections) {
+      connection.getPendingRequests().add(message.getRequestId(), response);
     }
 
-    if (connection.getSocket() == null) {
-      Socket socket = new Socket(connection.getHostname(), connection.getParticipant().getListenPort());
-      this.manager.updateConnectionSocket(socket, connection, false);
-    } else if (!connection.getSocket().isConnected()) {
-      logger.info("No open socket to '{}' -> reconnecting", connection.getParticipant().getName());
-      Socket socket = new Socket(connection.getHostname(), connection.getParticipant().getListenPort());
-      this.manager.updateConnectionSocket(socket, connection, true);
+    ByteBuffer frame = this.encode(message);
+    CompletableFuture<?>[] results = new CompletableFuture<?>[connections.size()];
+    for (int i = 0; i < connections.size(); i++) {
+      results[i] = this.write(connections.get(i), frame, message);
     }
 
-    try {
-      if (connection.getSocket().isConnected()) {
-        message.setSource(this.manager.getSelf());
-        connection.getOutputStream().writeObject(message);
-        connection.getOutputStream().flush();
-        logger.debug("Sent to '{}': {}", connection.getParticipant(), message);
-      } else {
-        this.sendMessageSync(connection, message, retry + 1, new ConnectException("socket is not connected"));
+    CompletableFuture.allOf(results).thenRun(() -> {
+      for (CompletableFuture<?> result : results) {
+        if (((ResultMessage) result.join()).isSuccessful()) {
+          return;
+        }
       }
-    } catch (IOException e) {
-      this.sendMessageSync(connection, message, retry + 1, e);
+      response.completeExceptionally(new ChannelException("unable to send request " + message.getMessageType()));
+    });
+
+    return response;
+  }
+
+  /**
+   * Sends the response to the source of the request.
+   */
+  public CompletableFuture<ResultMessage> sendResponse(ChannelMessage<?, ?> request, ChannelMessage<?, ?> response) {
+    response.setResponse(request.getRequestId());
+    return this.sendMessage(request.getSource(), response);
+  }
+
+  /**
+   * Forwards a message received from the participant of the connection. Only hubs relay messages.
+   *
+   * @see RelayChannelSender
+   */
+  public void relay(ChannelConnection connection, ChannelMessage<?, ?> message) {
+
+  }
+
+  /**
+   * @param header message decoded without value
+   * @return true if the frame of the message is only forwarded, so its value is never decoded
+   */
+  public boolean isForwarded(ChannelConnection connection, ChannelMessage<?, ?> header) {
+    return false;
+  }
+
+  /**
+   * Forwards a received frame as is.
+   *
+   * @param header message decoded without value
+   * @param frame  the received frame
+   * @see #isForwarded(ChannelConnection, ChannelMessage)
+   */
+  public void forward(ChannelConnection connection, ChannelMessage<?, ?> header, ByteBuffer frame) {
+
+  }
+
+  /**
+   * Completes the pending request answered by the response.
+   */
+  public void handleResponse(ChannelMessage<?, ?> response) {
+    ChannelConnection connection = response.getSource() != null ?
+        this.manager.getChannelConnection(response.getSource()) : null;
+    if (connection == null || !connection.getPendingRequests().complete(response)) {
+      logger.debug("Dropped response without pending request from '{}': {}", response.getSource(), response);
     }
   }
+
+  protected ChannelConnection getConnection(ChannelParticipant participant) {
+    return this.manager.getChannelByParticipant()
+        .computeIfAbsent(participant, h -> new ChannelConnection(this.manager, participant));
+  }
+
+  /**
+   * Sets this channel as source and encodes the message into a frame, which may be shared between connections.
+   */
+  protected ByteBuffer encode(ChannelMessage<?, ?> message) {
+    message.setSource(this.manager.getSelf());
+    return this.manager.getCodec().encode(message);
+  }
+
+  /**
+   * Queues the frame at the writer of the connection.
+   *
+   * @return future of the result, never completed exceptionally
+   */
+  protected CompletableFuture<ResultMessage> write(ChannelConnection connection, ByteBuffer frame,
+                                                   ChannelMessage<?, ?> message) {
+    ChannelParticipant participant = connection.getParticipant();
+    return connection.getWriter().write(frame, message).handle((v, e) -> {
+      if (e == null) {
+        logger.debug("Sent to '{}': {}", participant, message);
+        return new ResultMessage().addResult(participant, true, null);
+      }
+
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      if (cause instanceof ChannelException channelException) {
+        logger.warn("Unable to send to '{}': {}", participant, channelException.getMessage());
+        return new ResultMessage().addResult(participant, false, channelException);
+      }
+      logger.warn("Failed to setup connection to '{}': {}", participant, cause.getMessage());
+      return new ResultMessage().addResult(participant, false, new ChannelException("connection setup exception",
+          cause));
+    });
+  }
+
+  protected record StashedMessage(ChannelMessage<?, ?> message, CompletableFuture<ResultMessage> result) {
+
+  }
 }
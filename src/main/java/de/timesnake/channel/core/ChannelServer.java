@@ -18,6 +18,9 @@ public class ChannelServer implements Runnable {
 
   protected final Channel manager;
 
+  private ServerSocket serverSocket;
+  private volatile boolean closed = false;
+
   protected ChannelServer(Channel manager) {
     this.manager = manager;
   }
@@ -27,6 +30,17 @@ public class ChannelServer implements Runnable {
     this.startServer();
   }
 
+  public void close() {
+    this.closed = true;
+    if (this.serverSocket != null) {
+      try {
+        this.serverSocket.close();
+      } catch (IOException e) {
+        logger.warn("Error while closing socket: {}", e.getMessage());
+      }
+    }
+  }
+
   private void startServer() {
     ServerSocket serverSocket;
     try {
@@ -36,12 +50,16 @@ public class ChannelServer implements Runnable {
       logger.error("Error while starting channel server/receiver: {}", e.getMessage());
       return;
     }
+    this.serverSocket = serverSocket;
 
-    while (true) {
+    while (!this.closed) {
       final Socket activeSocket;
       try {
         activeSocket = serverSocket.accept();
       } catch (IOException e) {
+        if (this.closed) {
+          return;
+        }
         logger.warn("Error while accepting message, restarting socket ...");
         try {
           serverSocket.close();
@@ -53,9 +71,14 @@ public class ChannelServer implements Runnable {
         return;
       }
 
-      logger.debug("Accepting connection from '{}:{}'", activeSocket.getInetAddress().getHostName(),
+      logger.debug("Accepting connection from '{}:{}'", activeSocket.getInetAddress().getHostAddress(),
           activeSocket.getPort());
-      this.manager.acceptConnection(activeSocket);
+      try {
+        this.manager.acceptConnection(new SocketLink(activeSocket, this.manager.getExecutorFactory()));
+      } catch (IOException e) {
+        logger.warn("Error while accepting connection from '{}': {}", activeSocket.getInetAddress().getHostAddress(),
+            e.getMessage());
+      }
     }
 
   }
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.io.IOException;
+
+/**
+ * Accepts incoming and opens outgoing links of a channel.
+ */
+public interface ChannelTransport {
+
+  void start();
+
+  void stop();
+
+  /**
+   * Opens a new link to the participant of the connection and attaches it. Gives up after
+   * {@link Channel#getConnectTimeout()}.
+   *
+   * @param connection connection to attach the link to
+   * @param reconnect  whether the connection had a link before
+   * @throws IOException if the link could not be opened
+   */
+  void connect(ChannelConnection connection, boolean reconnect) throws IOException;
+}
@@ -4,14 +4,14 @@
 
 package de.timesnake.channel.core;
 
-import de.timesnake.channel.util.message.MessageType;
+import de.timesnake.channel.util.message.*;
 import de.timesnake.channel.util.message.MessageType.*;
 
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serial;
 import java.io.Serializable;
-import java.util.Collection;
-import java.util.List;
-import java.util.Objects;
-import java.util.UUID;
+import java.util.*;
 
 public abstract class ChannelType<Identifier extends Serializable> implements Serializable {
 
@@ -21,6 +21,12 @@ public abstract class ChannelType<Identifier extends Serializable> implements Se
     public Collection<MessageType<?>> getMessageTypes() {
       return User.TYPES;
     }
+
+    @Override
+    public <Value extends Serializable> ChannelMessage<UUID, Value> createMessage(
+        UUID identifier, MessageType<Value> messageType, Value value) {
+      return new ChannelUserMessage<>(identifier, messageType, value);
+    }
   };
   public static final ChannelType<String> SERVER = new ChannelType<>("server", String.class) {
 
@@ -28,12 +34,24 @@ public abstract class ChannelType<Identifier extends Serializable> implements Se
     public Collection<MessageType<?>> getMessageTypes() {
       return Server.TYPES;
     }
+
+    @Override
+    public <Value extends Serializable> ChannelMessage<String, Value> createMessage(
+        String identifier, MessageType<Value> messageType, Value value) {
+      return new ChannelServerMessage<>(identifier, messageType, value);
+    }
   };
   public static final ChannelType<ChannelParticipant> CONTROL = new ChannelType<>("control", ChannelParticipant.class) {
 
     @Override
     public Collection<MessageType<?>> getMessageTypes() {
-      return Control.TYPES;
+      return ControlMessageType.TYPES;
+    }
+
+    @Override
+    public <Value extends Serializable> ChannelMessage<ChannelParticipant, Value> createMessage(
+        ChannelParticipant identifier, MessageType<Value> messageType, Value value) {
+      return new ChannelControlMessage<>(identifier, messageType, value);
     }
   };
   public static final ChannelType<String> GROUP = new ChannelType<>("group", String.class) {
@@ -42,6 +60,12 @@ public abstract class ChannelType<Identifier extends Serializable> implements Se
     public Collection<MessageType<?>> getMessageTypes() {
       return Group.TYPES;
     }
+
+    @Override
+    public <Value extends Serializable> ChannelMessage<String, Value> createMessage(
+        String identifier, MessageType<Value> messageType, Value value) {
+      return new ChannelGroupMessage<>(identifier, messageType, value);
+    }
   };
   public static final ChannelType<String> DISCORD = new ChannelType<>("discord", String.class) {
 
@@ -49,6 +73,12 @@ public abstract class ChannelType<Identifier extends Serializable> implements Se
     public Collection<MessageType<?>> getMessageTypes() {
       return Discord.TYPES;
     }
+
+    @Override
+    public <Value extends Serializable> ChannelMessage<String, Value> createMessage(
+        String identifier, MessageType<Value> messageType, Value value) {
+      return new ChannelDiscordMessage<>(identifier, messageType, value);
+    }
   };
   public static final ChannelType<String> TEMPLATES = new ChannelType<>("templates", String.class) {
 
@@ -56,13 +86,85 @@ public abstract class ChannelType<Identifier extends Serializable> implements Se
     public Collection<MessageType<?>> getMessageTypes() {
       return Templates.TYPES;
     }
+
+    @Override
+    public <Value extends Serializable> ChannelMessage<String, Value> createMessage(
+        String identifier, MessageType<Value> messageType, Value value) {
+      return new ChannelTemplatesMessage<>(identifier, messageType, value);
+    }
   };
 
+  /**
+   * Registered channel types, their index is their tag on the wire. Append-only.
+   */
   public static final List<ChannelType<?>> TYPES = List.of(USER, SERVER, CONTROL, GROUP, DISCORD, TEMPLATES);
 
+  private static final Map<String, ChannelType<?>> TYPES_BY_NAME = new HashMap<>();
+  private static final Map<MessageType<?>, ChannelType<?>> TYPES_BY_MESSAGE_TYPE = new IdentityHashMap<>();
+  private static final int MESSAGE_TYPE_COUNT;
+
+  static {
+    int slotOffset = 0;
+    for (int i = 0; i < TYPES.size(); i++) {
+      ChannelType<?> channelType = TYPES.get(i);
+      channelType.ordinal = i;
+      channelType.slotOffset = slotOffset;
+      TYPES_BY_NAME.put(channelType.getName(), channelType);
+
+      int maxOrdinal = channelType.getMessageTypes().stream().mapToInt(MessageType::getOrdinal).max().orElse(-1);
+      channelType.messageTypes = new MessageType<?>[maxOrdinal + 1];
+      for (MessageType<?> messageType : channelType.getMessageTypes()) {
+        channelType.register(messageType);
+      }
+      slotOffset += channelType.messageTypes.length;
+    }
+    MESSAGE_TYPE_COUNT = slotOffset;
+  }
+
+  /**
+   * @return the channel type carrying the message type or null if it is not registered
+   */
+  public static ChannelType<?> of(MessageType<?> messageType) {
+    return TYPES_BY_MESSAGE_TYPE.get(messageType);
+  }
+
+  /**
+   * @return the index of the message type among all registered message types or -1 if it is not registered
+   */
+  public static int getSlot(MessageType<?> messageType) {
+    ChannelType<?> channelType = of(messageType);
+    return channelType != null ? channelType.slotOffset + messageType.getOrdinal() : -1;
+  }
+
+  /**
+   * @return the channel type with the ordinal or null if there is none
+   */
+  public static ChannelType<?> getType(int ordinal) {
+    return ordinal >= 0 && ordinal < TYPES.size() ? TYPES.get(ordinal) : null;
+  }
+
+  /**
+   * @return the channel type with the name or null if there is none
+   */
+  public static ChannelType<?> getType(String name) {
+    return TYPES_BY_NAME.get(name);
+  }
+
+  /**
+   * @return the number of message types of all channel types, the upper bound of {@link MessageType#getSlot()}
+   */
+  public static int getMessageTypeCount() {
+    return MESSAGE_TYPE_COUNT;
+  }
+
   private final String name;
   private final Class<? extends Serializable> identifierClass;
 
+  private transient int ordinal = -1;
+  private transient int slotOffset;
+  private transient MessageType<?>[] messageTypes = new MessageType<?>[0];
+  private final transient Map<String, MessageType<?>> messageTypesByName = new HashMap<>();
+
   public ChannelType(String name, Class<? extends Serializable> identifierClass) {
     this.name = name;
     this.identifierClass = identifierClass;
@@ -72,8 +174,55 @@ public abstract class ChannelType<Identifier extends Serializable> implements Se
     return name;
   }
 
+  /**
+   * @return the index of this type in {@link #TYPES} or -1 if it is not registered
+   */
+  public int getOrdinal() {
+    return ordinal;
+  }
+
   public abstract Collection<MessageType<?>> getMessageTypes();
 
+  private void register(MessageType<?> messageType) {
+    int ordinal = messageType.getOrdinal();
+    if (ordinal < 0) {
+      throw new IllegalStateException("message type '" + messageType.getName() + "' of channel type '" + this.name
+          + "' has no ordinal");
+    }
+    MessageType<?> registered = this.messageTypes[ordinal];
+    if (registered != null) {
+      throw new IllegalStateException("message types '" + registered.getName() + "' and '" + messageType.getName()
+          + "' of channel type '" + this.name + "' share ordinal " + ordinal);
+    }
+    ChannelType<?> channelType = TYPES_BY_MESSAGE_TYPE.putIfAbsent(messageType, this);
+    if (channelType != null) {
+      throw new IllegalStateException("message type '" + messageType.getName()
+          + "' already registered at channel type '" + channelType.getName() + "'");
+    }
+    this.messageTypes[ordinal] = messageType;
+    this.messageTypesByName.put(messageType.getName(), messageType);
+  }
+
+  /**
+   * @return the message type of this channel type with the ordinal or null if there is none
+   */
+  public MessageType<?> getMessageType(int ordinal) {
+    return ordinal >= 0 && ordinal < this.messageTypes.length ? this.messageTypes[ordinal] : null;
+  }
+
+  /**
+   * @return the message type of this channel type with the name or null if there is none
+   */
+  public MessageType<?> getMessageType(String name) {
+    return this.messageTypesByName.get(name);
+  }
+
+  /**
+   * Creates a message of this channel type, used to restore decoded messages.
+   */
+  public abstract <Value extends Serializable> ChannelMessage<Identifier, Value> createMessage(
+      Identifier identifier, MessageType<Value> messageType, Value value);
+
   public Class<? extends Serializable> getIdentifierClass() {
     return identifierClass;
   }
@@ -83,17 +232,12 @@ public abstract class ChannelType<Identifier extends Serializable> implements Se
     return this.getName();
   }
 
-  @Override
-  public boolean equals(Object o) {
-    if (this == o) return true;
-    if (o == null || getClass() != o.getClass()) return false;
-    ChannelType<?> that = (ChannelType<?>) o;
-    return Objects.equals(name, that.name);
-  }
-
-  @Override
-  public int hashCode() {
-    return Objects.hash(name);
+  @Serial
+  protected Object readResolve() throws ObjectStreamException {
+    ChannelType<?> type = getType(this.name);
+    if (type == null) {
+      throw new InvalidObjectException("unknown channel type '" + this.name + "'");
+    }
+    return type;
   }
 }
-
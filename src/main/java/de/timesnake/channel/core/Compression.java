@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression of frame values. All levels write the same format, a participant decompresses frames of any level.
+ */
+public enum Compression {
+
+  /**
+   * Values are sent as encoded.
+   */
+  NONE(Deflater.NO_COMPRESSION),
+  /**
+   * Deflate with the fastest level, for links where the CPU time matters more than the size.
+   */
+  DEFLATE_FAST(Deflater.BEST_SPEED),
+  /**
+   * Deflate with the default level.
+   */
+  DEFLATE(Deflater.DEFAULT_COMPRESSION),
+  /**
+   * Deflate with the best level, for metered links.
+   */
+  DEFLATE_BEST(Deflater.BEST_COMPRESSION);
+
+  private final int level;
+
+  Compression(int level) {
+    this.level = level;
+  }
+
+  public int getLevel() {
+    return level;
+  }
+}
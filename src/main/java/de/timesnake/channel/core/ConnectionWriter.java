@@ -0,0 +1,687 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.listener.ChannelException;
+import de.timesnake.channel.util.message.ChannelMessage;
+import de.timesnake.channel.util.message.MessageType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single writer of a connection. Frames are queued by any thread into a queue bounded by
+ * {@link Channel#getOutboundQueueCapacity()} and written by one drain task at a time. The task packs up to
+ * {@link Channel#getMaxBatchSize()} pending frames into one write, waits up to {@link Channel#getMaxBatchLinger()} for
+ * a batch to fill and flushes once per batch. A send waiting for space never blocks the sending thread, its future
+ * completes once the frame is queued and written.
+ *
+ * <p>
+ * The writer keeps the {@link PeerState} of the participant. Links are opened by the drain task, never by the sending
+ * thread. Failed connects and writes are retried in the background with exponential backoff, starting at
+ * {@link Channel#getReconnectBackoff()}. After {@link Channel#getCircuitBreakerThreshold()} failures in a row the
+ * circuit opens, queued frames fail and new sends fail immediately until the next attempt.
+ *
+ * <p>
+ * In {@link Channel#isReliableDelivery() reliable delivery mode} all non control frames are numbered and kept until
+ * the participant acknowledges them. Their futures complete on acknowledgement. Once a frame is written over a new link,
+ * all unacknowledged frames are replayed first, behind a
+ * {@link ControlMessageType#SEQUENCE} message announcing the number of the first one. Acknowledgements for frames
+ * received over the connection are appended to outgoing batches or written after {@link Channel#getAckDelay()}.
+ */
+public class ConnectionWriter {
+
+  public final Logger logger = LogManager.getLogger("channel.sender.writer");
+
+  private final Channel manager;
+  private final ChannelConnection connection;
+  private final Executor executor;
+  private final Executor connectExecutor;
+
+  private final BlockingQueue<PendingFrame> queue = new LinkedBlockingQueue<>();
+  private final FramePermits queuePermits;
+  private final ConcurrentHashMap<CoalescingKey, PendingFrame> coalescing = new ConcurrentHashMap<>();
+  private final FramePermits globalPermits;
+  private final BackpressurePolicy policy;
+  private final long timeoutNanos;
+  private final int maxBatchSize;
+  private final long lingerNanos;
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  private final boolean reliable;
+  private final long ackDelayNanos;
+  private final AtomicBoolean ackScheduled = new AtomicBoolean();
+  private final Deque<Unacknowledged> unacknowledged = new ArrayDeque<>();
+  private long nextSequence = 1;
+  private ChannelLink sequencedLink;
+
+  private final long backoffNanos;
+  private final long maxBackoffNanos;
+  private final int circuitBreakerThreshold;
+  private volatile PeerState state = PeerState.CONNECTING;
+  private volatile boolean closed;
+  private volatile boolean connecting;
+  private volatile IOException connectFailure;
+  private volatile int failures;
+  private volatile long lastWrite = System.nanoTime();
+  private Batch current;
+
+  public ConnectionWriter(Channel manager, ChannelConnection connection) {
+    this.manager = manager;
+    this.connection = connection;
+    this.executor = manager.getSender().getWriterExecutorService();
+    this.connectExecutor = manager.getSender().getConnectExecutorService();
+    this.queuePermits = new FramePermits(manager.getOutboundQueueCapacity());
+    this.globalPermits = manager.getSender().getPendingFramePermits();
+    this.policy = manager.getBackpressurePolicy();
+    this.timeoutNanos = manager.getBackpressureTimeout().toNanos();
+    this.maxBatchSize = Math.max(1, manager.getMaxBatchSize());
+    this.lingerNanos = manager.getMaxBatchLinger().toNanos();
+    this.reliable = manager.isReliableDelivery();
+    this.ackDelayNanos = manager.getAckDelay().toNanos();
+    this.backoffNanos = Math.max(1, manager.getReconnectBackoff().toNanos());
+    this.maxBackoffNanos = Math.max(this.backoffNanos, manager.getMaxReconnectBackoff().toNanos());
+    this.circuitBreakerThreshold = Math.max(1, manager.getCircuitBreakerThreshold());
+  }
+
+  /**
+   * Queues a frame. If the queue of this connection or the global limit of pending frames is reached, the
+   * {@link Channel#getBackpressurePolicy() backpressure policy} decides.
+   *
+   * <p>
+   * Messages of a {@link MessageType#isCoalescable() coalescable} type replace the frame of a queued message with the
+   * same type and identifier. Both senders share the future, which completes once the latest value is written. Requests
+   * and responses are never coalesced.
+   *
+   * @param frame   encoded message
+   * @param message the encoded message
+   * @return future completed once the frame is written, failed immediately if the circuit is open
+   */
+  public CompletableFuture<Void> write(ByteBuffer frame, ChannelMessage<?, ?> message) {
+    if (this.closed) {
+      return CompletableFuture.failedFuture(new ChannelException("connection to '"
+          + this.connection.getParticipant() + "' is closed"));
+    }
+    if (this.state == PeerState.OPEN_CIRCUIT) {
+      return CompletableFuture.failedFuture(new ChannelException("circuit to '" + this.connection.getParticipant()
+          + "' is open"));
+    }
+
+    MessageType<?> messageType = message.getMessageType();
+    CoalescingKey key = null;
+
+    if (messageType.isCoalescable() && message.getRequestId() == 0) {
+      key = new CoalescingKey(messageType, message.getIdentifier());
+      PendingFrame queued = this.coalescing.get(key);
+      if (queued != null && queued.replace(frame)) {
+        logger.debug("Coalesced '{}' to '{}'", messageType, this.connection.getParticipant());
+        return queued.future;
+      }
+    }
+
+    PendingFrame pending = new PendingFrame(frame, messageType, key,
+        this.reliable && message.getChannelType() != ChannelType.CONTROL);
+
+    if (this.policy == BackpressurePolicy.BLOCK) {
+      // waits for space without blocking the caller, permits are handed out in the order of the sends
+      long deadline = System.nanoTime() + this.timeoutNanos;
+      this.globalPermits.acquire(this.timeoutNanos).whenComplete((global, globalTimeout) -> {
+        if (globalTimeout != null) {
+          pending.future.completeExceptionally(this.globalLimitReached(globalTimeout));
+          return;
+        }
+        pending.future.whenComplete((v, e) -> this.globalPermits.release());
+        this.queuePermits.acquire(deadline - System.nanoTime()).whenComplete((queued, queueTimeout) -> {
+          if (queueTimeout != null) {
+            pending.future.completeExceptionally(this.queueLimitReached(queueTimeout));
+          } else {
+            this.enqueue(pending);
+          }
+        });
+      });
+      return pending.future;
+    }
+
+    if (!this.tryAcquire(this.globalPermits)) {
+      return CompletableFuture.failedFuture(this.globalLimitReached(null));
+    }
+    pending.future.whenComplete((v, e) -> this.globalPermits.release());
+    if (!this.tryAcquire(this.queuePermits)) {
+      pending.future.completeExceptionally(this.queueLimitReached(null));
+      return pending.future;
+    }
+    this.enqueue(pending);
+    return pending.future;
+  }
+
+  private boolean tryAcquire(FramePermits permits) {
+    return switch (this.policy) {
+      case BLOCK, FAIL -> permits.tryAcquire();
+      case DROP_OLDEST -> permits.tryAcquire() || (this.dropOldest() && permits.tryAcquire());
+    };
+  }
+
+  private ChannelException globalLimitReached(Throwable timeout) {
+    return new ChannelException("too many pending messages", timeout != null ? timeout
+        : new TimeoutException("global limit of " + this.manager.getMaxPendingFrames() + " reached"));
+  }
+
+  private ChannelException queueLimitReached(Throwable timeout) {
+    return new ChannelException("outbound queue to '" + this.connection.getParticipant() + "' is full",
+        timeout != null ? timeout : new TimeoutException("queue limit reached"));
+  }
+
+  /**
+   * Queues a frame holding its permits.
+   */
+  private void enqueue(PendingFrame pending) {
+    if (this.state == PeerState.OPEN_CIRCUIT) {
+      this.queuePermits.release();
+      pending.future.completeExceptionally(new ChannelException("circuit to '" + this.connection.getParticipant()
+          + "' is open"));
+      return;
+    }
+
+    // published before the frame is queued, otherwise the drain task may take it first and leave a stale entry
+    boolean published = pending.key != null && this.coalescing.putIfAbsent(pending.key, pending) == null;
+    if (!this.queue.offer(pending)) {
+      if (published) {
+        this.coalescing.remove(pending.key, pending);
+      }
+      this.queuePermits.release();
+      pending.future.completeExceptionally(this.queueLimitReached(null));
+      return;
+    }
+    this.schedule();
+  }
+
+  /**
+   * Removes the oldest queued frame of a coalescable type.
+   *
+   * @return true if a frame was dropped
+   */
+  private boolean dropOldest() {
+    for (PendingFrame pending : this.queue) {
+      if (pending.messageType.isCoalescable() && this.queue.remove(pending)) {
+        this.take(pending);
+        pending.future.completeExceptionally(new ChannelException("dropped due to backpressure"));
+        logger.debug("Dropped '{}' to '{}' due to backpressure", pending.messageType,
+            this.connection.getParticipant());
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the number of frames waiting to be written
+   */
+  public int getQueueSize() {
+    return this.queue.size();
+  }
+
+  /**
+   * Writes pending acknowledgements and replays unacknowledged frames if the link changed, called once the link of
+   * the connection is replaced by the participant.
+   */
+  public void resume() {
+    if (this.connection.isOpen()) {
+      this.state = PeerState.UP;
+      this.failures = 0;
+    }
+    this.schedule();
+  }
+
+  /**
+   * Fails all queued and unacknowledged frames and stops reconnecting, called once the connection is disconnected.
+   */
+  public void close(Exception e) {
+    this.closed = true;
+    this.failPending(e);
+    this.failUnacknowledged(e);
+    // the drain task fails the batch waiting for a reconnect
+    this.schedule();
+  }
+
+  public PeerState getState() {
+    return state;
+  }
+
+  /**
+   * @return {@link System#nanoTime()} of the last batch written
+   */
+  public long getLastWrite() {
+    return lastWrite;
+  }
+
+  /**
+   * Schedules writing an acknowledgement for the frames received over the connection, if none is scheduled yet.
+   */
+  public void scheduleAck() {
+    if (this.ackScheduled.compareAndSet(false, true)) {
+      CompletableFuture.delayedExecutor(this.ackDelayNanos, TimeUnit.NANOSECONDS, this.executor).execute(() -> {
+        this.ackScheduled.set(false);
+        this.schedule();
+      });
+    }
+  }
+
+  /**
+   * Completes the futures of all frames up to the cumulative sequence number.
+   */
+  public void acknowledge(long sequence) {
+    List<CompletableFuture<Void>> acknowledged = new ArrayList<>();
+    synchronized (this.unacknowledged) {
+      while (!this.unacknowledged.isEmpty() && this.unacknowledged.peekFirst().sequence() <= sequence) {
+        acknowledged.add(this.unacknowledged.pollFirst().future());
+      }
+    }
+    acknowledged.forEach(f -> f.complete(null));
+  }
+
+  /**
+   * Fails the futures of all written but unacknowledged frames.
+   */
+  public void failUnacknowledged(Exception e) {
+    List<Unacknowledged> failed;
+    synchronized (this.unacknowledged) {
+      failed = new ArrayList<>(this.unacknowledged);
+      this.unacknowledged.clear();
+    }
+    failed.forEach(u -> u.future().completeExceptionally(e));
+  }
+
+  /**
+   * @return the number of frames written but not acknowledged yet
+   */
+  public int getUnacknowledgedCount() {
+    synchronized (this.unacknowledged) {
+      return this.unacknowledged.size();
+    }
+  }
+
+  private boolean hasControlWork() {
+    if (!this.reliable) {
+      return false;
+    }
+    if (this.connection.getInboundSequence().hasPendingAck()) {
+      return true;
+    }
+    synchronized (this.unacknowledged) {
+      return !this.unacknowledged.isEmpty() && this.connection.getLink() != this.sequencedLink;
+    }
+  }
+
+  private void schedule() {
+    if (this.scheduled.compareAndSet(false, true)) {
+      try {
+        this.executor.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        this.scheduled.set(false);
+        this.failPending(new IOException("writer stopped", e));
+      }
+    }
+  }
+
+  private void drain() {
+    List<PendingFrame> batch = new ArrayList<>(this.maxBatchSize);
+    try {
+      while (true) {
+        if (this.closed) {
+          // frames may be queued by writes racing with close
+          ChannelException e = new ChannelException("connection to '" + this.connection.getParticipant()
+              + "' is closed");
+          this.failCurrent(e);
+          this.failPending(e);
+          this.scheduled.set(false);
+          if (this.queue.isEmpty() || !this.scheduled.compareAndSet(false, true)) {
+            return;
+          }
+          continue;
+        }
+
+        if (this.current == null) {
+          this.collect(batch);
+          if (batch.isEmpty() && !this.hasControlWork()) {
+            this.scheduled.set(false);
+            if ((this.queue.isEmpty() && !this.hasControlWork()) || !this.scheduled.compareAndSet(false, true)) {
+              return;
+            }
+            continue;
+          }
+          this.current = this.prepareBatch(batch);
+          batch.clear();
+        }
+
+        if (!this.ensureConnected()) {
+          if (this.closed) {
+            continue;
+          }
+          this.scheduled.set(false);
+          // a connect, reconnect or close may be done already, while this drain was still running
+          boolean due = this.closed || this.connection.isOpen()
+              || (this.state == PeerState.CONNECTING && !this.connecting);
+          if (!due || !this.scheduled.compareAndSet(false, true)) {
+            return;
+          }
+          continue;
+        }
+
+        if (this.writeBatch(this.current)) {
+          this.current = null;
+        }
+      }
+    } catch (InterruptedException e) {
+      batch.forEach(p -> {
+        this.take(p);
+        p.future.completeExceptionally(e);
+      });
+      this.scheduled.set(false);
+      if (!this.queue.isEmpty()) {
+        this.schedule();
+      }
+    }
+  }
+
+  private void collect(List<PendingFrame> batch) throws InterruptedException {
+    this.queue.drainTo(batch, this.maxBatchSize);
+    if (batch.isEmpty() || this.lingerNanos <= 0) {
+      return;
+    }
+
+    long deadline = System.nanoTime() + this.lingerNanos;
+    while (batch.size() < this.maxBatchSize) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return;
+      }
+      PendingFrame pending = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+      if (pending == null) {
+        return;
+      }
+      batch.add(pending);
+      this.queue.drainTo(batch, this.maxBatchSize - batch.size());
+    }
+  }
+
+  /**
+   * Takes the frames of the batch and numbers the sequenced ones.
+   */
+  private Batch prepareBatch(List<PendingFrame> batch) {
+    List<ByteBuffer> frames = new ArrayList<>(batch.size());
+    List<PendingFrame> unsequenced = new ArrayList<>(batch.size());
+    long firstSequence = this.nextSequence;
+
+    for (PendingFrame pending : batch) {
+      ByteBuffer frame = this.take(pending);
+      frames.add(frame);
+      if (pending.sequenced) {
+        synchronized (this.unacknowledged) {
+          this.unacknowledged.add(new Unacknowledged(this.nextSequence++, frame, pending.future));
+        }
+      } else {
+        unsequenced.add(pending);
+      }
+    }
+
+    return new Batch(frames, unsequenced, firstSequence);
+  }
+
+  /**
+   * Starts to open a link if there is none. The connect runs on the connect executor and the queue is drained again
+   * once it is done, so a slow connect holds neither the write lock nor a writer thread. Its failure is handled by the
+   * next drain.
+   *
+   * @return true if the link is open
+   */
+  private boolean ensureConnected() {
+    if (this.connection.isOpen()) {
+      this.connectFailure = null;
+      this.state = PeerState.UP;
+      return true;
+    }
+
+    IOException failure = this.connectFailure;
+    if (failure != null) {
+      this.connectFailure = null;
+      this.onFailure(failure);
+      return false;
+    }
+
+    if (this.closed || this.connecting || this.state == PeerState.BACKOFF || this.state == PeerState.OPEN_CIRCUIT) {
+      return false;
+    }
+
+    this.state = PeerState.CONNECTING;
+    this.connecting = true;
+    boolean reconnect = this.connection.getLink() != null;
+    try {
+      this.connectExecutor.execute(() -> this.connect(reconnect));
+    } catch (RejectedExecutionException e) {
+      this.connecting = false;
+      this.onFailure(new IOException("connector stopped", e));
+    }
+    return false;
+  }
+
+  private void connect(boolean reconnect) {
+    this.connection.setDialing(true);
+    try {
+      this.manager.getTransport().connect(this.connection, reconnect);
+      if (reconnect) {
+        logger.info("Reconnected to '{}'", this.connection.getParticipant());
+      }
+    } catch (IOException e) {
+      this.connectFailure = e;
+    } finally {
+      this.connection.setDialing(false);
+    }
+    this.connecting = false;
+    this.schedule();
+  }
+
+  /**
+   * @return true if the batch is done, false if it must be written again after a reconnect
+   */
+  private boolean writeBatch(Batch batch) {
+    this.connection.getWriteLock().lock();
+    try {
+      ChannelLink link = this.connection.getLink();
+      boolean announce = this.reliable && link != this.sequencedLink && this.getUnacknowledgedCount() > 0;
+      List<ByteBuffer> prepared = this.prepare(batch.frames(), batch.firstSequence(), announce);
+      if (!prepared.isEmpty()) {
+        this.connection.writeFrames(prepared);
+      }
+      if (announce) {
+        this.sequencedLink = link;
+      }
+
+      this.failures = 0;
+      this.lastWrite = System.nanoTime();
+      batch.unsequenced().forEach(p -> p.future.complete(null));
+      logger.debug("Sent {} frames to '{}'", batch.frames().size(), this.connection.getParticipant());
+      return true;
+    } catch (IOException e) {
+      // frames may be partially written, the next write replays all unacknowledged frames
+      this.sequencedLink = null;
+      logger.info("Unable to write to '{}': {}", this.connection.getParticipant(), e.getMessage());
+      try {
+        this.connection.closeSocket();
+      } catch (IOException ignored) {
+      }
+      this.onFailure(e);
+      return false;
+    } finally {
+      this.connection.getWriteLock().unlock();
+    }
+  }
+
+  /**
+   * Adds the pending acknowledgement and, if the link is not sequenced yet, the replay of unacknowledged frames
+   * written before this batch.
+   *
+   * @param announce true to announce the sequence and replay unacknowledged frames
+   * @return the frames to write
+   */
+  private List<ByteBuffer> prepare(List<ByteBuffer> frames, long firstSequence, boolean announce) {
+    if (!this.reliable) {
+      return frames;
+    }
+
+    List<ByteBuffer> prepared = new ArrayList<>(frames.size() + 2);
+
+    long ack = this.connection.getInboundSequence().takeAck();
+    if (ack > 0) {
+      prepared.add(this.encodeControl(ControlMessageType.ACK, ack));
+    }
+
+    if (announce) {
+      synchronized (this.unacknowledged) {
+        if (!this.unacknowledged.isEmpty()) {
+          prepared.add(this.encodeControl(ControlMessageType.SEQUENCE, this.unacknowledged.peekFirst().sequence()));
+          for (Unacknowledged u : this.unacknowledged) {
+            if (u.sequence() < firstSequence) {
+              prepared.add(u.frame());
+            }
+          }
+        }
+      }
+    }
+
+    prepared.addAll(frames);
+    return prepared;
+  }
+
+  private ByteBuffer encodeControl(MessageType<Long> messageType, long value) {
+    return this.manager.getSender().encode(new ChannelControlMessage<>(this.manager.getSelf(), messageType, value));
+  }
+
+  private void onFailure(Exception cause) {
+    this.failures++;
+    if (this.failures >= this.circuitBreakerThreshold) {
+      this.openCircuit(cause);
+      return;
+    }
+
+    long delay = Math.min(this.maxBackoffNanos, this.backoffNanos << Math.min(this.failures - 1, 30));
+    delay += ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+    this.state = PeerState.BACKOFF;
+    logger.info("Unable to reach '{}' -> retrying in {} ms", this.connection.getParticipant(),
+        TimeUnit.NANOSECONDS.toMillis(delay));
+    this.scheduleReconnect(delay);
+  }
+
+  private void openCircuit(Exception cause) {
+    this.state = PeerState.OPEN_CIRCUIT;
+    logger.warn("Unable to reach '{}' after {} attempts -> failing sends for {} ms", this.connection.getParticipant(),
+        this.failures, TimeUnit.NANOSECONDS.toMillis(this.maxBackoffNanos));
+
+    ChannelException e = new ChannelException("unable to reach '" + this.connection.getParticipant() + "'", cause);
+    this.failCurrent(e);
+    this.failPending(e);
+    this.failUnacknowledged(e);
+    this.scheduleReconnect(this.maxBackoffNanos);
+  }
+
+  private void scheduleReconnect(long delayNanos) {
+    CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS, this.executor).execute(() -> {
+      if (!this.closed) {
+        this.state = PeerState.CONNECTING;
+        this.schedule();
+      }
+    });
+  }
+
+  private void failCurrent(Exception e) {
+    if (this.current != null) {
+      this.current.unsequenced().forEach(p -> p.future.completeExceptionally(e));
+      this.current = null;
+    }
+  }
+
+  private void failPending(Exception e) {
+    PendingFrame pending;
+    while ((pending = this.queue.poll()) != null) {
+      this.take(pending);
+      pending.future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Removes the frame from coalescing, so it is not replaced anymore, and releases its place in the queue. Called once
+   * per frame after it left the queue.
+   *
+   * @return the latest frame
+   */
+  private ByteBuffer take(PendingFrame pending) {
+    if (pending.key != null) {
+      this.coalescing.remove(pending.key, pending);
+    }
+    this.queuePermits.release();
+    return pending.take();
+  }
+
+  /**
+   * @return the number of queued frames, which may still be replaced by a newer value
+   */
+  public int getCoalescableCount() {
+    return this.coalescing.size();
+  }
+
+  private static class PendingFrame {
+
+    private final MessageType<?> messageType;
+    private final CoalescingKey key;
+    private final boolean sequenced;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private ByteBuffer frame;
+    private boolean taken;
+
+    private PendingFrame(ByteBuffer frame, MessageType<?> messageType, CoalescingKey key, boolean sequenced) {
+      this.frame = frame;
+      this.messageType = messageType;
+      this.key = key;
+      this.sequenced = sequenced;
+    }
+
+    /**
+     * @return true if the frame was replaced, false if it was already taken by the writer
+     */
+    private synchronized boolean replace(ByteBuffer frame) {
+      if (this.taken) {
+        return false;
+      }
+      this.frame = frame;
+      return true;
+    }
+
+    private synchronized ByteBuffer take() {
+      this.taken = true;
+      return this.frame;
+    }
+  }
+
+  private record CoalescingKey(MessageType<?> messageType, Serializable identifier) {
+
+  }
+
+  private record Batch(List<ByteBuffer> frames, List<PendingFrame> unsequenced, long firstSequence) {
+
+  }
+
+  private record Unacknowledged(long sequence, ByteBuffer frame, CompletableFuture<Void> future) {
+
+  }
+}
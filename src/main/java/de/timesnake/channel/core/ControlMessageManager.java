@@ -5,15 +5,14 @@
 package de.timesnake.channel.core;
 
 import de.timesnake.channel.util.listener.ResultMessage;
-import de.timesnake.channel.util.message.FilterMessage;
 import de.timesnake.channel.util.message.MessageType;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Predicate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ControlMessageManager {
 
@@ -21,86 +20,189 @@ public class ControlMessageManager {
 
   private final Channel manager;
 
+  /**
+   * Serializes control message handling. A lock instead of a monitor, handlers wait for writes and must not pin the
+   * carrier of a virtual thread.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+
   public ControlMessageManager(Channel manager) {
     this.manager = manager;
   }
 
-  public synchronized void handleControlMessage(ChannelConnection connection, ChannelControlMessage<?> msg) {
+  public void handleControlMessage(ChannelConnection connection, ChannelControlMessage<?> msg) {
+    // delivery control of the connection, handled in order without the lock
+    if (msg.getMessageType() == ControlMessageType.SEQUENCE) {
+      connection.getInboundSequence().reset((Long) msg.getValue());
+      return;
+    } else if (msg.getMessageType() == ControlMessageType.ACK) {
+      connection.getWriter().acknowledge((Long) msg.getValue());
+      return;
+    } else if (msg.getMessageType() == ControlMessageType.HEARTBEAT) {
+      // the read is recorded by the receiver already
+      return;
+    }
+
+    this.lock.lock();
+    try {
+      this.handle(connection, msg);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void handle(ChannelConnection connection, ChannelControlMessage<?> msg) {
     MessageType<?> messageType = msg.getMessageType();
-    if (messageType.equals(MessageType.Control.LISTENER_ADD)) {
-      this.manager.getSender().addReceiverHost(msg.getIdentifier(), (ArrayList<MessageListenerData<?>>) msg.getValue());
-    } else if (messageType.equals(MessageType.Control.LISTENER_REMOVE)) {
-      this.manager.getSender().removeReceiverHost(msg.getIdentifier(),
-          (ArrayList<MessageListenerData<?>>) msg.getValue());
-    } else if (messageType.equals(MessageType.Control.INIT)) {
-      this.handleInitMessage(connection, (ChannelControlMessage<FilterMessage<MessageListenerData<?>>>) msg);
-    } else if (messageType.equals(MessageType.Control.INIT_ACK)) {
-      this.handleInitAckMessage((ChannelControlMessage<FilterMessage<MessageListenerData<?>>>) msg);
-    } else if (messageType.equals(MessageType.Control.INIT_FIN)) {
+    if (messageType.equals(ControlMessageType.LISTENER_ADD)) {
+      this.manager.getSender().addReceiverHost(msg.getIdentifier(), (Subscriptions) msg.getValue());
+    } else if (messageType.equals(ControlMessageType.LISTENER_REMOVE)) {
+      this.manager.getSender().removeReceiverHost(msg.getIdentifier(), (Subscriptions) msg.getValue());
+    } else if (messageType.equals(ControlMessageType.INIT)) {
+      this.handleInitMessage(connection, (ChannelControlMessage<ListenerFilter>) msg);
+    } else if (messageType.equals(ControlMessageType.INIT_ACK)) {
+      this.handleInitAckMessage((ChannelControlMessage<ListenerFilter>) msg);
+    } else if (messageType.equals(ControlMessageType.INIT_FIN)) {
       this.handleFinalizeMessage(msg);
-    } else if (messageType.equals(MessageType.Control.RECONNECT)) {
+    } else if (messageType.equals(ControlMessageType.RECONNECT)) {
       this.handleReconnectMessage(connection, msg);
-    } else if (messageType.equals(MessageType.Control.CLOSE)) {
+    } else if (messageType.equals(ControlMessageType.CLOSE)) {
       this.handleCloseMessage(msg.getIdentifier());
-    } else if (messageType.equals(MessageType.Control.HOSTS_REQUEST)) {
-      this.handleHostsRequestMessage(connection);
-    } else if (messageType.equals(MessageType.Control.HOSTS_LIST)) {
-      this.handleHostsListMessage((List<ChannelParticipant>) msg.getValue());
+    } else if (messageType.equals(ControlMessageType.SPOKE)) {
+      this.manager.getSender().addSpoke(msg.getIdentifier());
+    } else if (messageType.equals(ControlMessageType.LISTENER_DELTA)) {
+      this.manager.getSender().applyListenerDelta(msg.getIdentifier(), (ListenerDelta) msg.getValue());
+    } else if (messageType.equals(ControlMessageType.LISTENER_SYNC)) {
+      this.handleListenerSyncMessage(connection, (ChannelControlMessage<ListenerVersion>) msg);
+    } else if (messageType.equals(ControlMessageType.GOSSIP)) {
+      this.manager.getMembership().merge((List<MemberState>) msg.getValue());
     }
   }
 
-  public void handleHostsRequestMessage(ChannelConnection connection) {
-    this.manager.getSender().sendMessageSync(connection.getParticipant(),
-        new ChannelControlMessage<>(this.manager.getSelf(),
-            MessageType.Control.HOSTS_LIST, new ArrayList<>(this.manager.getKnownParticipants())));
-  }
-
-  public void handleHostsListMessage(List<ChannelParticipant> participants) {
-    for (ChannelParticipant participant : participants) {
-      if (!participant.equals(this.manager.getSelf()) && !this.manager.getKnownParticipants().contains(participant)) {
-        this.initConnectionToHost(participant);
-      }
-    }
+  protected ResultMessage initConnectionToHost(ChannelParticipant participant) {
+    return this.initConnectionToHostAsync(participant).join();
   }
 
-  protected ResultMessage initConnectionToHost(ChannelParticipant participant) {
+  /**
+   * Queues the init to the participant without waiting, its link is opened by the writer of its connection.
+   *
+   * @return future completed once the init is written
+   */
+  protected CompletableFuture<ResultMessage> initConnectionToHostAsync(ChannelParticipant participant) {
     logger.info("Initializing connection to '{}'", participant);
-    return this.manager.getSender().sendMessageSync(participant, new ChannelControlMessage<>(this.manager.self,
-        MessageType.Control.INIT, this.manager.getListenerFilter()));
+    this.sendListenerSync(participant, null);
+    CompletableFuture<ResultMessage> result = this.manager.getSender().sendMessage(participant,
+        new ChannelControlMessage<>(this.manager.self, ControlMessageType.INIT, this.manager.getListenerFilter()));
+    if (this.manager.getTopology() == Topology.SPOKE) {
+      // queued behind the init, so the hub knows before any listener of this channel
+      this.manager.getSender().sendMessage(participant, new ChannelControlMessage<>(this.manager.self,
+          ControlMessageType.SPOKE));
+    }
+    return result;
   }
 
-  private void handleInitMessage(ChannelConnection connection,
-                                 ChannelControlMessage<FilterMessage<MessageListenerData<?>>> msg) {
+  private void handleInitMessage(ChannelConnection accepted, ChannelControlMessage<ListenerFilter> msg) {
     ChannelParticipant sender = msg.getIdentifier();
     logger.info("Initializing connection to '{}'", sender);
 
-    Predicate<MessageListenerData<?>> predicate = msg.getValue();
+    ChannelConnection connection = this.deduplicate(accepted, sender);
+    ListenerFilter filter = msg.getValue();
     connection.setParticipant(sender);
-    connection.setListenerFilter(predicate != null ? predicate : m -> true);
+    connection.setListenerFilter(filter != null ? filter : ListenerFilter.all());
     this.manager.getChannelByParticipant().put(sender, connection);
 
+    this.sendListenerSync(sender, connection);
     this.manager.getSender().sendMessageSync(connection, new ChannelControlMessage<>(this.manager.self,
-        MessageType.Control.INIT_ACK, this.manager.getListenerFilter()));
+        ControlMessageType.INIT_ACK, this.manager.getListenerFilter()));
     this.manager.getSender().sendAllListenerMessagesTo(connection.getParticipant(), connection.getListenerFilter());
     this.manager.getSender().sendMessageSync(connection, new ChannelControlMessage<>(this.manager.self,
-        MessageType.Control.INIT_FIN));
+        ControlMessageType.INIT_FIN));
+  }
+
+  /**
+   * Announces the version of the known listeners of the participant, it answers with the changes since after the init.
+   *
+   * @param connection connection to send over, the one of the participant if null
+   */
+  private void sendListenerSync(ChannelParticipant participant, ChannelConnection connection) {
+    ListenerVersion version = this.manager.getSender().getListenerVersion(participant);
+    if (version == null) {
+      return;
+    }
+    ChannelControlMessage<ListenerVersion> msg = new ChannelControlMessage<>(this.manager.self,
+        ControlMessageType.LISTENER_SYNC, version);
+    if (connection != null) {
+      this.manager.getSender().sendMessageSync(connection, msg);
+    } else {
+      this.manager.getSender().sendMessage(participant, msg);
+    }
+  }
+
+  /**
+   * Stores the version announced before an init. If the participant is initialized already, it missed a delta and gets
+   * the changes since right away.
+   */
+  private void handleListenerSyncMessage(ChannelConnection connection, ChannelControlMessage<ListenerVersion> msg) {
+    this.manager.getSender().addSyncRequest(msg.getIdentifier(), msg.getValue());
+    if (connection.getListenerFilter() != null) {
+      this.manager.getSender().sendAllListenerMessagesTo(msg.getIdentifier(), connection.getListenerFilter());
+    }
+  }
+
+  /**
+   * Keeps one link per participant. If both sides dialed at once, the link dialed by the smaller participant is kept,
+   * so both sides close the same one.
+   *
+   * @param accepted connection the init message was received over
+   * @return the connection of the participant
+   */
+  private ChannelConnection deduplicate(ChannelConnection accepted, ChannelParticipant participant) {
+    ChannelConnection existing = this.manager.getChannelConnection(participant);
+    if (existing == null || existing == accepted) {
+      return accepted;
+    }
+
+    // decided and applied under the link lock, so the writer of the existing connection does not install its own
+    // dialed link in between
+    existing.getLinkLock().lock();
+    try {
+      if (existing.getLink() != null && !existing.isDialed()) {
+        // accepted before, the participant restarted or initializes again
+        this.manager.disconnectHost(existing);
+        return accepted;
+      }
+
+      if (existing.isOpen() && this.manager.getSelf().compareTo(participant) < 0) {
+        logger.info("Closing duplicate link from '{}', keeping own link", participant);
+        accepted.close();
+      } else {
+        // also while the own link is still dialed, it is resolved against this one once installed
+        logger.info("Replacing own link to '{}' by the link dialed by it", participant);
+        existing.updateToReconnectedConnection(accepted);
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to deduplicate link of '{}': {}", participant, e.getMessage());
+    } finally {
+      existing.getLinkLock().unlock();
+    }
+    return existing;
   }
 
-  private void handleInitAckMessage(ChannelControlMessage<FilterMessage<MessageListenerData<?>>> msg) {
-    Predicate<MessageListenerData<?>> predicate = msg.getValue();
+  private void handleInitAckMessage(ChannelControlMessage<ListenerFilter> msg) {
+    ListenerFilter filter = msg.getValue();
     ChannelConnection connection = this.manager.getChannelConnection(msg.getIdentifier());
     connection.setParticipant(msg.getIdentifier());
-    connection.setListenerFilter(predicate != null ? predicate : m -> true);
+    connection.setListenerFilter(filter != null ? filter : ListenerFilter.all());
 
     this.manager.getSender().sendAllListenerMessagesTo(connection.getParticipant(), connection.getListenerFilter());
     this.manager.getSender().sendMessageSync(connection.getParticipant(), new ChannelControlMessage<>(this.manager.self,
-        MessageType.Control.INIT_FIN));
+        ControlMessageType.INIT_FIN));
   }
 
   private void handleFinalizeMessage(ChannelControlMessage<?> msg) {
     ChannelParticipant participant = msg.getIdentifier();
 
     logger.info("Finalized connection to '{}'", participant);
+    this.manager.getMembership().onConnected(participant);
 
     if (this.manager.getChannelConnections().stream().noneMatch(c -> c.getListenerFilter() == null)) {
       this.manager.getSender().unstash();
@@ -125,7 +227,8 @@ public class ControlMessageManager {
   }
 
   private void handleCloseMessage(ChannelParticipant participant) {
-    this.manager.getSender().removeReceiverHost(participant);
+    this.manager.getMembership().leave(participant);
+    this.manager.getSender().forgetReceiverHost(participant);
     ChannelConnection connection = this.manager.getChannelConnection(participant);
 
     if (connection != null) {
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.message.MessageType;
+import de.timesnake.channel.util.message.VoidMessage;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * Message types of the {@link ChannelType#CONTROL} channel, internal to the channel implementation.
+ */
+public final class ControlMessageType {
+
+  public static final MessageType<ListenerFilter> INIT = new MessageType<>("init", 0);
+  public static final MessageType<ListenerFilter> INIT_ACK = new MessageType<>("init_ack", 1);
+  public static final MessageType<VoidMessage> INIT_FIN = new MessageType<>("init_fin", 2);
+  public static final MessageType<VoidMessage> RECONNECT = new MessageType<>("reconnect", 3);
+  public static final MessageType<VoidMessage> CLOSE = new MessageType<>("close", 4);
+  public static final MessageType<Long> SEQUENCE = new MessageType<>("sequence", 5);
+  public static final MessageType<Long> ACK = new MessageType<>("ack", 6);
+  public static final MessageType<VoidMessage> HEARTBEAT = new MessageType<>("heartbeat", 7);
+  public static final MessageType<VoidMessage> SPOKE = new MessageType<>("spoke", 8);
+  public static final MessageType<ArrayList<MemberState>> GOSSIP = new MessageType<>("gossip", 9);
+
+  public static final MessageType<Subscriptions> LISTENER_ADD = new MessageType<>("listener_add", 10);
+  public static final MessageType<Subscriptions> LISTENER_REMOVE = new MessageType<>("listener_remove", 11);
+  public static final MessageType<ListenerDelta> LISTENER_DELTA = new MessageType<>("listener_delta", 12);
+  public static final MessageType<ListenerVersion> LISTENER_SYNC = new MessageType<>("listener_sync", 13);
+
+  public static final Set<MessageType<?>> TYPES = Set.of(
+      INIT, INIT_ACK, INIT_FIN, RECONNECT, CLOSE, SEQUENCE, ACK, HEARTBEAT, SPOKE, GOSSIP, LISTENER_ADD,
+      LISTENER_REMOVE, LISTENER_DELTA, LISTENER_SYNC);
+
+  private ControlMessageType() {
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.message.MessageType;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.ToIntFunction;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates encoded values of at least the threshold of their message type. A preset dictionary of typical values
+ * helps small values with repeated strings, the zlib header names it by its checksum, so a participant with another
+ * dictionary fails to decode instead of reading garbage.
+ *
+ * <p>
+ * Deflaters and inflaters hold native memory, they are pooled.
+ */
+public class FrameCompressor {
+
+  private static final int MAX_POOLED = 16;
+
+  private final Compression compression;
+  private final int[] thresholds;
+  private final byte[] dictionary;
+  private final int dictionaryId;
+
+  private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+  private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+  /**
+   * @param thresholds minimum encoded value size in bytes by message type, negative to never compress the type
+   * @param dictionary preset dictionary, the same for all participants, or null
+   */
+  public FrameCompressor(Compression compression, ToIntFunction<MessageType<?>> thresholds, byte[] dictionary) {
+    this.compression = compression;
+    this.thresholds = new int[ChannelType.getMessageTypeCount()];
+    for (ChannelType<?> channelType : ChannelType.TYPES) {
+      for (MessageType<?> messageType : channelType.getMessageTypes()) {
+        this.thresholds[messageType.getSlot()] = thresholds.applyAsInt(messageType);
+      }
+    }
+    this.dictionary = dictionary != null ? dictionary.clone() : null;
+
+    Adler32 adler = new Adler32();
+    if (dictionary != null) {
+      adler.update(dictionary);
+    }
+    this.dictionaryId = (int) adler.getValue();
+  }
+
+  /**
+   * Creates a compressor, which only decompresses.
+   */
+  public FrameCompressor() {
+    this(Compression.NONE, t -> -1, null);
+  }
+
+  /**
+   * @return true if an encoded value of the type and length should be compressed
+   */
+  public boolean isCompressed(MessageType<?> messageType, int length) {
+    if (this.compression == Compression.NONE) {
+      return false;
+    }
+    int threshold = this.thresholds[messageType.getSlot()];
+    return threshold >= 0 && length >= threshold;
+  }
+
+  /**
+   * @param value encoded value, its position is not changed
+   * @return the compressed value or null if it is not smaller
+   */
+  public byte[] compress(ByteBuffer value) {
+    Deflater deflater = this.deflaters.poll();
+    if (deflater == null) {
+      deflater = new Deflater(this.compression.getLevel());
+    }
+
+    try {
+      if (this.dictionary != null) {
+        deflater.setDictionary(this.dictionary);
+      }
+      deflater.setInput(value.duplicate());
+      deflater.finish();
+
+      byte[] compressed = new byte[value.remaining()];
+      int length = deflater.deflate(compressed);
+      if (!deflater.finished() || length >= value.remaining()) {
+        return null;
+      }
+      return Arrays.copyOf(compressed, length);
+    } finally {
+      this.release(deflater);
+    }
+  }
+
+  /**
+   * @param compressed compressed value, read to its end
+   * @param length     length of the encoded value
+   * @return the encoded value
+   * @throws ChannelCodecException if the value is malformed or compressed with another dictionary
+   */
+  public ByteBuffer decompress(ByteBuffer compressed, int length) {
+    if (length < 0 || length > ChannelConnection.MAX_FRAME_LENGTH) {
+      throw new ChannelCodecException("invalid decompressed length " + length);
+    }
+
+    Inflater inflater = this.inflaters.poll();
+    if (inflater == null) {
+      inflater = new Inflater();
+    }
+
+    try {
+      inflater.setInput(compressed);
+      // one spare byte, so a longer value is detected
+      byte[] value = new byte[length + 1];
+      int read = 0;
+      while (!inflater.finished()) {
+        int n = inflater.inflate(value, read, value.length - read);
+        read += n;
+        if (n > 0) {
+          continue;
+        }
+        if (!inflater.needsDictionary()) {
+          break;
+        }
+        if (this.dictionary == null || inflater.getAdler() != this.dictionaryId) {
+          throw new ChannelCodecException("unknown compression dictionary " + Integer.toHexString(
+              inflater.getAdler()));
+        }
+        inflater.setDictionary(this.dictionary);
+      }
+      if (!inflater.finished() || read != length) {
+        throw new ChannelCodecException("malformed compressed value");
+      }
+      return ByteBuffer.wrap(value, 0, length);
+    } catch (DataFormatException e) {
+      throw new ChannelCodecException("malformed compressed value: " + e.getMessage());
+    } finally {
+      this.release(inflater);
+    }
+  }
+
+  private void release(Deflater deflater) {
+    deflater.reset();
+    if (this.deflaters.size() < MAX_POOLED) {
+      this.deflaters.offer(deflater);
+    } else {
+      deflater.end();
+    }
+  }
+
+  private void release(Inflater inflater) {
+    inflater.reset();
+    if (this.inflaters.size() < MAX_POOLED) {
+      this.inflaters.offer(inflater);
+    } else {
+      inflater.end();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Reader counterpart of {@link FrameOutput}, reading from a frame buffer.
+ */
+public class FrameInput {
+
+  private final ByteBuffer buffer;
+
+  public FrameInput(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  public int readByte() {
+    try {
+      return this.buffer.get() & 0xFF;
+    } catch (BufferUnderflowException e) {
+      throw new ChannelCodecException("unexpected end of frame");
+    }
+  }
+
+  public boolean readBoolean() {
+    return this.readByte() != 0;
+  }
+
+  public int readVarInt() {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = this.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new ChannelCodecException("malformed varint");
+  }
+
+  public long readVarLong() {
+    long value = 0;
+    for (int shift = 0; shift < 70; shift += 7) {
+      int b = this.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new ChannelCodecException("malformed varlong");
+  }
+
+  public int readSignedVarInt() {
+    int value = this.readVarInt();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  public long readSignedVarLong() {
+    long value = this.readVarLong();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  public long readLong() {
+    try {
+      return this.buffer.getLong();
+    } catch (BufferUnderflowException e) {
+      throw new ChannelCodecException("unexpected end of frame");
+    }
+  }
+
+  public UUID readUUID() {
+    return new UUID(this.readLong(), this.readLong());
+  }
+
+  public String readString() {
+    return new String(this.readBytes(), StandardCharsets.UTF_8);
+  }
+
+  public byte[] readBytes() {
+    int length = this.readVarInt();
+    if (length < 0 || length > this.buffer.remaining()) {
+      throw new ChannelCodecException("invalid length " + length);
+    }
+    byte[] bytes = new byte[length];
+    this.buffer.get(bytes);
+    return bytes;
+  }
+
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+}
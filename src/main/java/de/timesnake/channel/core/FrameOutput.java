@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Growable heap buffer used to assemble a single frame, reusable after a {@link #reset()}.
+ * Integers and lengths are written as unsigned varints, signed values zigzag encoded.
+ */
+public class FrameOutput {
+
+  private ByteBuffer buffer;
+
+  public FrameOutput() {
+    this(128);
+  }
+
+  public FrameOutput(int initialCapacity) {
+    this.buffer = ByteBuffer.allocate(initialCapacity);
+  }
+
+  private void ensure(int bytes) {
+    if (this.buffer.remaining() < bytes) {
+      int capacity = Math.max(this.buffer.capacity() << 1, this.buffer.position() + bytes);
+      ByteBuffer grown = ByteBuffer.allocate(capacity);
+      this.buffer.flip();
+      grown.put(this.buffer);
+      this.buffer = grown;
+    }
+  }
+
+  public FrameOutput writeByte(int value) {
+    this.ensure(1);
+    this.buffer.put((byte) value);
+    return this;
+  }
+
+  public FrameOutput writeBoolean(boolean value) {
+    return this.writeByte(value ? 1 : 0);
+  }
+
+  public FrameOutput writeVarInt(int value) {
+    this.ensure(5);
+    while ((value & ~0x7F) != 0) {
+      this.buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    this.buffer.put((byte) value);
+    return this;
+  }
+
+  public FrameOutput writeVarLong(long value) {
+    this.ensure(10);
+    while ((value & ~0x7FL) != 0) {
+      this.buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    this.buffer.put((byte) value);
+    return this;
+  }
+
+  public FrameOutput writeSignedVarInt(int value) {
+    return this.writeVarInt((value << 1) ^ (value >> 31));
+  }
+
+  public FrameOutput writeSignedVarLong(long value) {
+    return this.writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  public FrameOutput writeLong(long value) {
+    this.ensure(8);
+    this.buffer.putLong(value);
+    return this;
+  }
+
+  public FrameOutput writeUUID(UUID uuid) {
+    this.ensure(16);
+    this.buffer.putLong(uuid.getMostSignificantBits());
+    this.buffer.putLong(uuid.getLeastSignificantBits());
+    return this;
+  }
+
+  public FrameOutput writeString(String value) {
+    return this.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public FrameOutput writeBytes(byte[] bytes) {
+    this.writeVarInt(bytes.length);
+    this.ensure(bytes.length);
+    this.buffer.put(bytes);
+    return this;
+  }
+
+  /**
+   * Writes the remaining bytes of the buffer without length, its position is not changed.
+   */
+  public FrameOutput write(ByteBuffer bytes) {
+    this.ensure(bytes.remaining());
+    this.buffer.put(bytes.duplicate());
+    return this;
+  }
+
+  public int position() {
+    return this.buffer.position();
+  }
+
+  public int capacity() {
+    return this.buffer.capacity();
+  }
+
+  /**
+   * Discards the written bytes, the capacity is kept.
+   */
+  public FrameOutput reset() {
+    this.buffer.clear();
+    return this;
+  }
+
+  /**
+   * @return copy of the written bytes of exactly their size, positioned at zero
+   */
+  public ByteBuffer copy() {
+    return ByteBuffer.allocate(this.buffer.position()).put(this.buffer.duplicate().flip()).flip();
+  }
+
+  /**
+   * @return view of the written bytes, positioned at zero
+   */
+  public ByteBuffer toBuffer() {
+    return this.buffer.duplicate().flip();
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Permits of pending frames, acquired without blocking the caller. A waiting acquisition completes once a permit is
+ * released, in the order of the acquisitions, or fails after its timeout. Released permits are handed to the oldest
+ * waiting acquisition directly, so a later acquisition never overtakes it.
+ */
+final class FramePermits {
+
+  private static final CompletableFuture<Void> ACQUIRED = CompletableFuture.completedFuture(null);
+
+  private final ArrayDeque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+  private int available;
+
+  FramePermits(int permits) {
+    this.available = permits;
+  }
+
+  /**
+   * @return true if a permit was acquired
+   */
+  synchronized boolean tryAcquire() {
+    if (this.waiting.isEmpty() && this.available > 0) {
+      this.available--;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param timeoutNanos maximum time to wait for a permit
+   * @return future completed once a permit is acquired, failed with a {@link TimeoutException} after the timeout
+   */
+  CompletableFuture<Void> acquire(long timeoutNanos) {
+    CompletableFuture<Void> acquired = new CompletableFuture<>();
+    synchronized (this) {
+      if (this.waiting.isEmpty() && this.available > 0) {
+        this.available--;
+        return ACQUIRED;
+      }
+      if (timeoutNanos <= 0) {
+        return CompletableFuture.failedFuture(new TimeoutException("no permit available"));
+      }
+      this.waiting.addLast(acquired);
+    }
+
+    CompletableFuture.delayedExecutor(timeoutNanos, TimeUnit.NANOSECONDS).execute(() -> {
+      synchronized (this) {
+        if (!this.waiting.remove(acquired)) {
+          return;
+        }
+      }
+      acquired.completeExceptionally(new TimeoutException("no permit available within "
+          + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms"));
+    });
+    return acquired;
+  }
+
+  void release() {
+    CompletableFuture<Void> next;
+    synchronized (this) {
+      next = this.waiting.pollFirst();
+      if (next == null) {
+        this.available++;
+        return;
+      }
+    }
+    next.complete(null);
+  }
+
+  synchronized int availablePermits() {
+    return this.available;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects dead participants, also behind half-open links. One timer task checks all connections every
+ * {@link Channel#getHeartbeatInterval()}: connections without a write since the last check get a
+ * {@link ControlMessageType#HEARTBEAT}, connections without a read for {@link Channel#getIdleTimeout()} are
+ * disconnected, the routes to their participant removed and the participant suspected by the {@link Membership}.
+ * Only connections with an open link are checked, connecting ones are left to the backoff of their writer.
+ */
+public class HeartbeatMonitor {
+
+  public final Logger logger = LogManager.getLogger("channel.heartbeat");
+
+  private final Channel manager;
+  private final long intervalNanos;
+  private final long timeoutNanos;
+
+  private volatile boolean running;
+
+  public HeartbeatMonitor(Channel manager) {
+    this.manager = manager;
+    this.intervalNanos = manager.getHeartbeatInterval().toNanos();
+    this.timeoutNanos = manager.getIdleTimeout().toNanos();
+  }
+
+  public void start() {
+    if (this.intervalNanos <= 0 || this.running) {
+      return;
+    }
+    this.running = true;
+    this.scheduleCheck();
+  }
+
+  public void stop() {
+    this.running = false;
+  }
+
+  private void scheduleCheck() {
+    CompletableFuture.delayedExecutor(this.intervalNanos, TimeUnit.NANOSECONDS,
+        this.manager.getSender().getWriterExecutorService()).execute(this::check);
+  }
+
+  private void check() {
+    if (!this.running) {
+      return;
+    }
+
+    try {
+      long now = System.nanoTime();
+      List<ChannelParticipant> idle = new ArrayList<>();
+
+      for (ChannelConnection connection : this.manager.getChannelConnections()) {
+        if (connection.getWriter().getState() != PeerState.UP) {
+          continue;
+        }
+        ChannelParticipant participant = connection.getParticipant();
+        if (now - connection.getLastRead() > this.timeoutNanos) {
+          logger.warn("No heartbeat from '{}' for {} ms -> disconnecting", participant,
+              TimeUnit.NANOSECONDS.toMillis(now - connection.getLastRead()));
+          this.manager.getSender().removeReceiverHost(participant);
+          this.manager.disconnectHost(connection);
+          this.manager.getMembership().suspect(participant);
+        } else if (now - connection.getWriter().getLastWrite() >= this.intervalNanos) {
+          idle.add(participant);
+        }
+      }
+
+      if (!idle.isEmpty()) {
+        // queued only, a participant in backoff must not delay the others
+        this.manager.getSender().sendMessage(idle, new ChannelControlMessage<>(this.manager.getSelf(),
+            ControlMessageType.HEARTBEAT));
+      }
+    } finally {
+      this.scheduleCheck();
+    }
+  }
+}
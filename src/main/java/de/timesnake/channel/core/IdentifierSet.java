@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Compact set of listener identifiers. UUIDs are held as long pairs in an open addressing table with linear probing,
+ * all other identifiers in a hash set. Lookups are O(1) and allocate nothing.
+ *
+ * <p>
+ * Identifiers other than UUIDs are expected to be few, like server or group names. They are held by the sets
+ * containing them only, so names of participants that left are released with their sets.
+ */
+final class IdentifierSet {
+
+  private static final int MIN_CAPACITY = 8;
+
+  private long[] uuids = new long[0];
+  private boolean[] used = new boolean[0];
+  private int uuidCount;
+
+  private final Set<Serializable> others = new HashSet<>();
+
+  IdentifierSet() {
+  }
+
+  IdentifierSet(IdentifierSet set) {
+    this.uuids = set.uuids.clone();
+    this.used = set.used.clone();
+    this.uuidCount = set.uuidCount;
+    this.others.addAll(set.others);
+  }
+
+  int size() {
+    return this.uuidCount + this.others.size();
+  }
+
+  boolean isEmpty() {
+    return this.size() == 0;
+  }
+
+  boolean contains(Serializable identifier) {
+    if (identifier instanceof UUID uuid) {
+      return this.indexOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) >= 0;
+    }
+    return this.others.contains(identifier);
+  }
+
+  boolean add(Serializable identifier) {
+    if (identifier instanceof UUID uuid) {
+      return this.addUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+    return this.others.add(identifier);
+  }
+
+  boolean remove(Serializable identifier) {
+    if (identifier instanceof UUID uuid) {
+      return this.removeUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+    return this.others.remove(identifier);
+  }
+
+  void addAll(IdentifierSet set) {
+    for (int i = 0; i < set.used.length; i++) {
+      if (set.used[i]) {
+        this.addUuid(set.uuids[2 * i], set.uuids[2 * i + 1]);
+      }
+    }
+    this.others.addAll(set.others);
+  }
+
+  void removeAll(IdentifierSet set) {
+    for (int i = 0; i < set.used.length && this.uuidCount > 0; i++) {
+      if (set.used[i]) {
+        this.removeUuid(set.uuids[2 * i], set.uuids[2 * i + 1]);
+      }
+    }
+    this.others.removeAll(set.others);
+  }
+
+  void forEach(Consumer<Serializable> consumer) {
+    for (int i = 0; i < this.used.length; i++) {
+      if (this.used[i]) {
+        consumer.accept(new UUID(this.uuids[2 * i], this.uuids[2 * i + 1]));
+      }
+    }
+    this.others.forEach(consumer);
+  }
+
+  private static int hash(long msb, long lsb) {
+    long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private int indexOf(long msb, long lsb) {
+    int capacity = this.used.length;
+    if (capacity == 0) {
+      return -1;
+    }
+    for (int i = hash(msb, lsb) & (capacity - 1); this.used[i]; i = (i + 1) & (capacity - 1)) {
+      if (this.uuids[2 * i] == msb && this.uuids[2 * i + 1] == lsb) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean addUuid(long msb, long lsb) {
+    if (this.indexOf(msb, lsb) >= 0) {
+      return false;
+    }
+    if ((this.uuidCount + 1) * 4 > this.used.length * 3) {
+      this.resize(Math.max(MIN_CAPACITY, this.used.length * 2));
+    }
+    this.insert(msb, lsb);
+    this.uuidCount++;
+    return true;
+  }
+
+  private void insert(long msb, long lsb) {
+    int capacity = this.used.length;
+    int i = hash(msb, lsb) & (capacity - 1);
+    while (this.used[i]) {
+      i = (i + 1) & (capacity - 1);
+    }
+    this.used[i] = true;
+    this.uuids[2 * i] = msb;
+    this.uuids[2 * i + 1] = lsb;
+  }
+
+  private boolean removeUuid(long msb, long lsb) {
+    int i = this.indexOf(msb, lsb);
+    if (i < 0) {
+      return false;
+    }
+
+    // backward shift deletion, keeps the probe sequences intact without tombstones
+    int capacity = this.used.length;
+    int gap = i;
+    for (int j = (i + 1) & (capacity - 1); this.used[j]; j = (j + 1) & (capacity - 1)) {
+      int home = hash(this.uuids[2 * j], this.uuids[2 * j + 1]) & (capacity - 1);
+      if (((j - home) & (capacity - 1)) >= ((j - gap) & (capacity - 1))) {
+        this.uuids[2 * gap] = this.uuids[2 * j];
+        this.uuids[2 * gap + 1] = this.uuids[2 * j + 1];
+        gap = j;
+      }
+    }
+    this.used[gap] = false;
+    this.uuidCount--;
+    return true;
+  }
+
+  private void resize(int capacity) {
+    long[] uuids = this.uuids;
+    boolean[] used = this.used;
+    this.uuids = new long[2 * capacity];
+    this.used = new boolean[capacity];
+    for (int i = 0; i < used.length; i++) {
+      if (used[i]) {
+        this.insert(uuids[2 * i], uuids[2 * i + 1]);
+      }
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+/**
+ * Sequence numbers of the frames received over a connection in reliable delivery mode. Sequenced frames carry no
+ * number, each link announces the number of its next sequenced frame with a {@link ControlMessageType#SEQUENCE}
+ * message and the following frames count up from it. Frames with a number already delivered are duplicates of a
+ * replay and dropped.
+ */
+public class InboundSequence {
+
+  private long next = 1;
+  private long delivered;
+  private long acknowledged;
+
+  /**
+   * Sets the number of the next sequenced frame, announced by the sender.
+   */
+  public synchronized void reset(long next) {
+    this.next = next;
+  }
+
+  /**
+   * Counts a received sequenced frame.
+   *
+   * @return true if the frame is new and should be delivered, false if it is a duplicate
+   */
+  public synchronized boolean accept() {
+    long sequence = this.next++;
+    if (sequence <= this.delivered) {
+      // replayed, so the last acknowledgement may be lost
+      this.acknowledged = Math.min(this.acknowledged, sequence - 1);
+      return false;
+    }
+    this.delivered = sequence;
+    return true;
+  }
+
+  public synchronized boolean hasPendingAck() {
+    return this.delivered > this.acknowledged;
+  }
+
+  /**
+   * Marks all delivered frames as acknowledged.
+   *
+   * @return the cumulative number to acknowledge or 0 if all delivered frames are already acknowledged
+   */
+  public synchronized long takeAck() {
+    if (this.delivered <= this.acknowledged) {
+      return 0;
+    }
+    this.acknowledged = this.delivered;
+    return this.delivered;
+  }
+}
@@ -4,6 +4,7 @@
 
 package de.timesnake.channel.core;
 
+import de.timesnake.channel.util.listener.ResultMessage;
 import de.timesnake.channel.util.message.ChannelMessage;
 import de.timesnake.channel.util.message.MessageType;
 import de.timesnake.library.basic.util.Tuple;
@@ -12,11 +13,12 @@ import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -24,65 +26,165 @@ public class ListenerBasedChannelSender extends ChannelSender {
 
   public final Logger logger = LogManager.getLogger("channel.sender.listener");
 
-  protected ConcurrentHashMap<MessageListenerData<?>, Set<ChannelParticipant>> listenerHosts =
-      new ConcurrentHashMap<>();
+  protected final RoutingTable routingTable = new RoutingTable();
+
+  private static final int LISTENER_HISTORY_SIZE = 64;
+  /**
+   * Time to wait for the answer of a listener sync before requesting it again.
+   */
+  private static final long LISTENER_SYNC_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
 
   protected final Set<MessageListenerData<?>> sentListenerMessages = ConcurrentHashMap.newKeySet();
 
+  private final boolean spoke;
+
+  /**
+   * Listeners of this channel as advertised, their version and the latest deltas. Changes of
+   * {@link #sentListenerMessages} are buffered for {@link Channel#getListenerBatchWindow()} and advertised as one delta.
+   * A lock instead of a monitor, deltas are queued while holding it, so all connections get them in version order.
+   */
+  private final long listenerEpoch = System.currentTimeMillis();
+  private final Subscriptions advertisedListeners = new Subscriptions();
+  private final ArrayDeque<ListenerDelta> listenerHistory = new ArrayDeque<>();
+  private long listenerVersion;
+  private final ReentrantLock listenerLock = new ReentrantLock();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final long batchWindowNanos;
+
+  /**
+   * Versions of the listeners of this channel known by the participants, announced before an init.
+   */
+  private final Map<ChannelParticipant, ListenerVersion> syncRequests = new ConcurrentHashMap<>();
+
+  /**
+   * Version of the listeners of this channel last sent to each participant. Deltas without changes for the filter of a
+   * participant are skipped, the next one applies to this version. Changed under the listener lock only.
+   */
+  private final Map<ChannelParticipant, Long> sentListenerVersions = new HashMap<>();
+
+  /**
+   * Listeners of remote participants, kept after a disconnect, so a reconnect only needs the changes since.
+   */
+  private final Map<ChannelParticipant, RemoteListeners> remoteListeners = new ConcurrentHashMap<>();
+
   public ListenerBasedChannelSender(Channel manager) {
     super(manager);
+    this.spoke = manager.getTopology() == Topology.SPOKE;
+    this.batchWindowNanos = manager.getListenerBatchWindow().toNanos();
   }
 
   @Override
-  public Collection<ChannelParticipant> getListenerParticipants(ChannelMessage<?, ?> msg) {
-    Set<ChannelParticipant> hosts = this.listenerHosts.getOrDefault(new MessageListenerData<>(msg.getChannelType(),
-        msg.getMessageType(), msg.getIdentifier()), new HashSet<>());
-    hosts.addAll(this.listenerHosts.getOrDefault(new MessageListenerData<>(msg.getChannelType(), msg.getMessageType(),
-        null), new HashSet<>()));
-    return hosts;
+  public List<ChannelParticipant> getListenerParticipants(ChannelMessage<?, ?> msg) {
+    List<ChannelParticipant> participants = this.routingTable.get(msg);
+    if (this.spoke && participants.size() > 1) {
+      // each hub advertises all listeners of the network, one of them relays
+      return List.of(Collections.min(participants));
+    }
+    return participants;
+  }
+
+  /**
+   * Marks the participant as spoke of this channel, only hubs accept spokes.
+   */
+  public void addSpoke(ChannelParticipant participant) {
+    logger.warn("Participant '{}' connected as spoke, but this channel is no hub", participant);
+  }
+
+  /**
+   * @return true if the participant is a spoke of this channel
+   */
+  public boolean isSpoke(ChannelParticipant participant) {
+    return false;
   }
 
-  protected void sendListenerMessage(MessageType<ArrayList<MessageListenerData<?>>> type,
-                                     ArrayList<MessageListenerData<?>> data) {
-    for (ChannelConnection connection : this.manager.getChannelConnections()) {
-      ArrayList<MessageListenerData<?>> filteredData = data.stream()
-          .filter(d -> connection.getListenerFilter() == null || connection.getListenerFilter().test(d))
-          .collect(Collectors.toCollection(ArrayList::new));
+  protected void sendListenerMessage(MessageType<Subscriptions> type, Collection<MessageListenerData<?>> data,
+                                     Collection<ChannelConnection> connections) {
+    Subscriptions subscriptions = new Subscriptions(data);
+    for (ChannelConnection connection : connections) {
+      Subscriptions filteredData = subscriptions.filter(connection.getListenerFilter());
 
       this.manager.getSender().sendMessage(connection.getParticipant(),
           new ChannelControlMessage<>(this.manager.getSelf(), type, filteredData));
     }
   }
 
+  /**
+   * Sends the listeners of this channel to a newly initialized participant or to one which missed a delta. If it
+   * announced a version of this epoch, which is still in the history, only the changes since are sent, otherwise a
+   * snapshot.
+   */
   public void sendAllListenerMessagesTo(ChannelParticipant participant, Predicate<MessageListenerData<?>> predicate) {
-    ArrayList<MessageListenerData<?>> data = this.sentListenerMessages.stream()
-        .filter(d -> predicate == null || predicate.test(d))
-        .collect(Collectors.toCollection(ArrayList::new));
-    manager.getSender().sendMessageSync(participant, new ChannelControlMessage<>(this.manager.getSelf(),
-        MessageType.Control.LISTENER_ADD, data));
-    logger.info("Sent stashed listeners to '{}'", participant);
+    ListenerVersion known = this.syncRequests.remove(participant);
+    CompletableFuture<ResultMessage> result;
+    ListenerDelta delta;
+
+    this.listenerLock.lock();
+    try {
+      delta = this.deltaSince(known);
+      if (delta == null) {
+        delta = ListenerDelta.snapshot(this.listenerEpoch, this.listenerVersion,
+            this.advertisedListeners.filter(predicate));
+      } else {
+        delta = new ListenerDelta(delta.getEpoch(), delta.getSince(), delta.getVersion(),
+            delta.getAdded().filter(predicate), delta.getRemoved().filter(predicate));
+      }
+      result = this.sendMessage(participant, new ChannelControlMessage<>(this.manager.getSelf(),
+          ControlMessageType.LISTENER_DELTA, delta));
+      this.sentListenerVersions.put(participant, delta.getVersion());
+    } finally {
+      this.listenerLock.unlock();
+    }
+
+    result.join();
+    logger.info("Sent listener {} to '{}'", delta.isSnapshot() ? "snapshot" : "changes", participant);
+  }
+
+  /**
+   * @return the merged deltas after the known version or null if they are not in the history
+   */
+  private ListenerDelta deltaSince(ListenerVersion known) {
+    if (known == null || known.getEpoch() != this.listenerEpoch || known.getVersion() > this.listenerVersion) {
+      return null;
+    }
+    if (known.getVersion() < this.listenerVersion
+        && (this.listenerHistory.isEmpty() || this.listenerHistory.peekFirst().getSince() > known.getVersion())) {
+      return null;
+    }
+
+    Subscriptions added = new Subscriptions();
+    Subscriptions removed = new Subscriptions();
+    for (ListenerDelta delta : this.listenerHistory) {
+      if (delta.getSince() < known.getVersion()) {
+        continue;
+      }
+      removed.removeAll(delta.getAdded());
+      added.addAll(delta.getAdded());
+      added.removeAll(delta.getRemoved());
+      removed.addAll(delta.getRemoved());
+    }
+    return new ListenerDelta(this.listenerEpoch, known.getVersion(), this.listenerVersion, added, removed);
   }
 
   public void broadcastListener(@NotNull ChannelType<?> channelType, @NotNull Collection<MessageType<?>> messageTypes,
                                 @NotNull Collection<? extends Serializable> identifiers) {
 
-    ArrayList<MessageListenerData<?>> data;
+    List<MessageListenerData<?>> data;
     if (identifiers.isEmpty()) {
       data = messageTypes.stream()
           .map(t -> new MessageListenerData<>(channelType, t, null))
           .filter(this.sentListenerMessages::add)
-          .collect(Collectors.toCollection(ArrayList::new));
+          .collect(Collectors.toList());
 
     } else {
       data = messageTypes.stream()
           .flatMap(t -> identifiers.stream().map(i -> new Tuple<>(t, i)))
           .map(t -> new MessageListenerData<>(channelType, t.getA(), t.getB()))
           .filter(this.sentListenerMessages::add)
-          .collect(Collectors.toCollection(ArrayList::new));
+          .collect(Collectors.toList());
     }
 
     if (!data.isEmpty()) {
-      this.sendListenerMessage(MessageType.Control.LISTENER_ADD, data);
+      this.scheduleListenerFlush();
       logger.info("Broadcast listener message: {}", data);
     }
   }
@@ -90,52 +192,225 @@ public class ListenerBasedChannelSender extends ChannelSender {
   public void revokeListener(@NotNull ChannelType<?> channelType, @NotNull Collection<MessageType<?>> messageTypes,
                              @NotNull Collection<? extends Serializable> identifiers) {
 
-    ArrayList<MessageListenerData<?>> data;
     if (identifiers.isEmpty()) {
-      data = messageTypes.stream()
-          .map(t -> new MessageListenerData<>(channelType, t, null))
-          .peek(this.sentListenerMessages::remove)
-          .collect(Collectors.toCollection(ArrayList::new));
-
+      messageTypes.forEach(t -> this.sentListenerMessages.remove(new MessageListenerData<>(channelType, t, null)));
     } else {
-      data = messageTypes.stream()
-          .flatMap(t -> identifiers.stream().map(i -> new Tuple<>(t, i)))
-          .map(t -> new MessageListenerData<>(channelType, t.getA(), t.getB()))
-          .peek(this.sentListenerMessages::remove)
-          .collect(Collectors.toCollection(ArrayList::new));
+      messageTypes.forEach(t -> identifiers.forEach(i ->
+          this.sentListenerMessages.remove(new MessageListenerData<>(channelType, t, i))));
     }
 
-    this.sendListenerMessage(MessageType.Control.LISTENER_REMOVE, data);
-    logger.info("Sent '{}' listener remove message", channelType.getName());
+    this.scheduleListenerFlush();
+    logger.info("Revoked '{}' listeners", channelType.getName());
   }
 
-  public void addReceiverHost(ChannelParticipant host, Collection<MessageListenerData<?>> dataCollection) {
+  private void scheduleListenerFlush() {
+    if (this.batchWindowNanos <= 0) {
+      this.flushListeners();
+    } else if (this.flushScheduled.compareAndSet(false, true)) {
+      CompletableFuture.delayedExecutor(this.batchWindowNanos, TimeUnit.NANOSECONDS, this.writerExecutorService)
+          .execute(this::flushListeners);
+    }
+  }
+
+  /**
+   * Advertises the changes of the listeners of this channel since the last flush as one delta per connection.
+   */
+  public void flushListeners() {
+    this.flushScheduled.set(false);
+
+    this.listenerLock.lock();
+    try {
+      Subscriptions wanted = new Subscriptions(this.sentListenerMessages);
+      Subscriptions added = new Subscriptions(wanted);
+      added.removeAll(this.advertisedListeners);
+      Subscriptions removed = new Subscriptions(this.advertisedListeners);
+      removed.removeAll(wanted);
+      if (added.isEmpty() && removed.isEmpty()) {
+        return;
+      }
+
+      this.advertisedListeners.addAll(added);
+      this.advertisedListeners.removeAll(removed);
+      ListenerDelta delta = new ListenerDelta(this.listenerEpoch, this.listenerVersion, ++this.listenerVersion,
+          added, removed);
+      this.listenerHistory.addLast(delta);
+      if (this.listenerHistory.size() > LISTENER_HISTORY_SIZE) {
+        this.listenerHistory.removeFirst();
+      }
+
+      // participants mostly share few filters, each is applied once
+      Map<ListenerFilter, ListenerDelta> filteredByFilter = new HashMap<>();
+      for (ChannelConnection connection : this.manager.getChannelConnections()) {
+        ChannelParticipant participant = connection.getParticipant();
+        ListenerFilter filter = connection.getListenerFilter();
+        if (participant == null || filter == null) {
+          // gets a snapshot with its init
+          continue;
+        }
+        ListenerDelta filtered = filteredByFilter.computeIfAbsent(filter, f -> new ListenerDelta(delta.getEpoch(),
+            delta.getSince(), delta.getVersion(), added.filter(f), removed.filter(f)));
+        Subscriptions withdrawn = filtered.getRemoved();
+        if (withdrawn.stream().anyMatch(d -> this.isRelayedTo(d, participant))) {
+          withdrawn = new Subscriptions(withdrawn);
+          withdrawn.removeIf(d -> this.isRelayedTo(d, participant));
+        }
+        if (filtered.getAdded().isEmpty() && withdrawn.isEmpty()) {
+          continue;
+        }
+        long since = this.sentListenerVersions.getOrDefault(participant, delta.getSince());
+        this.sendMessage(participant, new ChannelControlMessage<>(this.manager.getSelf(),
+            ControlMessageType.LISTENER_DELTA, new ListenerDelta(delta.getEpoch(), since, delta.getVersion(),
+            filtered.getAdded(), withdrawn)));
+        this.sentListenerVersions.put(participant, delta.getVersion());
+      }
+      logger.info("Advertised listener delta {}#{}->{}: +{} -{}", delta.getEpoch(), delta.getSince(),
+          delta.getVersion(), added.size(), removed.size());
+      logger.debug("Advertised listener delta {}", delta);
+    } finally {
+      this.listenerLock.unlock();
+    }
+  }
+
+  /**
+   * @return true if the listener is still advertised to the participant on behalf of another one
+   */
+  protected boolean isRelayedTo(MessageListenerData<?> data, ChannelParticipant participant) {
+    return false;
+  }
+
+  /**
+   * Stores the version of the listeners of this channel known by the participant, sent before its init.
+   */
+  public void addSyncRequest(ChannelParticipant participant, ListenerVersion version) {
+    this.syncRequests.put(participant, version);
+  }
+
+  /**
+   * @return the version of the known listeners of the participant, also after a disconnect, or null if there are none
+   */
+  public ListenerVersion getListenerVersion(ChannelParticipant participant) {
+    RemoteListeners remote = this.remoteListeners.get(participant);
+    return remote != null ? new ListenerVersion(remote.epoch, remote.version) : null;
+  }
+
+  public void applyListenerDelta(ChannelParticipant host, ListenerDelta delta) {
     if (host.equals(this.manager.getSelf())) {
       return;
     }
 
-    for (MessageListenerData<?> data : dataCollection) {
-      this.listenerHosts.computeIfAbsent(data, k -> ConcurrentHashMap.newKeySet()).add(host);
+    RemoteListeners remote = this.remoteListeners.get(host);
+    if (delta.isSnapshot()) {
+      if (remote != null) {
+        this.removeReceiverHost(host, new Subscriptions(remote.listeners));
+      }
+      this.remoteListeners.put(host, new RemoteListeners(delta.getEpoch(), delta.getVersion()));
+      this.addReceiverHost(host, delta.getAdded());
+      return;
     }
-    logger.info("Added remote listener from '{}'", host);
-  }
 
-  public void removeReceiverHost(ChannelParticipant host, Collection<MessageListenerData<?>> dataCollection) {
-    for (MessageListenerData<?> data : dataCollection) {
-      Set<ChannelParticipant> participants = this.listenerHosts.get(data);
-      if (participants != null) {
-        participants.remove(host);
+    if (remote == null || remote.epoch != delta.getEpoch()
+        || (remote.active && delta.getVersion() <= remote.version)) {
+      logger.debug("Dropped outdated listener delta of '{}': {}", host, delta);
+      return;
+    }
 
-        if (participants.isEmpty()) {
-          this.listenerHosts.remove(data);
-        }
+    if (delta.getSince() != remote.version) {
+      // a delta in between is missing, the known listeners are only valid up to their version
+      long now = System.nanoTime();
+      if (remote.syncVersion == remote.version && now - remote.syncNanos < LISTENER_SYNC_TIMEOUT_NANOS) {
+        logger.debug("Dropped listener delta of '{}' while waiting for sync: {}", host, delta);
+        return;
       }
+      remote.syncVersion = remote.version;
+      remote.syncNanos = now;
+      logger.info("Missed listener changes of '{}' since {}, requesting them", host, remote.version);
+      this.sendMessage(host, new ChannelControlMessage<>(this.manager.getSelf(), ControlMessageType.LISTENER_SYNC,
+          new ListenerVersion(remote.epoch, remote.version)));
+      return;
+    }
+
+    remote.version = delta.getVersion();
+    if (!remote.active) {
+      // reconnected, the kept listeners are valid up to the version of the delta
+      remote.active = true;
+      this.addReceiverHost(host, new Subscriptions(remote.listeners));
+    }
+    if (!delta.getRemoved().isEmpty()) {
+      this.removeReceiverHost(host, delta.getRemoved());
     }
+    if (!delta.getAdded().isEmpty()) {
+      this.addReceiverHost(host, delta.getAdded());
+    }
+  }
+
+  public void addReceiverHost(ChannelParticipant host, Collection<MessageListenerData<?>> dataCollection) {
+    if (host.equals(this.manager.getSelf())) {
+      return;
+    }
+
+    this.routingTable.add(host, dataCollection);
+    this.remoteListeners.computeIfPresent(host, (h, remote) -> {
+      remote.listeners.addAll(dataCollection);
+      return remote;
+    });
+    logger.info("Added remote listener from '{}'", host);
+  }
+
+  public void removeReceiverHost(ChannelParticipant host, Collection<MessageListenerData<?>> dataCollection) {
+    this.routingTable.remove(host, dataCollection);
+    this.remoteListeners.computeIfPresent(host, (h, remote) -> {
+      remote.listeners.removeAll(dataCollection);
+      return remote;
+    });
     logger.info("Removed listener of host '{}'", host);
   }
 
+  /**
+   * Removes all routes to the host, its listeners are kept for a reconnect.
+   */
   public void removeReceiverHost(ChannelParticipant host) {
-    this.listenerHosts.values().forEach(v -> v.remove(host));
+    this.routingTable.remove(host);
+    this.remoteListeners.computeIfPresent(host, (h, remote) -> {
+      remote.active = false;
+      return remote;
+    });
     logger.info("Removed listeners of host '{}'", host);
   }
+
+  /**
+   * Removes all routes to the host and its kept listeners, once it left the network.
+   */
+  public void forgetReceiverHost(ChannelParticipant host) {
+    this.removeReceiverHost(host);
+    this.remoteListeners.remove(host);
+    this.syncRequests.remove(host);
+    this.listenerLock.lock();
+    try {
+      this.sentListenerVersions.remove(host);
+    } finally {
+      this.listenerLock.unlock();
+    }
+  }
+
+  private static class RemoteListeners {
+
+    private final long epoch;
+    /**
+     * Changed under the control message lock only.
+     */
+    private final Subscriptions listeners = new Subscriptions();
+    private volatile long version;
+    private volatile boolean active = true;
+    /**
+     * Version of the last listener sync request and its time, a sync is outstanding while the version is unchanged.
+     * Changed under the control message lock only.
+     */
+    private long syncVersion = -1;
+    private long syncNanos;
+
+    private RemoteListeners(long epoch, long version) {
+      this.epoch = epoch;
+      this.version = version;
+    }
+  }
 }
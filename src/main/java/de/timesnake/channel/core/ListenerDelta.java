@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.io.Serializable;
+
+/**
+ * Changes of the listeners of a participant from one version to another. A snapshot contains all listeners of its
+ * version and replaces the known ones.
+ */
+public class ListenerDelta implements Serializable {
+
+  private final long epoch;
+  private final long since;
+  private final long version;
+  private final Subscriptions added;
+  private final Subscriptions removed;
+
+  public static ListenerDelta snapshot(long epoch, long version, Subscriptions listeners) {
+    return new ListenerDelta(epoch, -1, version, listeners, new Subscriptions());
+  }
+
+  public ListenerDelta(long epoch, long since, long version, Subscriptions added,
+                       Subscriptions removed) {
+    this.epoch = epoch;
+    this.since = since;
+    this.version = version;
+    this.added = added;
+    this.removed = removed;
+  }
+
+  public long getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * @return the version this delta applies to, -1 for a snapshot
+   */
+  public long getSince() {
+    return since;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public boolean isSnapshot() {
+    return since < 0;
+  }
+
+  public Subscriptions getAdded() {
+    return added;
+  }
+
+  public Subscriptions getRemoved() {
+    return removed;
+  }
+
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return (this.isSnapshot() ? "snapshot " : "delta " + since + "->") + epoch + "#" + version + " +" + added
+        + " -" + removed;
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.message.MessageType;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Declarative filter of the listeners a channel wants to know of, sent with its init. Listener data passes if its
+ * channel type and message type are selected and its identifier is one of the identifiers or matches one of the
+ * patterns. Listeners without identifier always pass the identifier check. An empty selection selects all.
+ *
+ * <p>
+ * The filter is compiled into a bitset of message type slots and identifier sets. It is serialized as type ordinals and
+ * strings only, so a received filter can not carry code. Patterns are limited in number and length, and each match
+ * reads a bounded number of characters, so a received pattern can not stall the filtering with backtracking.
+ */
+public final class ListenerFilter implements Predicate<MessageListenerData<?>>, Serializable {
+
+  @Serial
+  private static final long serialVersionUID = 1L;
+
+  static final int MAX_PATTERNS = 16;
+  static final int MAX_PATTERN_LENGTH = 256;
+  private static final int MATCH_BUDGET = 16 * 1024;
+
+  private static final ListenerFilter ALL = new ListenerFilter(Set.of(), Set.of(), Set.of(), List.of());
+
+  /**
+   * @return a filter passing all listeners
+   */
+  public static ListenerFilter all() {
+    return ALL;
+  }
+
+  /**
+   * @return a filter passing listeners of the channel types
+   */
+  public static ListenerFilter of(ChannelType<?>... channelTypes) {
+    return ALL.withChannelTypes(channelTypes);
+  }
+
+  private transient Set<ChannelType<?>> channelTypes;
+  private transient Set<MessageType<?>> messageTypes;
+  private transient Set<Serializable> identifiers;
+  private transient List<String> patterns;
+
+  private transient BitSet slots;
+  private transient Set<UUID> uuids;
+  private transient Set<String> names;
+  private transient Pattern[] compiledPatterns;
+
+  /**
+   * @return a filter of copies of the selections
+   * @throws IllegalArgumentException if a pattern is invalid or the patterns exceed their limits
+   */
+  static ListenerFilter of(Collection<ChannelType<?>> channelTypes, Collection<MessageType<?>> messageTypes,
+                           Collection<? extends Serializable> identifiers, List<String> patterns) {
+    return new ListenerFilter(Set.copyOf(channelTypes), Set.copyOf(messageTypes), Set.copyOf(identifiers),
+        List.copyOf(patterns));
+  }
+
+  private ListenerFilter(Set<ChannelType<?>> channelTypes, Set<MessageType<?>> messageTypes,
+                         Set<Serializable> identifiers, List<String> patterns) {
+    this.channelTypes = channelTypes;
+    this.messageTypes = messageTypes;
+    this.identifiers = identifiers;
+    this.patterns = patterns;
+    this.compile();
+  }
+
+  /**
+   * @return a copy of this filter, which also selects the channel types
+   */
+  public ListenerFilter withChannelTypes(ChannelType<?>... channelTypes) {
+    return new ListenerFilter(union(this.channelTypes, List.of(channelTypes)), this.messageTypes, this.identifiers,
+        this.patterns);
+  }
+
+  /**
+   * @return a copy of this filter, which also selects the message types
+   */
+  public ListenerFilter withMessageTypes(MessageType<?>... messageTypes) {
+    return new ListenerFilter(this.channelTypes, union(this.messageTypes, List.of(messageTypes)), this.identifiers,
+        this.patterns);
+  }
+
+  /**
+   * @return a copy of this filter, which also passes the identifiers
+   */
+  public ListenerFilter withIdentifiers(Collection<? extends Serializable> identifiers) {
+    return new ListenerFilter(this.channelTypes, this.messageTypes, union(this.identifiers, identifiers),
+        this.patterns);
+  }
+
+  /**
+   * @param regex pattern the string form of an identifier has to match completely
+   * @return a copy of this filter, which also passes the identifiers matching the pattern
+   */
+  public ListenerFilter withIdentifierPattern(@NotNull String regex) {
+    List<String> patterns = new ArrayList<>(this.patterns);
+    patterns.add(regex);
+    return new ListenerFilter(this.channelTypes, this.messageTypes, this.identifiers, List.copyOf(patterns));
+  }
+
+  private static <T> Set<T> union(Set<T> set, Collection<? extends T> elements) {
+    Set<T> union = new HashSet<>(set);
+    union.addAll(elements);
+    return Set.copyOf(union);
+  }
+
+  private void compile() {
+    this.slots = new BitSet(ChannelType.getMessageTypeCount());
+    for (ChannelType<?> channelType : ChannelType.TYPES) {
+      if (!this.channelTypes.isEmpty() && !this.channelTypes.contains(channelType)) {
+        continue;
+      }
+      for (MessageType<?> messageType : channelType.getMessageTypes()) {
+        if (this.messageTypes.isEmpty() || this.messageTypes.contains(messageType)) {
+          this.slots.set(messageType.getSlot());
+        }
+      }
+    }
+
+    this.uuids = new HashSet<>();
+    this.names = new HashSet<>();
+    for (Serializable identifier : this.identifiers) {
+      if (identifier instanceof UUID uuid) {
+        this.uuids.add(uuid);
+      } else {
+        this.names.add(identifier.toString());
+      }
+    }
+
+    if (this.patterns.size() > MAX_PATTERNS) {
+      throw new IllegalArgumentException("more than " + MAX_PATTERNS + " patterns");
+    }
+    for (String pattern : this.patterns) {
+      if (pattern.length() > MAX_PATTERN_LENGTH) {
+        throw new IllegalArgumentException("pattern longer than " + MAX_PATTERN_LENGTH + " characters");
+      }
+    }
+    this.compiledPatterns = this.patterns.stream().map(Pattern::compile).toArray(Pattern[]::new);
+  }
+
+  Set<ChannelType<?>> getChannelTypes() {
+    return channelTypes;
+  }
+
+  Set<MessageType<?>> getMessageTypes() {
+    return messageTypes;
+  }
+
+  Set<Serializable> getIdentifiers() {
+    return identifiers;
+  }
+
+  List<String> getPatterns() {
+    return patterns;
+  }
+
+  /**
+   * @return true if listeners of the message type slot may pass
+   */
+  boolean matchesSlot(int slot) {
+    return this.slots.get(slot);
+  }
+
+  /**
+   * @return true if the filter does not restrict identifiers
+   */
+  boolean matchesAllIdentifiers() {
+    return this.identifiers.isEmpty() && this.patterns.isEmpty();
+  }
+
+  boolean matchesIdentifier(Serializable identifier) {
+    if (identifier == null || this.matchesAllIdentifiers()) {
+      return true;
+    }
+    if (identifier instanceof UUID uuid) {
+      if (this.uuids.contains(uuid)) {
+        return true;
+      }
+    } else if (this.names.contains(identifier.toString())) {
+      return true;
+    }
+    if (this.compiledPatterns.length == 0) {
+      return false;
+    }
+    String name = identifier.toString();
+    for (Pattern pattern : this.compiledPatterns) {
+      try {
+        if (pattern.matcher(new BoundedInput(name)).matches()) {
+          return true;
+        }
+      } catch (MatchBudgetExceededException e) {
+        // too expensive to match, treated as no match
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean test(MessageListenerData<?> data) {
+    int slot = Subscriptions.slotOf(data);
+    return slot >= 0 && this.matchesSlot(slot) && this.matchesIdentifier(data.getIdentifier());
+  }
+
+  @Serial
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+
+    out.writeInt(this.channelTypes.size());
+    for (ChannelType<?> channelType : this.channelTypes) {
+      out.writeByte(channelType.getOrdinal());
+    }
+    out.writeInt(this.messageTypes.size());
+    for (MessageType<?> messageType : this.messageTypes) {
+      out.writeByte(messageType.getChannelType().getOrdinal());
+      out.writeShort(messageType.getOrdinal());
+    }
+    out.writeInt(this.identifiers.size());
+    for (Serializable identifier : this.identifiers) {
+      if (identifier instanceof UUID uuid) {
+        out.writeBoolean(true);
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+      } else {
+        out.writeBoolean(false);
+        out.writeUTF(identifier.toString());
+      }
+    }
+    out.writeInt(this.patterns.size());
+    for (String pattern : this.patterns) {
+      out.writeUTF(pattern);
+    }
+  }
+
+  @Serial
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+
+    Set<ChannelType<?>> channelTypes = new HashSet<>();
+    for (int i = in.readInt(); i > 0; i--) {
+      ChannelType<?> channelType = ChannelType.getType(in.readByte());
+      if (channelType == null) {
+        throw new InvalidObjectException("unknown channel type");
+      }
+      channelTypes.add(channelType);
+    }
+    Set<MessageType<?>> messageTypes = new HashSet<>();
+    for (int i = in.readInt(); i > 0; i--) {
+      ChannelType<?> channelType = ChannelType.getType(in.readByte());
+      MessageType<?> messageType = channelType != null ? channelType.getMessageType(in.readShort()) : null;
+      if (messageType == null) {
+        throw new InvalidObjectException("unknown message type");
+      }
+      messageTypes.add(messageType);
+    }
+    Set<Serializable> identifiers = new HashSet<>();
+    for (int i = in.readInt(); i > 0; i--) {
+      identifiers.add(in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : in.readUTF());
+    }
+    List<String> patterns = new ArrayList<>();
+    for (int i = in.readInt(); i > 0; i--) {
+      patterns.add(in.readUTF());
+    }
+
+    this.channelTypes = Set.copyOf(channelTypes);
+    this.messageTypes = Set.copyOf(messageTypes);
+    this.identifiers = Set.copyOf(identifiers);
+    this.patterns = List.copyOf(patterns);
+    try {
+      this.compile();
+    } catch (IllegalArgumentException e) {
+      throw new InvalidObjectException("invalid identifier pattern: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Input of a match, which fails the match after {@link #MATCH_BUDGET} character reads.
+   */
+  private static final class BoundedInput implements CharSequence {
+
+    private final String value;
+    private int budget = MATCH_BUDGET;
+
+    private BoundedInput(String value) {
+      this.value = value;
+    }
+
+    @Override
+    public int length() {
+      return this.value.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (--this.budget < 0) {
+        throw MatchBudgetExceededException.INSTANCE;
+      }
+      return this.value.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return this.value.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return this.value;
+    }
+  }
+
+  private static final class MatchBudgetExceededException extends RuntimeException {
+
+    private static final MatchBudgetExceededException INSTANCE = new MatchBudgetExceededException();
+
+    private MatchBudgetExceededException() {
+      super(null, null, false, false);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    ListenerFilter that = (ListenerFilter) o;
+    return channelTypes.equals(that.channelTypes) && messageTypes.equals(that.messageTypes)
+        && identifiers.equals(that.identifiers) && patterns.equals(that.patterns);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(channelTypes, messageTypes, identifiers, patterns);
+  }
+
+  @Override
+  public String toString() {
+    return "ListenerFilter{" +
+        "channelTypes=" + channelTypes +
+        ", messageTypes=" + messageTypes +
+        ", identifiers=" + identifiers +
+        ", patterns=" + patterns +
+        '}';
+  }
+}
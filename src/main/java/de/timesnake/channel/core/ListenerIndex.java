@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.listener.ChannelListener;
+import de.timesnake.channel.util.message.ChannelMessage;
+import de.timesnake.channel.util.message.MessageType;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Immutable dispatch index of local listeners. Slots are held in a dense array keyed by the message type slot, each
+ * with an identifier to handler map and a wildcard handler array. Looking up the handlers of a message allocates
+ * nothing, changes are published as a new index, which copies the changed slots only.
+ */
+final class ListenerIndex {
+
+  static final ListenerIndex EMPTY = new ListenerIndex(new Slot[0]);
+
+  /**
+   * @return the dense slot of the type pair or -1 if the message type does not belong to the channel type
+   */
+  static int slotOf(ChannelType<?> channelType, MessageType<?> messageType) {
+    return messageType.getChannelType() == channelType ? messageType.getSlot() : -1;
+  }
+
+  /**
+   * Creates a copy of this index with the handlers of the changed listener data. Only the slots of the changed data
+   * are copied, unchanged slots are shared with this index.
+   *
+   * @param changed   listener data whose handlers changed
+   * @param listeners registered handlers of each listener data
+   */
+  ListenerIndex with(Collection<MessageListenerData<?>> changed, Map<MessageListenerData<?>,
+      ? extends Map<ChannelListener, ? extends Set<ChannelHandlerInvoker>>> listeners) {
+    Slot[] slots = this.slots.length > 0 ? this.slots.clone() : new Slot[ChannelType.getMessageTypeCount()];
+    Map<Integer, Slot> copies = new HashMap<>();
+
+    for (MessageListenerData<?> data : changed) {
+      int slot = slotOf(data.getChannelType(), data.getMessageType());
+      if (slot < 0) {
+        continue;
+      }
+
+      Slot copy = copies.computeIfAbsent(slot, k -> slots[k] != null ? new Slot(slots[k]) : new Slot());
+      Handler[] handlers = handlers(listeners.get(data));
+      if (data.getIdentifier() == null) {
+        copy.wildcard = handlers;
+      } else if (handlers.length == 0) {
+        copy.byIdentifier.remove(data.getIdentifier());
+      } else {
+        copy.byIdentifier.put(data.getIdentifier(), handlers);
+      }
+    }
+
+    copies.forEach((slot, copy) -> slots[slot] = copy.isEmpty() ? null : copy);
+    return new ListenerIndex(slots);
+  }
+
+  private static Handler[] handlers(Map<ChannelListener, ? extends Set<ChannelHandlerInvoker>> listeners) {
+    if (listeners == null || listeners.isEmpty()) {
+      return Slot.NONE;
+    }
+    List<Handler> handlers = new ArrayList<>();
+    for (Map.Entry<ChannelListener, ? extends Set<ChannelHandlerInvoker>> entry : listeners.entrySet()) {
+      for (ChannelHandlerInvoker invoker : entry.getValue()) {
+        handlers.add(new Handler(entry.getKey(), invoker));
+      }
+    }
+    return handlers.toArray(Slot.NONE);
+  }
+
+  private final Slot[] slots;
+
+  private ListenerIndex(Slot[] slots) {
+    this.slots = slots;
+  }
+
+  /**
+   * @return the slot of the message or null if no listener is registered for its types
+   */
+  Slot get(ChannelMessage<?, ?> msg) {
+    int slot = slotOf(msg.getChannelType(), msg.getMessageType());
+    return slot >= 0 && slot < this.slots.length ? this.slots[slot] : null;
+  }
+
+  static final class Slot {
+
+    private static final Handler[] NONE = new Handler[0];
+
+    private final Map<Serializable, Handler[]> byIdentifier;
+    private Handler[] wildcard;
+
+    private Slot() {
+      this.byIdentifier = new HashMap<>();
+      this.wildcard = NONE;
+    }
+
+    /**
+     * Copies the slot, the handler arrays are shared. Only modified before it is published.
+     */
+    private Slot(Slot slot) {
+      this.byIdentifier = new HashMap<>(slot.byIdentifier);
+      this.wildcard = slot.wildcard;
+    }
+
+    private boolean isEmpty() {
+      return this.byIdentifier.isEmpty() && this.wildcard.length == 0;
+    }
+
+    Handler[] getFiltered(Serializable identifier) {
+      if (identifier == null) {
+        return NONE;
+      }
+      return this.byIdentifier.getOrDefault(identifier, NONE);
+    }
+
+    Handler[] getWildcard() {
+      return wildcard;
+    }
+  }
+
+  record Handler(ChannelListener listener, ChannelHandlerInvoker invoker) {
+
+  }
+}
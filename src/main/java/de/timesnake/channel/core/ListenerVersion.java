@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.io.Serializable;
+
+/**
+ * Version of the listeners of a participant. The epoch changes with each start of the participant, versions are only
+ * comparable within one epoch.
+ */
+public class ListenerVersion implements Serializable {
+
+  private final long epoch;
+  private final long version;
+
+  public ListenerVersion(long epoch, long version) {
+    this.epoch = epoch;
+    this.version = version;
+  }
+
+  public long getEpoch() {
+    return epoch;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  @Override
+  public String toString() {
+    return epoch + "#" + version;
+  }
+}
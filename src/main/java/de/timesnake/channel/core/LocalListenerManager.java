@@ -15,7 +15,6 @@ import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.*;
@@ -27,49 +26,56 @@ public class LocalListenerManager {
   protected Channel manager;
 
   protected ConcurrentHashMap<MessageListenerData<?>, ConcurrentHashMap<ChannelListener,
-      Set<Method>>> listeners = new ConcurrentHashMap<>();
+      Set<ChannelHandlerInvoker>>> listeners = new ConcurrentHashMap<>();
 
-  protected final ExecutorService executorService = new ThreadPoolExecutor(2, 100,
-      5L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+  /**
+   * Snapshot of {@link #listeners} used for dispatching, replaced on each change.
+   */
+  protected volatile ListenerIndex index = ListenerIndex.EMPTY;
+
+  protected final ExecutorService executorService;
 
   public LocalListenerManager(Channel manager) {
     this.manager = manager;
+    this.executorService = manager.getExecutorFactory().newExecutor("channel-listener", 100);
   }
 
   public <Identifier extends Serializable> void invokeLocalListeners(ChannelMessage<Identifier, ?> msg) {
-    Set<Map.Entry<ChannelListener, Set<Method>>> listenerSet = this.listeners.getOrDefault(
-        new MessageListenerData<>(msg.getChannelType(), msg.getMessageType(), msg.getIdentifier()),
-        new ConcurrentHashMap<>()).entrySet();
-
-    listenerSet.addAll(this.listeners.getOrDefault(
-        new MessageListenerData<>(msg.getChannelType(), msg.getMessageType(), null),
-        new ConcurrentHashMap<>()).entrySet());
+    ListenerIndex.Slot slot = this.index.get(msg);
+    if (slot == null) {
+      return;
+    }
 
-    for (Map.Entry<ChannelListener, Set<Method>> entry : listenerSet) {
-      ChannelListener listener = entry.getKey();
+    this.invokeHandlers(slot.getFiltered(msg.getIdentifier()), msg);
+    this.invokeHandlers(slot.getWildcard(), msg);
+  }
 
-      for (Method method : entry.getValue()) {
-        method.setAccessible(true);
+  /**
+   * @return true if a local listener handles the message
+   */
+  public boolean hasLocalListener(ChannelMessage<?, ?> msg) {
+    ListenerIndex.Slot slot = this.index.get(msg);
+    return slot != null && (slot.getWildcard().length > 0
+        || slot.getFiltered((Serializable) msg.getIdentifier()).length > 0);
+  }
 
-        if (method.getAnnotation(ChannelHandler.class).async()) {
-          try {
-            method.invoke(listener, msg);
-          } catch (IllegalAccessException | InvocationTargetException e) {
-            logger.warn("Unable to invoke listener of '{}': {}", method.getClass().getName(), e.getMessage());
-          }
-        } else {
-          this.manager.runSync(() -> {
-            try {
-              method.invoke(listener, msg);
-            } catch (IllegalAccessException | InvocationTargetException e) {
-              logger.warn("Unable to invoke listener of '{}': {}", method.getClass().getName(), e.getMessage());
-            }
-          });
-        }
+  private void invokeHandlers(ListenerIndex.Handler[] handlers, ChannelMessage<?, ?> msg) {
+    for (ListenerIndex.Handler handler : handlers) {
+      if (handler.invoker().isAsync()) {
+        this.invokeHandler(handler, msg);
+      } else {
+        this.manager.runSync(() -> this.invokeHandler(handler, msg));
       }
     }
   }
 
+  private void invokeHandler(ListenerIndex.Handler handler, ChannelMessage<?, ?> msg) {
+    Object result = handler.invoker().invoke(handler.listener(), msg);
+    if (msg.isRequest() && result instanceof ChannelMessage<?, ?> response) {
+      this.manager.getSender().sendResponse(msg, response);
+    }
+  }
+
   public void addLocalListener(ChannelListener listener) {
     this.addLocalListener(listener, Set.of());
   }
@@ -88,6 +94,7 @@ public class LocalListenerManager {
 
     HashMap<ChannelType<?>, List<MessageType<?>>> messageData = new HashMap<>();
     HashMap<ChannelType<?>, List<MessageType<?>>> filteredMessageData = new HashMap<>();
+    List<MessageListenerData<?>> changed = new ArrayList<>();
 
     Class<?> clazz = listener.getClass();
 
@@ -101,7 +108,12 @@ public class LocalListenerManager {
           throw new InconsistentChannelListenerException("invalid parameter size");
         }
 
+        if (method.getReturnType() != void.class && !ChannelMessage.class.isAssignableFrom(method.getReturnType())) {
+          throw new InconsistentChannelListenerException("invalid return type");
+        }
+
         ChannelHandler annotation = method.getAnnotation(ChannelHandler.class);
+        ChannelHandlerInvoker handler = ChannelHandlerInvoker.of(method);
         ListenerType[] methodTypes = annotation.type();
         for (ListenerType type : methodTypes) {
 
@@ -120,19 +132,21 @@ public class LocalListenerManager {
 
             for (Identifier identifier : identifiers) {
               MessageListenerData<?> data = new MessageListenerData<>(channelType, type.getMessageType(), identifier);
-              Set<Method> methods = this.listeners.computeIfAbsent(data, k -> new ConcurrentHashMap<>())
+              Set<ChannelHandlerInvoker> handlers = this.listeners.computeIfAbsent(data, k -> new ConcurrentHashMap<>())
                   .computeIfAbsent(listener, k -> ConcurrentHashMap.newKeySet());
 
-              newType = newType || methods.isEmpty();
-              methods.add(method);
+              newType = newType || handlers.isEmpty();
+              handlers.add(handler);
+              changed.add(data);
             }
           } else {
             MessageListenerData<?> data = new MessageListenerData<>(type.getChannelType(), type.getMessageType(), null);
-            Set<Method> methods = this.listeners.computeIfAbsent(data, k -> new ConcurrentHashMap<>())
+            Set<ChannelHandlerInvoker> handlers = this.listeners.computeIfAbsent(data, k -> new ConcurrentHashMap<>())
                 .computeIfAbsent(listener, k -> ConcurrentHashMap.newKeySet());
 
-            newType = methods.isEmpty();
-            methods.add(method);
+            newType = handlers.isEmpty();
+            handlers.add(handler);
+            changed.add(data);
           }
 
           if (newType) {
@@ -149,7 +163,7 @@ public class LocalListenerManager {
       clazz = clazz.getSuperclass();
     } while (clazz != null && ChannelListener.class.isAssignableFrom(clazz));
 
-
+    this.publishIndex(changed);
     for (Map.Entry<ChannelType<?>, List<MessageType<?>>> entry : messageData.entrySet()) {
       this.manager.getSender().broadcastListener(entry.getKey(), entry.getValue(), List.of());
     }
@@ -163,19 +177,25 @@ public class LocalListenerManager {
   }
 
   public void removeListenerSync(ChannelListener listener) {
-    Set<Map.Entry<MessageListenerData<?>, ConcurrentHashMap<ChannelListener, Set<Method>>>> entries =
+    Set<Map.Entry<MessageListenerData<?>, ConcurrentHashMap<ChannelListener, Set<ChannelHandlerInvoker>>>> entries =
         this.listeners.entrySet();
 
     HashMap<ChannelType<?>, List<MessageType<?>>> messageData = new HashMap<>();
     HashMap<ChannelType<?>, List<MessageType<?>>> filteredMessageData = new HashMap<>();
     Collection<Serializable> identifiers = new HashSet<>();
+    List<MessageListenerData<?>> changed = new ArrayList<>();
 
-    for (Map.Entry<MessageListenerData<?>, ConcurrentHashMap<ChannelListener, Set<Method>>> entry : entries) {
+    for (Iterator<Map.Entry<MessageListenerData<?>, ConcurrentHashMap<ChannelListener, Set<ChannelHandlerInvoker>>>> it =
+         entries.iterator(); it.hasNext(); ) {
+      Map.Entry<MessageListenerData<?>, ConcurrentHashMap<ChannelListener, Set<ChannelHandlerInvoker>>> entry = it.next();
       MessageListenerData<?> data = entry.getKey();
 
-      entry.getValue().remove(listener);
-
+      if (entry.getValue().remove(listener) == null) {
+        continue;
+      }
+      changed.add(data);
       if (entry.getValue().isEmpty()) {
+        it.remove();
         if (data.getIdentifier() != null) {
           identifiers.add(data.getIdentifier());
           filteredMessageData.computeIfAbsent(data.getChannelType(), k -> new ArrayList<>()).add(data.getMessageType());
@@ -186,6 +206,8 @@ public class LocalListenerManager {
       }
     }
 
+    this.publishIndex(changed);
+
     for (Map.Entry<ChannelType<?>, List<MessageType<?>>> entry : messageData.entrySet()) {
       this.manager.getSender().revokeListener(entry.getKey(), entry.getValue(), List.of());
     }
@@ -193,4 +215,13 @@ public class LocalListenerManager {
       this.manager.getSender().revokeListener(entry.getKey(), entry.getValue(), identifiers);
     }
   }
+
+  /**
+   * Publishes a new index, in which the slots of the changed listener data are rebuilt.
+   */
+  private synchronized void publishIndex(Collection<MessageListenerData<?>> changed) {
+    if (!changed.isEmpty()) {
+      this.index = this.index.with(changed, this.listeners);
+    }
+  }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * State of a participant as disseminated by {@link Membership}. The incarnation is only increased by the participant
+ * itself, to refute a suspicion.
+ */
+public class MemberState implements Serializable {
+
+  public enum Status {
+    ALIVE,
+    SUSPECT,
+    DEAD
+  }
+
+  private final ChannelParticipant participant;
+  private final Status status;
+  private final long incarnation;
+
+  public MemberState(ChannelParticipant participant, Status status, long incarnation) {
+    this.participant = participant;
+    this.status = status;
+    this.incarnation = incarnation;
+  }
+
+  public ChannelParticipant getParticipant() {
+    return participant;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public long getIncarnation() {
+    return incarnation;
+  }
+
+  /**
+   * @param current known state of the participant, may be null
+   * @return true if this state supersedes the current one
+   */
+  public boolean overrides(MemberState current) {
+    if (current == null) {
+      return true;
+    }
+    return switch (this.status) {
+      case ALIVE -> this.incarnation > current.incarnation;
+      case SUSPECT -> switch (current.status) {
+        case ALIVE -> this.incarnation >= current.incarnation;
+        case SUSPECT -> this.incarnation > current.incarnation;
+        case DEAD -> false;
+      };
+      case DEAD -> current.status != Status.DEAD && this.incarnation >= current.incarnation;
+    };
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    MemberState that = (MemberState) o;
+    return incarnation == that.incarnation && participant.equals(that.participant) && status == that.status;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(participant, status, incarnation);
+  }
+
+  @Override
+  public String toString() {
+    return participant + "=" + status + "#" + incarnation;
+  }
+}
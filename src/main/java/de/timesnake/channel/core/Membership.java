@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.core.MemberState.Status;
+import de.timesnake.channel.util.message.MessageType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gossip based membership of the network. Only changes are disseminated: each new {@link MemberState} is piggybacked on
+ * the gossip of the next rounds, about log(n) times, each round sends it to {@link Channel#getGossipFanout()} random
+ * participants. A new connection gets the state of this channel and the pending changes, so a joiner only needs one
+ * member to spread, the other members connect to it once they learn about it.
+ *
+ * <p>
+ * A participant without reads is suspected by the {@link HeartbeatMonitor}. The participant refutes a suspicion by
+ * increasing its incarnation, otherwise it is declared dead after {@link Channel#getSuspicionTimeout()}.
+ */
+public class Membership {
+
+  public final Logger logger = LogManager.getLogger("channel.membership");
+
+  private static final int RETRANSMIT_MULTIPLIER = 2;
+  /**
+   * Dead members are kept as tombstones for this many suspicion timeouts, so a stale alive state of their last
+   * incarnation, still gossiped by other members, does not bring them back.
+   */
+  private static final int TOMBSTONE_MULTIPLIER = 6;
+  private static final int MAX_UPDATES = 64;
+
+  private final Channel manager;
+  private final long intervalNanos;
+  private final int fanout;
+  private final long suspicionNanos;
+  private final long tombstoneNanos;
+  private final boolean enabled;
+
+  /**
+   * Known members and pending changes. A lock instead of a monitor, a dead member is disconnected while holding it.
+   */
+  private final Map<ChannelParticipant, Member> members = new HashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private long incarnation = System.currentTimeMillis();
+  private int selfRetransmits;
+
+  private final Set<ChannelParticipant> connecting = ConcurrentHashMap.newKeySet();
+  private volatile boolean running;
+
+  public Membership(Channel manager) {
+    this.manager = manager;
+    this.intervalNanos = manager.getGossipInterval().toNanos();
+    this.fanout = manager.getGossipFanout();
+    this.suspicionNanos = manager.getSuspicionTimeout().toNanos();
+    this.tombstoneNanos = this.suspicionNanos * TOMBSTONE_MULTIPLIER;
+    // spokes only know their hubs
+    this.enabled = manager.getTopology() != Topology.SPOKE;
+  }
+
+  public void start() {
+    if (!this.enabled || this.intervalNanos <= 0 || this.running) {
+      return;
+    }
+    this.running = true;
+    this.scheduleRound();
+  }
+
+  public void stop() {
+    this.running = false;
+  }
+
+  /**
+   * Sends the state of this channel and all pending changes to a newly connected participant.
+   */
+  public void onConnected(ChannelParticipant participant) {
+    if (!this.enabled || this.manager.getSender().isSpoke(participant)) {
+      return;
+    }
+
+    ArrayList<MemberState> states = new ArrayList<>();
+    this.lock.lock();
+    try {
+      states.add(new MemberState(this.manager.getSelf(), Status.ALIVE, this.incarnation));
+      this.members.values().stream()
+          .filter(m -> m.retransmits > 0)
+          .limit(MAX_UPDATES)
+          .forEach(m -> states.add(m.state));
+    } finally {
+      this.lock.unlock();
+    }
+    this.manager.getSender().sendMessage(participant, new ChannelControlMessage<>(this.manager.getSelf(),
+        ControlMessageType.GOSSIP, states));
+  }
+
+  public void merge(List<MemberState> states) {
+    if (!this.enabled) {
+      return;
+    }
+
+    this.lock.lock();
+    try {
+      for (MemberState state : states) {
+        this.apply(state);
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Suspects an alive member, unknown participants are ignored.
+   */
+  public void suspect(ChannelParticipant participant) {
+    this.lock.lock();
+    try {
+      Member member = this.members.get(participant);
+      if (member != null && member.state.getStatus() == Status.ALIVE) {
+        this.apply(new MemberState(participant, Status.SUSPECT, member.state.getIncarnation()));
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Declares a member dead, which left the network.
+   */
+  public void leave(ChannelParticipant participant) {
+    this.lock.lock();
+    try {
+      Member member = this.members.get(participant);
+      if (member != null) {
+        this.apply(new MemberState(participant, Status.DEAD, member.state.getIncarnation()));
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * @return the status of the participant or null if it is unknown
+   */
+  public Status getStatus(ChannelParticipant participant) {
+    this.lock.lock();
+    try {
+      Member member = this.members.get(participant);
+      return member != null ? member.state.getStatus() : null;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void apply(MemberState state) {
+    ChannelParticipant participant = state.getParticipant();
+
+    if (participant.equals(this.manager.getSelf())) {
+      if (state.getStatus() != Status.ALIVE && state.getIncarnation() >= this.incarnation) {
+        this.incarnation = state.getIncarnation() + 1;
+        this.selfRetransmits = this.retransmits();
+        logger.info("Refuting {} state of this channel", state.getStatus());
+      }
+      return;
+    }
+
+    // a tombstone only yields to a higher incarnation, the participant restarted or refuted
+    Member current = this.members.get(participant);
+    if (!state.overrides(current != null ? current.state : null)) {
+      return;
+    }
+    this.members.put(participant, new Member(state, System.nanoTime(), this.retransmits()));
+    logger.debug("Member {}", state);
+
+    switch (state.getStatus()) {
+      case ALIVE -> this.connect(participant);
+      case SUSPECT -> logger.info("Suspecting '{}'", participant);
+      case DEAD -> {
+        logger.info("Member '{}' is dead", participant);
+        this.manager.getSender().forgetReceiverHost(participant);
+        ChannelConnection connection = this.manager.getChannelConnection(participant);
+        if (connection != null) {
+          this.manager.disconnectHost(connection);
+        }
+      }
+    }
+  }
+
+  private void connect(ChannelParticipant participant) {
+    if (this.manager.getChannelConnection(participant) != null || !this.connecting.add(participant)) {
+      return;
+    }
+    // not waited for, the dial runs on the same bounded pool
+    try {
+      this.manager.getSender().getConnectExecutorService().execute(() -> {
+        try {
+          this.manager.getControlMessageManager().initConnectionToHostAsync(participant)
+              .whenComplete((result, e) -> this.connecting.remove(participant));
+        } catch (RuntimeException e) {
+          this.connecting.remove(participant);
+          throw e;
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      this.connecting.remove(participant);
+    }
+  }
+
+  /**
+   * @return number of rounds a change is gossiped, grows with the log of the member count
+   */
+  private int retransmits() {
+    return RETRANSMIT_MULTIPLIER * (32 - Integer.numberOfLeadingZeros(this.members.size() + 1));
+  }
+
+  private void scheduleRound() {
+    CompletableFuture.delayedExecutor(this.intervalNanos, TimeUnit.NANOSECONDS,
+        this.manager.getSender().getWriterExecutorService()).execute(this::round);
+  }
+
+  private void round() {
+    if (!this.running) {
+      return;
+    }
+
+    try {
+      ArrayList<MemberState> states = new ArrayList<>();
+      this.lock.lock();
+      try {
+        this.expire(System.nanoTime());
+
+        if (this.selfRetransmits > 0) {
+          this.selfRetransmits--;
+          states.add(new MemberState(this.manager.getSelf(), Status.ALIVE, this.incarnation));
+        }
+        // least gossiped changes first
+        this.members.values().stream()
+            .filter(m -> m.retransmits > 0)
+            .sorted(Comparator.comparingInt((Member m) -> m.retransmits).reversed())
+            .limit(MAX_UPDATES - states.size())
+            .forEach(m -> {
+              m.retransmits--;
+              states.add(m.state);
+            });
+      } finally {
+        this.lock.unlock();
+      }
+
+      if (states.isEmpty()) {
+        return;
+      }
+
+      List<ChannelParticipant> targets = new ArrayList<>();
+      for (ChannelConnection connection : this.manager.getChannelConnections()) {
+        ChannelParticipant participant = connection.getParticipant();
+        if (participant != null && !this.manager.getSender().isSpoke(participant)) {
+          targets.add(participant);
+        }
+      }
+      Collections.shuffle(targets);
+      targets = targets.subList(0, Math.min(this.fanout, targets.size()));
+
+      if (!targets.isEmpty()) {
+        this.manager.getSender().sendMessage(targets, new ChannelControlMessage<>(this.manager.getSelf(),
+            ControlMessageType.GOSSIP, states));
+      }
+    } finally {
+      this.scheduleRound();
+    }
+  }
+
+  /**
+   * Declares expired suspects dead and drops the tombstones of the dead, once they are no longer gossiped and their
+   * retention passed.
+   */
+  private void expire(long now) {
+    for (Member member : List.copyOf(this.members.values())) {
+      MemberState state = member.state;
+      if (state.getStatus() == Status.SUSPECT && now - member.since > this.suspicionNanos) {
+        this.apply(new MemberState(state.getParticipant(), Status.DEAD, state.getIncarnation()));
+      } else if (state.getStatus() == Status.DEAD && member.retransmits == 0
+          && now - member.since > this.tombstoneNanos) {
+        this.members.remove(state.getParticipant());
+      }
+    }
+  }
+
+  private static class Member {
+
+    private final MemberState state;
+    private final long since;
+    private int retransmits;
+
+    private Member(MemberState state, long since, int retransmits) {
+      this.state = state;
+      this.since = since;
+      this.retransmits = retransmits;
+    }
+  }
+}
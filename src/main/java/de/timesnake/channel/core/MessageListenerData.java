@@ -42,13 +42,13 @@ public class MessageListenerData<Identifier extends Serializable> implements Ser
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     MessageListenerData<?> that = (MessageListenerData<?>) o;
-    return Objects.equals(channelType, that.channelType) && Objects.equals(messageType, that.messageType)
+    return channelType == that.channelType && messageType == that.messageType
         && Objects.equals(identifier, that.identifier);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(channelType, messageType, identifier);
+    return 31 * messageType.getSlot() + Objects.hashCode(identifier);
   }
 
   @Override
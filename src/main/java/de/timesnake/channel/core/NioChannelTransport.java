@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector based transport. All links share a fixed number of event loops, the first one also accepts.
+ */
+public class NioChannelTransport implements ChannelTransport {
+
+  public static final int BUFFER_SIZE = 64 * 1024;
+  public static final int MAX_POOLED_BUFFERS = 64;
+
+  public final Logger logger = LogManager.getLogger("channel.nio");
+
+  protected final Channel manager;
+  protected final int eventLoopThreads;
+
+  protected final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+  protected final ExecutorService dispatchExecutor;
+
+  protected NioEventLoop[] eventLoops;
+  protected ServerSocketChannel serverChannel;
+  private final AtomicInteger nextLoop = new AtomicInteger();
+
+  public NioChannelTransport(Channel manager, int eventLoopThreads) {
+    this.manager = manager;
+    this.eventLoopThreads = eventLoopThreads;
+    this.dispatchExecutor = manager.getExecutorFactory().newExecutor("channel-dispatch", 100);
+  }
+
+  @Override
+  public void start() {
+    try {
+      this.eventLoops = new NioEventLoop[this.eventLoopThreads];
+      for (int i = 0; i < this.eventLoopThreads; i++) {
+        this.eventLoops[i] = new NioEventLoop("channel-nio-" + i, this.bufferPool);
+        this.eventLoops[i].start();
+      }
+
+      this.serverChannel = ServerSocketChannel.open();
+      this.serverChannel.bind(new InetSocketAddress(this.manager.getListenHostName(),
+          this.manager.getSelf().getListenPort()), 100);
+      this.serverChannel.configureBlocking(false);
+
+      NioEventLoop acceptLoop = this.eventLoops[0];
+      acceptLoop.execute(() -> {
+        try {
+          this.serverChannel.register(acceptLoop.getSelector(), SelectionKey.OP_ACCEPT,
+              (NioEventLoop.Handler) key -> this.accept());
+        } catch (IOException e) {
+          logger.error("Error while registering channel server: {}", e.getMessage());
+        }
+      });
+    } catch (IOException e) {
+      logger.error("Error while starting channel server/receiver: {}", e.getMessage());
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel socketChannel;
+    while ((socketChannel = this.serverChannel.accept()) != null) {
+      logger.debug("Accepting connection from '{}'", socketChannel.getRemoteAddress());
+      this.manager.acceptConnection(this.createLink(socketChannel));
+    }
+  }
+
+  @Override
+  public void stop() {
+    try {
+      if (this.serverChannel != null) {
+        this.serverChannel.close();
+      }
+    } catch (IOException e) {
+      logger.warn("Exception while closing channel server: {}", e.getMessage());
+    }
+
+    if (this.eventLoops != null) {
+      for (NioEventLoop loop : this.eventLoops) {
+        loop.stop();
+      }
+    }
+    this.dispatchExecutor.shutdown();
+  }
+
+  @Override
+  public void connect(ChannelConnection connection, boolean reconnect) throws IOException {
+    SocketChannel socketChannel = SocketChannel.open();
+    try {
+      socketChannel.socket().connect(new InetSocketAddress(connection.getHostname(),
+          connection.getParticipant().getListenPort()), (int) this.manager.getConnectTimeout().toMillis());
+    } catch (IOException e) {
+      socketChannel.close();
+      throw e;
+    }
+    this.manager.updateConnectionLink(this.createLink(socketChannel), connection, reconnect);
+  }
+
+  protected NioLink createLink(SocketChannel socketChannel) throws IOException {
+    NioEventLoop loop = this.eventLoops[Math.floorMod(this.nextLoop.getAndIncrement(), this.eventLoops.length)];
+    return new NioLink(socketChannel, loop, this.dispatchExecutor);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single threaded selector loop. Registered channels carry a {@link Handler} as attachment.
+ */
+public class NioEventLoop implements Runnable {
+
+  public final Logger logger = LogManager.getLogger("channel.nio");
+
+  private final Selector selector;
+  private final BufferPool bufferPool;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  public NioEventLoop(String name, BufferPool bufferPool) throws IOException {
+    this.selector = Selector.open();
+    this.bufferPool = bufferPool;
+    this.thread = new Thread(this, name);
+    this.thread.setDaemon(true);
+  }
+
+  public void start() {
+    this.thread.start();
+  }
+
+  public void stop() {
+    this.running = false;
+    this.selector.wakeup();
+  }
+
+  /**
+   * Runs the task in the loop thread, required for all selector registrations.
+   */
+  public void execute(Runnable task) {
+    this.tasks.offer(task);
+    this.selector.wakeup();
+  }
+
+  public boolean inLoop() {
+    return Thread.currentThread() == this.thread;
+  }
+
+  public Selector getSelector() {
+    return selector;
+  }
+
+  public BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (this.running) {
+        this.selector.select();
+        this.runTasks();
+
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+
+          if (!key.isValid()) {
+            continue;
+          }
+
+          try {
+            ((Handler) key.attachment()).handle(key);
+          } catch (Exception e) {
+            logger.warn("Exception in event loop '{}': {}", this.thread.getName(), e.getMessage(), e);
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      logger.warn("Event loop '{}' failed: {}", this.thread.getName(), e.getMessage());
+    } finally {
+      this.closeSelector();
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = this.tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (Exception e) {
+        logger.warn("Exception in event loop task: {}", e.getMessage(), e);
+      }
+    }
+  }
+
+  private void closeSelector() {
+    for (SelectionKey key : this.selector.keys()) {
+      try {
+        key.channel().close();
+      } catch (IOException ignored) {
+      }
+    }
+    try {
+      this.selector.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  @FunctionalInterface
+  public interface Handler {
+
+    void handle(SelectionKey key) throws IOException;
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking link served by an event loop. Frames are cut and decoded in the loop from pooled buffers,
+ * the decoded messages are handled in order on the dispatch executor.
+ */
+public class NioLink implements ChannelLink, NioEventLoop.Handler {
+
+  private static final long WRITE_TIMEOUT_MILLIS = 3000;
+
+  private final SocketChannel channel;
+  private final NioEventLoop loop;
+  private final Executor dispatcher;
+  private volatile SelectionKey key;
+  private volatile ChannelReceiver receiver;
+
+  private ByteBuffer inbound;
+
+  private final Object writeMonitor = new Object();
+  private boolean writable;
+
+  public NioLink(SocketChannel channel, NioEventLoop loop, Executor executor) throws IOException {
+    this.channel = channel;
+    this.loop = loop;
+    this.dispatcher = new SerialExecutor(executor);
+
+    channel.configureBlocking(false);
+    this.loop.execute(() -> {
+      try {
+        this.key = channel.register(loop.getSelector(), 0, this);
+      } catch (ClosedChannelException ignored) {
+      }
+    });
+  }
+
+  @Override
+  public Socket getSocket() {
+    return this.channel.socket();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return this.channel.isOpen() && this.channel.isConnected();
+  }
+
+  @Override
+  public void startReading(ChannelReceiver receiver) {
+    this.receiver = receiver;
+    this.loop.execute(() -> this.updateInterest(SelectionKey.OP_READ, true));
+  }
+
+  @Override
+  public void stopReading() {
+    this.loop.execute(() -> this.updateInterest(SelectionKey.OP_READ, false));
+  }
+
+  private void updateInterest(int op, boolean enabled) {
+    SelectionKey key = this.key;
+    if (key != null && key.isValid()) {
+      key.interestOps(enabled ? key.interestOps() | op : key.interestOps() & ~op);
+    }
+  }
+
+  @Override
+  public void handle(SelectionKey key) {
+    if (key.isReadable()) {
+      this.read();
+    }
+
+    if (key.isValid() && key.isWritable()) {
+      this.updateInterest(SelectionKey.OP_WRITE, false);
+      synchronized (this.writeMonitor) {
+        this.writable = true;
+        this.writeMonitor.notifyAll();
+      }
+    }
+  }
+
+  private void read() {
+    if (this.inbound == null) {
+      this.inbound = this.loop.getBufferPool().acquire();
+    }
+
+    int read;
+    try {
+      read = this.channel.read(this.inbound);
+    } catch (IOException e) {
+      this.closed(e);
+      return;
+    }
+
+    if (read < 0) {
+      this.closed(new EOFException());
+      return;
+    }
+
+    ByteBuffer buffer = this.inbound.flip();
+    while (buffer.remaining() >= Integer.BYTES) {
+      int length = buffer.getInt(buffer.position());
+      if (length < 0 || length > ChannelConnection.MAX_FRAME_LENGTH) {
+        this.closed(new StreamCorruptedException("invalid frame length " + length));
+        return;
+      }
+
+      if (buffer.remaining() < Integer.BYTES + length) {
+        break;
+      }
+
+      ByteBuffer frame = buffer.slice(buffer.position() + Integer.BYTES, length);
+      buffer.position(buffer.position() + Integer.BYTES + length);
+
+      ChannelReceiver receiver = this.receiver;
+      Runnable handling = receiver.decodeFrame(frame);
+      if (handling != null) {
+        this.dispatcher.execute(handling);
+      }
+    }
+
+    if (!buffer.hasRemaining()) {
+      this.loop.getBufferPool().release(buffer);
+      this.inbound = null;
+      return;
+    }
+
+    int required = buffer.remaining() >= Integer.BYTES ? Integer.BYTES + buffer.getInt(buffer.position()) : 0;
+    if (required > buffer.capacity()) {
+      ByteBuffer grown = ByteBuffer.allocate(required).put(buffer);
+      this.loop.getBufferPool().release(buffer);
+      this.inbound = grown;
+    } else {
+      buffer.compact();
+    }
+  }
+
+  private void closed(Exception cause) {
+    try {
+      this.close();
+    } catch (IOException ignored) {
+    }
+    if (this.inbound != null) {
+      this.loop.getBufferPool().release(this.inbound);
+      this.inbound = null;
+    }
+    ChannelReceiver receiver = this.receiver;
+    this.dispatcher.execute(() -> receiver.onClose(cause));
+  }
+
+  @Override
+  public void writeFrame(ByteBuffer frame) throws IOException {
+    this.writeFrames(List.of(frame));
+  }
+
+  @Override
+  public void writeFrames(List<ByteBuffer> frames) throws IOException {
+    ByteBuffer lengths = ByteBuffer.allocate(Integer.BYTES * frames.size());
+    ByteBuffer[] buffers = new ByteBuffer[frames.size() * 2];
+    for (int i = 0; i < frames.size(); i++) {
+      ByteBuffer frame = frames.get(i);
+      buffers[2 * i] = lengths.slice(Integer.BYTES * i, Integer.BYTES).putInt(0, frame.remaining());
+      buffers[2 * i + 1] = frame.duplicate();
+    }
+
+    ByteBuffer last = buffers[buffers.length - 1];
+    long deadline = System.currentTimeMillis() + WRITE_TIMEOUT_MILLIS;
+
+    while (last.hasRemaining()) {
+      if (this.channel.write(buffers) == 0) {
+        this.awaitWritable(deadline);
+      }
+    }
+  }
+
+  private void awaitWritable(long deadline) throws IOException {
+    if (this.loop.inLoop()) {
+      throw new IOException("blocking write in event loop");
+    }
+
+    synchronized (this.writeMonitor) {
+      this.writable = false;
+    }
+    this.loop.execute(() -> this.updateInterest(SelectionKey.OP_WRITE, true));
+
+    synchronized (this.writeMonitor) {
+      while (!this.writable) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          throw new SocketTimeoutException("write timed out");
+        }
+        try {
+          this.writeMonitor.wait(remaining);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("interrupted while waiting for write");
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    SelectionKey key = this.key;
+    if (key != null) {
+      key.cancel();
+    }
+    this.channel.close();
+
+    synchronized (this.writeMonitor) {
+      this.writable = true;
+      this.writeMonitor.notifyAll();
+    }
+  }
+}
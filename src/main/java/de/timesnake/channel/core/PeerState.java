@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+/**
+ * Connection state of a participant, kept by the {@link ConnectionWriter} of its connection.
+ */
+public enum PeerState {
+
+  /**
+   * No link yet or a reconnect is due, the next write opens a link.
+   */
+  CONNECTING,
+  /**
+   * The link is open.
+   */
+  UP,
+  /**
+   * Connecting or writing failed, a reconnect is scheduled with exponential backoff. Sends are queued meanwhile.
+   */
+  BACKOFF,
+  /**
+   * {@link Channel#getCircuitBreakerThreshold()} attempts in a row failed. Sends fail immediately until a reconnect
+   * after {@link Channel#getMaxReconnectBackoff()} is due.
+   */
+  OPEN_CIRCUIT
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.message.ChannelMessage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Requests sent to a participant waiting for their response, by request id. Entries are removed once the request
+ * completes, by response, timeout or failure.
+ */
+public class PendingRequests {
+
+  private final ConcurrentHashMap<Long, CompletableFuture<ChannelMessage<?, ?>>> requests = new ConcurrentHashMap<>();
+
+  public void add(long requestId, CompletableFuture<ChannelMessage<?, ?>> response) {
+    this.requests.put(requestId, response);
+    response.whenComplete((r, e) -> this.requests.remove(requestId, response));
+  }
+
+  /**
+   * @return true if a pending request was completed by the response
+   */
+  public boolean complete(ChannelMessage<?, ?> response) {
+    CompletableFuture<ChannelMessage<?, ?>> request = this.requests.remove(response.getRequestId());
+    return request != null && request.complete(response);
+  }
+
+  public void failAll(Throwable cause) {
+    for (CompletableFuture<ChannelMessage<?, ?>> request : this.requests.values()) {
+      request.completeExceptionally(cause);
+    }
+  }
+
+  public int size() {
+    return this.requests.size();
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PlatformExecutorFactory implements ChannelExecutorFactory {
+
+  public static final long KEEP_ALIVE_SECONDS = 60;
+
+  @Override
+  public ExecutorService newExecutor(String name, int maxThreads) {
+    AtomicInteger counter = new AtomicInteger();
+    // core size equals max size, an unbounded queue would never let the pool grow beyond its core size
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), r -> this.newThread(name + "-" + counter.getAndIncrement(), r));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  @Override
+  public Thread newThread(String name, Runnable task) {
+    Thread thread = new Thread(task, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
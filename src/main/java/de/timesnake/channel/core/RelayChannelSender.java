@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.message.ChannelMessage;
+import de.timesnake.channel.util.message.MessageType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Sender of a {@link Topology#HUB hub}. Spokes only connect to hubs, so their routing tables only contain hubs.
+ *
+ * <p>
+ * A hub advertises the listeners of all participants to its spokes and the listeners of its spokes to all other
+ * participants, each as its own. Messages received from a spoke are forwarded to all listening participants, messages
+ * from other participants only to listening spokes, so a message passes at most two hubs. Requests are forwarded as
+ * requests of the hub, their first response is returned to the previous hop.
+ */
+public class RelayChannelSender extends ListenerBasedChannelSender {
+
+  public final Logger logger = LogManager.getLogger("channel.sender.relay");
+
+  private final Set<ChannelParticipant> spokes = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Remote participants by listener. Changes and the resulting advertisements are serialized by the lock. A lock
+   * instead of a monitor, advertisements may wait for space in the outbound queues.
+   */
+  private final Map<MessageListenerData<?>, Set<ChannelParticipant>> listenerHosts = new HashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+
+  public RelayChannelSender(Channel manager) {
+    super(manager);
+  }
+
+  @Override
+  public void addSpoke(ChannelParticipant participant) {
+    this.lock.lock();
+    try {
+      this.spokes.add(participant);
+      // the listeners of this channel and its spokes were sent with the init already
+      List<MessageListenerData<?>> relayed = this.listenerHosts.keySet().stream()
+          .filter(d -> this.isRelayedTo(d, participant))
+          .toList();
+      ChannelConnection connection = this.manager.getChannelConnection(participant);
+      if (!relayed.isEmpty() && connection != null) {
+        this.sendListenerMessage(ControlMessageType.LISTENER_ADD, relayed, List.of(connection));
+      }
+    } finally {
+      this.lock.unlock();
+    }
+    logger.info("Added spoke '{}'", participant);
+  }
+
+  @Override
+  public boolean isSpoke(ChannelParticipant participant) {
+    return this.spokes.contains(participant);
+  }
+
+  @Override
+  public void sendAllListenerMessagesTo(ChannelParticipant participant, Predicate<MessageListenerData<?>> predicate) {
+    super.sendAllListenerMessagesTo(participant, predicate);
+
+    this.lock.lock();
+    try {
+      List<MessageListenerData<?>> relayed = this.listenerHosts.keySet().stream()
+          .filter(d -> this.isRelayedTo(d, participant))
+          .filter(d -> predicate == null || predicate.test(d))
+          .toList();
+      ChannelConnection connection = this.manager.getChannelConnection(participant);
+      if (!relayed.isEmpty() && connection != null) {
+        this.sendListenerMessage(ControlMessageType.LISTENER_ADD, relayed, List.of(connection));
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public void addReceiverHost(ChannelParticipant host, Collection<MessageListenerData<?>> dataCollection) {
+    super.addReceiverHost(host, dataCollection);
+    if (host.equals(this.manager.getSelf())) {
+      return;
+    }
+
+    this.lock.lock();
+    try {
+      Map<ChannelConnection, List<MessageListenerData<?>>> added = new HashMap<>();
+      for (MessageListenerData<?> data : dataCollection) {
+        Set<ChannelParticipant> hosts = this.listenerHosts.computeIfAbsent(data, d -> new HashSet<>());
+        // listeners of this channel are advertised already
+        if (!this.sentListenerMessages.contains(data)) {
+          for (ChannelConnection connection : this.manager.getChannelConnections()) {
+            ChannelParticipant target = connection.getParticipant();
+            if (this.relays(host, target) && hosts.stream().noneMatch(h -> this.relays(h, target))) {
+              added.computeIfAbsent(connection, c -> new ArrayList<>()).add(data);
+            }
+          }
+        }
+        hosts.add(host);
+      }
+      added.forEach((connection, data) ->
+          this.sendListenerMessage(ControlMessageType.LISTENER_ADD, data, List.of(connection)));
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public void removeReceiverHost(ChannelParticipant host, Collection<MessageListenerData<?>> dataCollection) {
+    super.removeReceiverHost(host, dataCollection);
+
+    this.lock.lock();
+    try {
+      this.removeRelayed(host, dataCollection);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public void removeReceiverHost(ChannelParticipant host) {
+    super.removeReceiverHost(host);
+
+    this.lock.lock();
+    try {
+      this.removeRelayed(host, this.listenerHosts.entrySet().stream()
+          .filter(e -> e.getValue().contains(host))
+          .map(Map.Entry::getKey)
+          .toList());
+      this.spokes.remove(host);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void removeRelayed(ChannelParticipant host, Collection<MessageListenerData<?>> dataCollection) {
+    Map<ChannelConnection, List<MessageListenerData<?>>> removed = new HashMap<>();
+    for (MessageListenerData<?> data : dataCollection) {
+      Set<ChannelParticipant> hosts = this.listenerHosts.get(data);
+      if (hosts == null || !hosts.remove(host)) {
+        continue;
+      }
+      if (hosts.isEmpty()) {
+        this.listenerHosts.remove(data);
+      }
+
+      if (this.sentListenerMessages.contains(data)) {
+        continue;
+      }
+      for (ChannelConnection connection : this.manager.getChannelConnections()) {
+        ChannelParticipant target = connection.getParticipant();
+        if (this.relays(host, target) && hosts.stream().noneMatch(h -> this.relays(h, target))) {
+          removed.computeIfAbsent(connection, c -> new ArrayList<>()).add(data);
+        }
+      }
+    }
+    removed.forEach((connection, data) ->
+        this.sendListenerMessage(ControlMessageType.LISTENER_REMOVE, data, List.of(connection)));
+  }
+
+  /**
+   * @return true if this hub advertises the listener of the host to the target
+   */
+  private boolean relays(ChannelParticipant host, ChannelParticipant target) {
+    return target != null && !host.equals(target) && (this.spokes.contains(host) || this.spokes.contains(target));
+  }
+
+  /**
+   * A revoked listener of this channel stays advertised, where it is relayed.
+   */
+  @Override
+  protected boolean isRelayedTo(MessageListenerData<?> data, ChannelParticipant target) {
+    this.lock.lock();
+    try {
+      Set<ChannelParticipant> hosts = this.listenerHosts.get(data);
+      return hosts != null && hosts.stream().anyMatch(h -> this.relays(h, target));
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public void relay(ChannelConnection connection, ChannelMessage<?, ?> message) {
+    ChannelParticipant from = connection.getParticipant();
+    if (from == null) {
+      return;
+    }
+
+    List<ChannelParticipant> targets = this.getRelayTargets(from, message);
+    if (targets.isEmpty()) {
+      return;
+    }
+
+    if (message.isRequest()) {
+      // a copy, the received request may still be handled by local listeners
+      ChannelMessage<?, ?> request = this.copy(message);
+      this.request(targets, request, this.manager.getRelayTimeout()).thenAccept(response -> {
+        response.setResponse(message.getRequestId());
+        this.sendMessage(from, response);
+      });
+    } else {
+      // the source is kept, the frame is encoded as received
+      this.sendFrame(targets, this.manager.getCodec().encode(message), message);
+    }
+    logger.debug("Relayed from '{}' to {}: {}", from, targets, message);
+  }
+
+  /**
+   * Messages without local listener are only routed by their header, requests are relayed as own requests.
+   */
+  @Override
+  public boolean isForwarded(ChannelConnection connection, ChannelMessage<?, ?> header) {
+    return connection.getParticipant() != null && header.getChannelType() != ChannelType.CONTROL
+        && !header.isRequest() && !header.isResponse()
+        && !this.manager.getLocalListenerManager().hasLocalListener(header);
+  }
+
+  /**
+   * Writes the received frame to the relay targets, it is shared by their writers.
+   */
+  @Override
+  public void forward(ChannelConnection connection, ChannelMessage<?, ?> header, ByteBuffer frame) {
+    ChannelParticipant from = connection.getParticipant();
+    List<ChannelParticipant> targets = this.getRelayTargets(from, header);
+    if (!targets.isEmpty()) {
+      this.sendFrame(targets, frame, header);
+      logger.debug("Forwarded from '{}' to {}: {}", from, targets, header);
+    }
+  }
+
+  /**
+   * @return the participants listening to a message received from the participant, to which this hub relays
+   */
+  private List<ChannelParticipant> getRelayTargets(ChannelParticipant from, ChannelMessage<?, ?> message) {
+    boolean fromSpoke = this.spokes.contains(from);
+    return this.getListenerParticipants(message).stream()
+        .filter(p -> !p.equals(from) && !p.equals(message.getSource()))
+        .filter(p -> fromSpoke || this.spokes.contains(p))
+        .toList();
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private ChannelMessage<?, ?> copy(ChannelMessage<?, ?> message) {
+    ChannelType channelType = message.getChannelType();
+    return channelType.createMessage(message.getIdentifier(), message.getMessageType(), message.getValue());
+  }
+}
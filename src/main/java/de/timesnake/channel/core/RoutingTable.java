@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.message.ChannelMessage;
+import de.timesnake.channel.util.message.MessageType;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Remote listeners by message type. Each participant holds its {@link Subscriptions}, a message type slot publishes
+ * an immutable route of the wildcard subscribers and the identifier sets of the filtering ones. Changes rebuild the
+ * affected slots and publish a new route array, so a lookup reads one volatile reference and checks the identifier in
+ * O(1) per filtering participant. It only allocates, if a filtering participant matches. A change of identifiers copies
+ * the changed ones only, not the participant's whole set.
+ */
+public class RoutingTable {
+
+  private final Map<ChannelParticipant, Subscriptions> subscriptions = new LinkedHashMap<>();
+  private volatile Route[] routes = new Route[ChannelType.getMessageTypeCount()];
+
+  /**
+   * @return the participants listening to the message, never null
+   */
+  public List<ChannelParticipant> get(ChannelMessage<?, ?> msg) {
+    MessageType<?> messageType = msg.getMessageType();
+    if (messageType.getChannelType() != msg.getChannelType()) {
+      return List.of();
+    }
+
+    Route route = this.routes[messageType.getSlot()];
+    if (route == null) {
+      return List.of();
+    }
+
+    Serializable identifier = (Serializable) msg.getIdentifier();
+    if (identifier == null || route.filtering().length == 0) {
+      return route.wildcard();
+    }
+
+    List<ChannelParticipant> participants = null;
+    for (int i = 0; i < route.filtering().length; i++) {
+      if (route.identifiers()[i].contains(identifier)) {
+        if (participants == null) {
+          participants = new ArrayList<>(route.filtering().length + route.wildcard().size());
+        }
+        participants.add(route.filtering()[i]);
+      }
+    }
+    if (participants == null) {
+      return route.wildcard();
+    }
+    for (ChannelParticipant participant : route.wildcard()) {
+      if (!participants.contains(participant)) {
+        participants.add(participant);
+      }
+    }
+    return participants;
+  }
+
+  public synchronized void add(ChannelParticipant participant, Collection<MessageListenerData<?>> dataCollection) {
+    Subscriptions subscriptions = this.subscriptions.computeIfAbsent(participant, p -> new Subscriptions());
+    Subscriptions added = new Subscriptions(dataCollection);
+    if (subscriptions.addAll(added)) {
+      this.publish(participant, added, true);
+    }
+  }
+
+  public synchronized void remove(ChannelParticipant participant, Collection<MessageListenerData<?>> dataCollection) {
+    Subscriptions subscriptions = this.subscriptions.get(participant);
+    if (subscriptions == null) {
+      return;
+    }
+
+    Subscriptions removed = new Subscriptions(dataCollection);
+    if (subscriptions.removeAll(removed)) {
+      if (subscriptions.isEmpty()) {
+        this.subscriptions.remove(participant);
+      }
+      this.publish(participant, removed, false);
+    }
+  }
+
+  public synchronized void remove(ChannelParticipant participant) {
+    Subscriptions subscriptions = this.subscriptions.remove(participant);
+    if (subscriptions != null) {
+      this.publish(participant, subscriptions, false);
+    }
+  }
+
+  /**
+   * @param changes subscriptions added to or removed from the participant
+   */
+  private void publish(ChannelParticipant participant, Subscriptions changes, boolean added) {
+    BitSet changed = changes.getSlots();
+    if (changed.isEmpty()) {
+      return;
+    }
+
+    Route[] routes = this.routes.clone();
+    for (int slot = changed.nextSetBit(0); slot >= 0; slot = changed.nextSetBit(slot + 1)) {
+      routes[slot] = this.createRoute(slot, participant, routes[slot], changes.getIdentifiers(slot), added);
+    }
+    this.routes = routes;
+  }
+
+  /**
+   * @param changed  participant whose subscriptions changed
+   * @param previous route to take the identifier sets of the participants from
+   * @param changes  identifiers added to or removed from the changed participant, null if only its wildcard changed
+   */
+  private Route createRoute(int slot, ChannelParticipant changed, Route previous, IdentifierSet changes,
+                            boolean added) {
+    List<ChannelParticipant> wildcard = new ArrayList<>();
+    List<ChannelParticipant> filtering = new ArrayList<>();
+    List<PublishedIdentifiers> identifiers = new ArrayList<>();
+
+    for (Map.Entry<ChannelParticipant, Subscriptions> entry : this.subscriptions.entrySet()) {
+      if (entry.getValue().hasWildcard(slot)) {
+        wildcard.add(entry.getKey());
+      }
+      IdentifierSet set = entry.getValue().getIdentifiers(slot);
+      if (set != null) {
+        filtering.add(entry.getKey());
+        // unchanged sets are shared with the previous route, the changed one shares its base
+        PublishedIdentifiers published = previous != null ? previous.getIdentifiers(entry.getKey()) : null;
+        if (published == null) {
+          published = PublishedIdentifiers.of(set);
+        } else if (changes != null && entry.getKey().equals(changed)) {
+          published = published.apply(changes, added, set);
+        }
+        identifiers.add(published);
+      }
+    }
+
+    if (wildcard.isEmpty() && filtering.isEmpty()) {
+      return null;
+    }
+    return new Route(List.copyOf(wildcard), filtering.toArray(new ChannelParticipant[0]),
+        identifiers.toArray(new PublishedIdentifiers[0]));
+  }
+
+  private record Route(List<ChannelParticipant> wildcard, ChannelParticipant[] filtering,
+                       PublishedIdentifiers[] identifiers) {
+
+    private PublishedIdentifiers getIdentifiers(ChannelParticipant participant) {
+      for (int i = 0; i < this.filtering.length; i++) {
+        if (this.filtering[i].equals(participant)) {
+          return this.identifiers[i];
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Identifiers of a participant as published in a route, an immutable base shared between routes and the additions
+   * and removals since. A change copies the additions and removals only, they are merged into a new base once they
+   * outgrow a quarter of it.
+   */
+  private record PublishedIdentifiers(IdentifierSet base, IdentifierSet added, IdentifierSet removed) {
+
+    private static final IdentifierSet EMPTY = new IdentifierSet();
+    private static final int MIN_MERGE_SIZE = 64;
+
+    private static PublishedIdentifiers of(IdentifierSet set) {
+      return new PublishedIdentifiers(new IdentifierSet(set), EMPTY, EMPTY);
+    }
+
+    private boolean contains(Serializable identifier) {
+      return this.added.contains(identifier)
+          || this.base.contains(identifier) && !this.removed.contains(identifier);
+    }
+
+    /**
+     * @param current identifiers of the participant after the change
+     */
+    private PublishedIdentifiers apply(IdentifierSet changes, boolean add, IdentifierSet current) {
+      if ((this.added.size() + this.removed.size() + changes.size()) * 4 > this.base.size() + MIN_MERGE_SIZE) {
+        return of(current);
+      }
+
+      IdentifierSet added = new IdentifierSet(this.added);
+      IdentifierSet removed = new IdentifierSet(this.removed);
+      changes.forEach(identifier -> {
+        if (add) {
+          removed.remove(identifier);
+          if (!this.base.contains(identifier)) {
+            added.add(identifier);
+          }
+        } else {
+          added.remove(identifier);
+          if (this.base.contains(identifier)) {
+            removed.add(identifier);
+          }
+        }
+      });
+      return new PublishedIdentifiers(this.base, added, removed);
+    }
+  }
+}
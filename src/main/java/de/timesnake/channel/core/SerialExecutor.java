@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one after another in submission order on a shared executor.
+ */
+public class SerialExecutor implements Executor {
+
+  private static final Logger LOGGER = LogManager.getLogger("channel.executor");
+
+  private final Executor executor;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  public SerialExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    this.tasks.offer(task);
+    this.schedule();
+  }
+
+  private void schedule() {
+    if (this.scheduled.compareAndSet(false, true)) {
+      this.executor.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    try {
+      Runnable task;
+      while ((task = this.tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (Exception e) {
+          LOGGER.warn("Exception in serial task: {}", e.getMessage(), e);
+        }
+      }
+    } finally {
+      this.scheduled.set(false);
+      if (!this.tasks.isEmpty()) {
+        this.schedule();
+      }
+    }
+  }
+}
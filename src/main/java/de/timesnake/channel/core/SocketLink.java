@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Blocking link, reading frames in a dedicated thread into a reused buffer.
+ */
+public class SocketLink implements ChannelLink {
+
+  private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_READ_BUFFER_SIZE = 64 * 1024;
+
+  private final Socket socket;
+  private final ChannelExecutorFactory executorFactory;
+  private final DataOutputStream outputStream;
+  private final DataInputStream inputStream;
+  private Thread thread;
+  private ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+
+  public SocketLink(Socket socket, ChannelExecutorFactory executorFactory) throws IOException {
+    this.socket = socket;
+    this.executorFactory = executorFactory;
+    this.outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE));
+    this.inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+  }
+
+  @Override
+  public Socket getSocket() {
+    return socket;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return this.socket.isConnected() && !this.socket.isClosed();
+  }
+
+  @Override
+  public void startReading(ChannelReceiver receiver) {
+    this.thread = this.executorFactory.newThread("channel-receiver-" + this.socket.getPort(),
+        () -> this.read(receiver));
+    this.thread.start();
+  }
+
+  @Override
+  public void stopReading() {
+    if (this.thread != null && this.thread.isAlive()) {
+      this.thread.interrupt();
+    }
+  }
+
+  private void read(ChannelReceiver receiver) {
+    Exception cause = null;
+    try {
+      while (true) {
+        receiver.receive(this.readFrame());
+      }
+    } catch (Exception e) {
+      cause = e;
+    } finally {
+      // a dead socket must be visible to the sender, a single buffered frame write would not fail on it
+      try {
+        this.socket.close();
+      } catch (IOException ignored) {
+      }
+      receiver.onClose(cause);
+    }
+  }
+
+  private ByteBuffer readFrame() throws IOException {
+    int length = this.inputStream.readInt();
+    if (length < 0 || length > ChannelConnection.MAX_FRAME_LENGTH) {
+      throw new StreamCorruptedException("invalid frame length " + length);
+    }
+    if (length > this.readBuffer.capacity()) {
+      if (length > MAX_READ_BUFFER_SIZE) {
+        byte[] frame = new byte[length];
+        this.inputStream.readFully(frame);
+        return ByteBuffer.wrap(frame);
+      }
+      this.readBuffer = ByteBuffer.allocate(Math.min(Integer.highestOneBit(length - 1) << 1, MAX_READ_BUFFER_SIZE));
+    }
+    this.inputStream.readFully(this.readBuffer.array(), 0, length);
+    return this.readBuffer.clear().limit(length);
+  }
+
+  @Override
+  public void writeFrame(ByteBuffer frame) throws IOException {
+    this.write(frame);
+    this.outputStream.flush();
+  }
+
+  @Override
+  public void writeFrames(List<ByteBuffer> frames) throws IOException {
+    for (ByteBuffer frame : frames) {
+      this.write(frame);
+    }
+    this.outputStream.flush();
+  }
+
+  private void write(ByteBuffer frame) throws IOException {
+    this.outputStream.writeInt(frame.remaining());
+    this.outputStream.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.stopReading();
+    this.socket.close();
+  }
+}
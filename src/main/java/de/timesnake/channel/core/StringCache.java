@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Direct mapped cache of decoded short strings, keyed by their encoded bytes. Identifiers, host names and most string
+ * values repeat, a hit is compared in the frame buffer and returns the cached instance without allocating.
+ *
+ * <p>
+ * Entries are immutable and replaced without locking, a racing lookup only misses.
+ */
+final class StringCache {
+
+  private static final int MAX_LENGTH = 64;
+
+  private final Entry[] entries;
+
+  /**
+   * @param size number of entries, a power of two
+   */
+  StringCache(int size) {
+    this.entries = new Entry[size];
+  }
+
+  /**
+   * @return the string of the UTF-8 bytes at the absolute offset of the buffer, its position is not changed
+   */
+  String get(ByteBuffer buffer, int offset, int length) {
+    if (length > MAX_LENGTH) {
+      return decode(buffer, offset, length);
+    }
+
+    int hash = 1;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + buffer.get(offset + i);
+    }
+    int index = (hash ^ (hash >>> 16)) & (this.entries.length - 1);
+
+    Entry entry = this.entries[index];
+    if (entry != null && entry.matches(buffer, offset, length)) {
+      return entry.value;
+    }
+
+    // keyed by the received bytes, malformed UTF-8 does not survive decoding and encoding again
+    byte[] bytes = new byte[length];
+    buffer.get(offset, bytes);
+    String value = new String(bytes, StandardCharsets.UTF_8);
+    this.entries[index] = new Entry(bytes, value);
+    return value;
+  }
+
+  private static String decode(ByteBuffer buffer, int offset, int length) {
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(offset, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private record Entry(byte[] bytes, String value) {
+
+    private boolean matches(ByteBuffer buffer, int offset, int length) {
+      if (this.bytes.length != length) {
+        return false;
+      }
+      if (buffer.hasArray()) {
+        int start = buffer.arrayOffset() + offset;
+        return Arrays.equals(this.bytes, 0, length, buffer.array(), start, start + length);
+      }
+      for (int i = 0; i < length; i++) {
+        if (this.bytes[i] != buffer.get(offset + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
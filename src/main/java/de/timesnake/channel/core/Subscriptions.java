@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+import de.timesnake.channel.util.message.MessageType;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Compact set of listener data, grouped by message type. Each type holds a wildcard flag and an {@link IdentifierSet},
+ * so identifier filtered listeners cost a few bytes each instead of a {@link MessageListenerData} object. Serialized as
+ * type ordinals followed by the raw identifiers, UUIDs as two longs. Identifiers are UUIDs, strings or participants,
+ * a received set can not carry other objects.
+ *
+ * <p>
+ * Not thread-safe.
+ */
+public class Subscriptions extends AbstractCollection<MessageListenerData<?>> implements Serializable {
+
+  @Serial
+  private static final long serialVersionUID = 1L;
+
+  private transient Slot[] slots = new Slot[ChannelType.getMessageTypeCount()];
+  private transient int size;
+
+  public Subscriptions() {
+  }
+
+  public Subscriptions(Collection<? extends MessageListenerData<?>> data) {
+    this.addAll(data);
+  }
+
+  /**
+   * @return the slot of the data or -1 if its message type does not belong to its channel type
+   */
+  static int slotOf(MessageListenerData<?> data) {
+    return data.getMessageType().getChannelType() == data.getChannelType() ? data.getMessageType().getSlot() : -1;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof MessageListenerData<?> data)) {
+      return false;
+    }
+    int slot = slotOf(data);
+    Slot s = slot >= 0 ? this.slots[slot] : null;
+    if (s == null) {
+      return false;
+    }
+    return data.getIdentifier() == null ? s.wildcard : s.identifiers.contains(data.getIdentifier());
+  }
+
+  @Override
+  public boolean add(MessageListenerData<?> data) {
+    int slot = slotOf(data);
+    if (slot < 0) {
+      return false;
+    }
+    return this.add(data.getMessageType(), data.getIdentifier());
+  }
+
+  /**
+   * @param identifier identifier of the listener, null for a wildcard
+   * @return true if the listener was added
+   */
+  boolean add(MessageType<?> messageType, Serializable identifier) {
+    int slot = messageType.getSlot();
+    Slot s = this.slots[slot];
+    if (s == null) {
+      s = this.slots[slot] = new Slot(messageType);
+    }
+
+    boolean added;
+    if (identifier == null) {
+      added = !s.wildcard;
+      s.wildcard = true;
+    } else {
+      added = s.identifiers.add(identifier);
+    }
+    if (added) {
+      this.size++;
+    }
+    return added;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (!(o instanceof MessageListenerData<?> data)) {
+      return false;
+    }
+    int slot = slotOf(data);
+    Slot s = slot >= 0 ? this.slots[slot] : null;
+    if (s == null) {
+      return false;
+    }
+
+    boolean removed;
+    if (data.getIdentifier() == null) {
+      removed = s.wildcard;
+      s.wildcard = false;
+    } else {
+      removed = s.identifiers.remove(data.getIdentifier());
+    }
+    if (removed) {
+      this.size--;
+      this.trim(slot);
+    }
+    return removed;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends MessageListenerData<?>> data) {
+    if (!(data instanceof Subscriptions subscriptions)) {
+      return super.addAll(data);
+    }
+
+    int size = this.size;
+    for (int slot = 0; slot < subscriptions.slots.length; slot++) {
+      Slot other = subscriptions.slots[slot];
+      if (other == null) {
+        continue;
+      }
+      Slot s = this.slots[slot];
+      if (s == null) {
+        s = this.slots[slot] = new Slot(other.messageType);
+      }
+      this.size -= s.size();
+      s.wildcard |= other.wildcard;
+      s.identifiers.addAll(other.identifiers);
+      this.size += s.size();
+    }
+    return size != this.size;
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> data) {
+    if (!(data instanceof Subscriptions subscriptions)) {
+      boolean removed = false;
+      for (Object o : data) {
+        removed |= this.remove(o);
+      }
+      return removed;
+    }
+
+    int size = this.size;
+    for (int slot = 0; slot < subscriptions.slots.length; slot++) {
+      Slot other = subscriptions.slots[slot];
+      Slot s = this.slots[slot];
+      if (other == null || s == null) {
+        continue;
+      }
+      this.size -= s.size();
+      s.wildcard &= !other.wildcard;
+      s.identifiers.removeAll(other.identifiers);
+      this.size += s.size();
+      this.trim(slot);
+    }
+    return size != this.size;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(this.slots, null);
+    this.size = 0;
+  }
+
+  /**
+   * @return true if the set has a wildcard for the message type
+   */
+  boolean hasWildcard(int slot) {
+    Slot s = this.slots[slot];
+    return s != null && s.wildcard;
+  }
+
+  /**
+   * @return the message type of the slot, null if the set has none of it
+   */
+  MessageType<?> getMessageType(int slot) {
+    Slot s = this.slots[slot];
+    return s != null ? s.messageType : null;
+  }
+
+  /**
+   * @return the identifiers of the message type, null if there are none
+   */
+  IdentifierSet getIdentifiers(int slot) {
+    Slot s = this.slots[slot];
+    return s != null && !s.identifiers.isEmpty() ? s.identifiers : null;
+  }
+
+  /**
+   * @return the slots of all message types in this set
+   */
+  BitSet getSlots() {
+    BitSet slots = new BitSet();
+    for (int slot = 0; slot < this.slots.length; slot++) {
+      if (this.slots[slot] != null) {
+        slots.set(slot);
+      }
+    }
+    return slots;
+  }
+
+  /**
+   * @return a new set of the data matching the predicate, a copy if it is null
+   */
+  public Subscriptions filter(Predicate<MessageListenerData<?>> predicate) {
+    Subscriptions filtered = new Subscriptions();
+    if (predicate == null) {
+      filtered.addAll(this);
+      return filtered;
+    }
+    if (predicate instanceof ListenerFilter filter) {
+      this.filter(filter, filtered);
+      return filtered;
+    }
+    for (MessageListenerData<?> data : this) {
+      if (predicate.test(data)) {
+        filtered.add(data);
+      }
+    }
+    return filtered;
+  }
+
+  /**
+   * Filters by whole message types, identifiers are only tested if the filter restricts them.
+   */
+  private void filter(ListenerFilter filter, Subscriptions filtered) {
+    for (int slot = 0; slot < this.slots.length; slot++) {
+      Slot s = this.slots[slot];
+      if (s == null || !filter.matchesSlot(slot)) {
+        continue;
+      }
+      Slot copy;
+      if (filter.matchesAllIdentifiers()) {
+        copy = new Slot(s);
+      } else {
+        copy = new Slot(s.messageType);
+        copy.wildcard = s.wildcard;
+        s.identifiers.forEach(i -> {
+          if (filter.matchesIdentifier(i)) {
+            copy.identifiers.add(i);
+          }
+        });
+      }
+      if (copy.size() > 0) {
+        filtered.slots[slot] = copy;
+        filtered.size += copy.size();
+      }
+    }
+  }
+
+  /**
+   * Iterates over a snapshot of the data, removals are passed through.
+   */
+  @Override
+  public Iterator<MessageListenerData<?>> iterator() {
+    Iterator<MessageListenerData<?>> it = this.toList().iterator();
+    return new Iterator<>() {
+      private MessageListenerData<?> current;
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public MessageListenerData<?> next() {
+        return this.current = it.next();
+      }
+
+      @Override
+      public void remove() {
+        if (this.current == null) {
+          throw new IllegalStateException();
+        }
+        Subscriptions.this.remove(this.current);
+        this.current = null;
+      }
+    };
+  }
+
+  private List<MessageListenerData<?>> toList() {
+    List<MessageListenerData<?>> data = new ArrayList<>(this.size);
+    for (Slot s : this.slots) {
+      if (s == null) {
+        continue;
+      }
+      ChannelType<?> channelType = s.messageType.getChannelType();
+      if (s.wildcard) {
+        data.add(new MessageListenerData<>(channelType, s.messageType, null));
+      }
+      s.identifiers.forEach(i -> data.add(new MessageListenerData<>(channelType, s.messageType, i)));
+    }
+    return data;
+  }
+
+  private void trim(int slot) {
+    Slot s = this.slots[slot];
+    if (s != null && s.size() == 0) {
+      this.slots[slot] = null;
+    }
+  }
+
+  @Serial
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+
+    List<Slot> slots = Arrays.stream(this.slots).filter(Objects::nonNull).toList();
+    out.writeInt(slots.size());
+    for (Slot s : slots) {
+      out.writeByte(s.messageType.getChannelType().getOrdinal());
+      out.writeShort(s.messageType.getOrdinal());
+      out.writeBoolean(s.wildcard);
+
+      List<UUID> uuids = new ArrayList<>();
+      List<Serializable> others = new ArrayList<>();
+      s.identifiers.forEach(i -> {
+        if (i instanceof UUID uuid) {
+          uuids.add(uuid);
+        } else {
+          others.add(i);
+        }
+      });
+
+      out.writeInt(uuids.size());
+      for (UUID uuid : uuids) {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+      }
+      out.writeInt(others.size());
+      for (Serializable identifier : others) {
+        if (identifier instanceof String name) {
+          out.writeBoolean(true);
+          out.writeUTF(name);
+        } else if (identifier instanceof ChannelParticipant participant) {
+          out.writeBoolean(false);
+          out.writeUTF(participant.getHostname());
+          out.writeInt(participant.getListenPort());
+        } else {
+          throw new NotSerializableException(identifier.getClass().getName());
+        }
+      }
+    }
+  }
+
+  @Serial
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.slots = new Slot[ChannelType.getMessageTypeCount()];
+
+    int slotCount = in.readInt();
+    for (int n = 0; n < slotCount; n++) {
+      ChannelType<?> channelType = ChannelType.getType(in.readByte());
+      MessageType<?> messageType = channelType != null ? channelType.getMessageType(in.readShort()) : null;
+      if (messageType == null) {
+        throw new InvalidObjectException("unknown message type");
+      }
+
+      Slot s = new Slot(messageType);
+      s.wildcard = in.readBoolean();
+      for (int i = in.readInt(); i > 0; i--) {
+        s.identifiers.add(new UUID(in.readLong(), in.readLong()));
+      }
+      for (int i = in.readInt(); i > 0; i--) {
+        s.identifiers.add(in.readBoolean() ? in.readUTF() : new ChannelParticipant(in.readUTF(), in.readInt()));
+      }
+      this.slots[messageType.getSlot()] = s;
+      this.size += s.size();
+    }
+  }
+
+  private static final class Slot {
+
+    private final MessageType<?> messageType;
+    private boolean wildcard;
+    private final IdentifierSet identifiers;
+
+    private Slot(MessageType<?> messageType) {
+      this.messageType = messageType;
+      this.identifiers = new IdentifierSet();
+    }
+
+    private Slot(Slot slot) {
+      this.messageType = slot.messageType;
+      this.wildcard = slot.wildcard;
+      this.identifiers = new IdentifierSet(slot.identifiers);
+    }
+
+    private int size() {
+      return (this.wildcard ? 1 : 0) + this.identifiers.size();
+    }
+  }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+public enum Topology {
+
+  /**
+   * Connects to every participant of the network.
+   */
+  MESH,
+  /**
+   * Connects to every participant except spokes and relays messages for the spokes connected to it.
+   */
+  HUB,
+  /**
+   * Connects only to the hubs it registers at, all messages are relayed by a hub.
+   */
+  SPOKE
+}
@@ -0,0 +1,17 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+package de.timesnake.channel.core;
+
+public enum TransportType {
+
+  /**
+   * One blocking socket and reader thread per connection.
+   */
+  BLOCKING,
+  /**
+   * Selector based socket channels, served by a small fixed pool of event loops.
+   */
+  NIO
+}
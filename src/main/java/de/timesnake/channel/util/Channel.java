@@ -10,8 +10,9 @@ import de.timesnake.channel.util.message.ChannelMessage;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
+import java.time.Duration;
 import java.util.Set;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
 
 public interface Channel {
 
@@ -32,8 +33,30 @@ public interface Channel {
 
   void removeListenerSync(ChannelListener listener);
 
-  Future<ResultMessage> sendMessage(ChannelMessage<?, ?> message);
-
+  /**
+   * Sends the message to all participants listening to it. The message is queued at the writer of each connection,
+   * the calling thread only waits if an outbound queue is full.
+   *
+   * @param message message to send
+   * @return future completed once the message is written to each participant, never completed exceptionally. Failed
+   * participants are reported in the {@link ResultMessage}.
+   */
+  CompletableFuture<ResultMessage> sendMessage(ChannelMessage<?, ?> message);
+
+  /**
+   * Sends the message to all participants listening to it and waits until it is written.
+   */
   ResultMessage sendMessageSync(ChannelMessage<?, ?> message);
 
+  /**
+   * Sends the message as request to the participants listening to it. A participant responds by returning a message
+   * from its {@link de.timesnake.channel.util.listener.ChannelHandler}.
+   *
+   * @param message request
+   * @param timeout time to wait for the response
+   * @return future of the first response, fails with a {@link java.util.concurrent.TimeoutException} if no response
+   * arrives in time
+   */
+  CompletableFuture<ChannelMessage<?, ?>> request(ChannelMessage<?, ?> message, Duration timeout);
+
 }
@@ -9,6 +9,11 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Marks a method of a {@link ChannelListener} as handler of messages of the given types. The method takes the message as
+ * only parameter. It may return a {@link de.timesnake.channel.util.message.ChannelMessage}, which is sent back as
+ * response if the handled message is a request, otherwise the returned message is ignored.
+ */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface ChannelHandler {
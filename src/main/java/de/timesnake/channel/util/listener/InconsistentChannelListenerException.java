@@ -13,4 +13,8 @@ public class InconsistentChannelListenerException extends RuntimeException {
   public InconsistentChannelListenerException(String message) {
     super(message);
   }
+
+  public InconsistentChannelListenerException(String message, Throwable cause) {
+    super(message, cause);
+  }
 }
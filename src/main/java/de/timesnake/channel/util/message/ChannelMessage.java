@@ -19,6 +19,12 @@ public abstract class ChannelMessage<Identifier extends Serializable, Value exte
   protected final Identifier identifier;
   protected Value value;
 
+  /**
+   * Correlation id of a request or of the request answered by a response, 0 for plain messages.
+   */
+  protected long requestId;
+  protected boolean response;
+
   public ChannelMessage(@NotNull ChannelType<Identifier> channelType, @NotNull Identifier identifier,
                         @NotNull MessageType<Value> messageType,
                         Value value) {
@@ -63,6 +69,34 @@ public abstract class ChannelMessage<Identifier extends Serializable, Value exte
     return source;
   }
 
+  public long getRequestId() {
+    return requestId;
+  }
+
+  public boolean isRequest() {
+    return this.requestId != 0 && !this.response;
+  }
+
+  public boolean isResponse() {
+    return this.requestId != 0 && this.response;
+  }
+
+  /**
+   * Marks this message as request, a response is correlated by the id.
+   */
+  public void setRequest(long requestId) {
+    this.requestId = requestId;
+    this.response = false;
+  }
+
+  /**
+   * Marks this message as response to the request with the id.
+   */
+  public void setResponse(long requestId) {
+    this.requestId = requestId;
+    this.response = true;
+  }
+
   @Override
   public String toString() {
     return "ChannelMessage{" +
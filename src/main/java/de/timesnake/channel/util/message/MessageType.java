@@ -4,71 +4,146 @@
 
 package de.timesnake.channel.util.message;
 
-import de.timesnake.channel.core.ChannelParticipant;
-import de.timesnake.channel.core.MessageListenerData;
+import de.timesnake.channel.core.*;
 import de.timesnake.library.basic.util.Punishment;
 import de.timesnake.library.basic.util.Status;
 import de.timesnake.library.basic.util.Tuple;
 
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.*;
 
+/**
+ * Type of a message. Instances are canonical constants, registered by {@link ChannelType} at the channel type
+ * carrying them. Each has an explicit ordinal, its tag on the wire, which is unique within its channel type. Ordinals
+ * are append-only, a new type takes the next free one and the ordinal of a removed type is not reused. Equality is
+ * identity, deserialization resolves to the canonical instance.
+ */
 public class MessageType<Value extends Serializable> implements Serializable {
 
   private final String name;
+  private final int ordinal;
+  private final boolean coalescable;
+
+  private transient ChannelType<?> channelType;
+  private transient int slot = -1;
 
+  /**
+   * Creates a type without ordinal, which can not be registered at a channel type.
+   */
   public MessageType(String name) {
+    this(name, -1, false);
+  }
+
+  /**
+   * @param ordinal tag of this type, unique within its channel type and never changed
+   */
+  public MessageType(String name, int ordinal) {
+    this(name, ordinal, false);
+  }
+
+  /**
+   * @param ordinal     tag of this type, unique within its channel type and never changed
+   * @param coalescable true if only the latest value of the type matters, so older values still waiting to be sent
+   *                    may be dropped
+   */
+  public MessageType(String name, int ordinal, boolean coalescable) {
     this.name = name;
+    this.ordinal = ordinal;
+    this.coalescable = coalescable;
   }
 
   public String getName() {
     return name;
   }
 
+  public boolean isCoalescable() {
+    return coalescable;
+  }
+
+  /**
+   * @return the channel type carrying this type or null if it is not registered
+   */
+  public ChannelType<?> getChannelType() {
+    ChannelType<?> channelType = this.channelType;
+    if (channelType == null) {
+      channelType = this.channelType = ChannelType.of(this);
+    }
+    return channelType;
+  }
+
+  /**
+   * @return the tag of this type within its channel type or -1 if it has none
+   */
+  public int getOrdinal() {
+    return ordinal;
+  }
+
+  /**
+   * @return the index of this type among all registered message types or -1 if it is not registered, only valid
+   * within this process
+   */
+  public int getSlot() {
+    int slot = this.slot;
+    if (slot < 0) {
+      slot = this.slot = ChannelType.getSlot(this);
+    }
+    return slot;
+  }
+
   @Override
   public String toString() {
     return this.getName();
   }
 
-  @Override
-  public boolean equals(Object o) {
-    if (this == o) return true;
-    if (o == null || getClass() != o.getClass()) return false;
-    MessageType<?> that = (MessageType<?>) o;
-    return Objects.equals(name, that.name);
+  @Serial
+  private Object writeReplace() {
+    ChannelType<?> channelType = this.getChannelType();
+    return channelType != null ? new SerializedForm(channelType.getName(), this.name) : this;
   }
 
-  @Override
-  public int hashCode() {
-    return Objects.hash(name);
+  private record SerializedForm(String channelName, String name) implements Serializable {
+
+    @Serial
+    private Object readResolve() throws ObjectStreamException {
+      ChannelType<?> channelType = ChannelType.getType(this.channelName);
+      MessageType<?> messageType = channelType != null ? channelType.getMessageType(this.name) : null;
+      if (messageType == null) {
+        throw new InvalidObjectException("unknown message type '" + this.name + "' of channel '" + this.channelName
+            + "'");
+      }
+      return messageType;
+    }
   }
 
   public abstract static class Server<Value extends Serializable> extends MessageType<Value> {
 
-    public static final MessageType<Status.Server> STATUS = new MessageType<>("status");
-    public static final MessageType<Integer> ONLINE_PLAYERS = new MessageType<>("online_players");
-    public static final MessageType<Integer> MAX_PLAYERS = new MessageType<>("max_players");
-    public static final MessageType<String> COMMAND = new MessageType<>("command");
-    public static final MessageType<VoidMessage> PERMISSION = new MessageType<>("permission");
-    public static final MessageType<String> GAME_MAP = new MessageType<>("game_map");
-    public static final MessageType<String> GAME_WORLD = new MessageType<>("game_world");
-    public static final MessageType<Integer> GAME_PLAYERS = new MessageType<>("game_players");
-    public static final MessageType<String> PASSWORD = new MessageType<>("password");
-    public static final MessageType<Boolean> OLD_PVP = new MessageType<>("old_pvp");
-    public static final MessageType<ChannelServerMessage.State> STATE = new MessageType<>("state");
-    public static final MessageType<Integer> RESTART = new MessageType<>("restart");
-    public static final MessageType<Integer> DESTROY = new MessageType<>("destroy");
-    public static final MessageType<Long> KILL_DESTROY = new MessageType<>("kill_destroy");
-    public static final MessageType<Boolean> DISCORD = new MessageType<>("discord");
-    public static final MessageType<String> USER_STATS = new MessageType<>("user_stats");
-    public static final MessageType<String> LOAD_WORLD = new MessageType<>("load_world");
-    public static final MessageType<String> UNLOAD_WORLD = new MessageType<>("unload_world");
-    public static final MessageType<String> LOADED_WORLD = new MessageType<>("loaded_world");
-    public static final MessageType<String> UNLOADED_WORLD = new MessageType<>("unloaded_world");
-    public static final MessageType<VoidMessage> UNLOADED_ALL_WORLDS = new MessageType<>("unloaded_all_worlds");
-    public static final MessageType<VoidMessage> PING = new MessageType<>("ping");
-    public static final MessageType<VoidMessage> PONG = new MessageType<>("pong");
-    public static final MessageType<String> CUSTOM = new MessageType<>("custom");
+    public static final MessageType<Status.Server> STATUS = new MessageType<>("status", 0, true);
+    public static final MessageType<Integer> ONLINE_PLAYERS = new MessageType<>("online_players", 1, true);
+    public static final MessageType<Integer> MAX_PLAYERS = new MessageType<>("max_players", 2, true);
+    public static final MessageType<String> COMMAND = new MessageType<>("command", 3);
+    public static final MessageType<VoidMessage> PERMISSION = new MessageType<>("permission", 4);
+    public static final MessageType<String> GAME_MAP = new MessageType<>("game_map", 5);
+    public static final MessageType<String> GAME_WORLD = new MessageType<>("game_world", 6);
+    public static final MessageType<Integer> GAME_PLAYERS = new MessageType<>("game_players", 7, true);
+    public static final MessageType<String> PASSWORD = new MessageType<>("password", 8);
+    public static final MessageType<Boolean> OLD_PVP = new MessageType<>("old_pvp", 9);
+    public static final MessageType<ChannelServerMessage.State> STATE = new MessageType<>("state", 10, true);
+    public static final MessageType<Integer> RESTART = new MessageType<>("restart", 11);
+    public static final MessageType<Integer> DESTROY = new MessageType<>("destroy", 12);
+    public static final MessageType<Long> KILL_DESTROY = new MessageType<>("kill_destroy", 13);
+    public static final MessageType<Boolean> DISCORD = new MessageType<>("discord", 14);
+    public static final MessageType<String> USER_STATS = new MessageType<>("user_stats", 15);
+    public static final MessageType<String> LOAD_WORLD = new MessageType<>("load_world", 16);
+    public static final MessageType<String> UNLOAD_WORLD = new MessageType<>("unload_world", 17);
+    public static final MessageType<String> LOADED_WORLD = new MessageType<>("loaded_world", 18);
+    public static final MessageType<String> UNLOADED_WORLD = new MessageType<>("unloaded_world", 19);
+    public static final MessageType<VoidMessage> UNLOADED_ALL_WORLDS = new MessageType<>("unloaded_all_worlds", 20);
+    public static final MessageType<VoidMessage> PING = new MessageType<>("ping", 21);
+    public static final MessageType<VoidMessage> PONG = new MessageType<>("pong", 22);
+    public static final MessageType<String> CUSTOM = new MessageType<>("custom", 23);
 
     public static final Set<MessageType<?>> TYPES = Set.of(STATUS, ONLINE_PLAYERS, MAX_PLAYERS, COMMAND, PERMISSION,
         GAME_MAP, GAME_WORLD, GAME_PLAYERS, PASSWORD, OLD_PVP, STATE, CUSTOM, RESTART, DESTROY, KILL_DESTROY, DISCORD,
@@ -81,26 +156,26 @@ public class MessageType<Value extends Serializable> implements Serializable {
 
   public abstract static class User<Value extends Serializable> extends MessageType<Value> {
 
-    public static final MessageType<Status.User> STATUS = new MessageType<>("status");
-    public static final MessageType<Boolean> SERVICE = new MessageType<>("service");
-    public static final MessageType<String> SWITCH_NAME = new MessageType<>("switch_name");
-    public static final MessageType<VoidMessage> PERMISSION = new MessageType<>("permission");
-    public static final MessageType<Punishment> PUNISH = new MessageType<>("punish");
-    public static final MessageType<VoidMessage> ALIAS = new MessageType<>("alias");
-    public static final MessageType<String> TASK = new MessageType<>("task");
-    public static final MessageType<String> COMMAND = new MessageType<>("command");
-    public static final MessageType<String> PROXY_COMMAND = new MessageType<>("proxy_command");
-    public static final MessageType<String> PERM_GROUP = new MessageType<>("perm_group");
-    public static final MessageType<VoidMessage> DISPLAY_GROUP = new MessageType<>("display_group");
-    public static final MessageType<String> TEAM = new MessageType<>("team");
-    public static final MessageType<String> STATISTICS = new MessageType<>("statistics");
-    public static final MessageType<String> CUSTOM = new MessageType<>("custom");
-    public static final MessageType<ChannelUserMessage.Sound> SOUND = new MessageType<>("sound");
-    public static final MessageType<Tuple<String, String>> STORY_START = new MessageType<>("story_start");
-    public static final MessageType<VoidMessage> STORY_END = new MessageType<>("story_end");
-    public static final MessageType<String> STORY_AUDIO_PLAY = new MessageType<>("story_audio_play");
-    public static final MessageType<String> STORY_AUDIO_END = new MessageType<>("story_audio_end");
-    public static final MessageType<String> STORY_AUDIO_FAIL = new MessageType<>("story_audio_fail");
+    public static final MessageType<Status.User> STATUS = new MessageType<>("status", 0, true);
+    public static final MessageType<Boolean> SERVICE = new MessageType<>("service", 1);
+    public static final MessageType<String> SWITCH_NAME = new MessageType<>("switch_name", 2);
+    public static final MessageType<VoidMessage> PERMISSION = new MessageType<>("permission", 3);
+    public static final MessageType<Punishment> PUNISH = new MessageType<>("punish", 4);
+    public static final MessageType<VoidMessage> ALIAS = new MessageType<>("alias", 5);
+    public static final MessageType<String> TASK = new MessageType<>("task", 6);
+    public static final MessageType<String> COMMAND = new MessageType<>("command", 7);
+    public static final MessageType<String> PROXY_COMMAND = new MessageType<>("proxy_command", 8);
+    public static final MessageType<String> PERM_GROUP = new MessageType<>("perm_group", 9);
+    public static final MessageType<VoidMessage> DISPLAY_GROUP = new MessageType<>("display_group", 10);
+    public static final MessageType<String> TEAM = new MessageType<>("team", 11);
+    public static final MessageType<String> STATISTICS = new MessageType<>("statistics", 12);
+    public static final MessageType<String> CUSTOM = new MessageType<>("custom", 13);
+    public static final MessageType<ChannelUserMessage.Sound> SOUND = new MessageType<>("sound", 14);
+    public static final MessageType<Tuple<String, String>> STORY_START = new MessageType<>("story_start", 15);
+    public static final MessageType<VoidMessage> STORY_END = new MessageType<>("story_end", 16);
+    public static final MessageType<String> STORY_AUDIO_PLAY = new MessageType<>("story_audio_play", 17);
+    public static final MessageType<String> STORY_AUDIO_END = new MessageType<>("story_audio_end", 18);
+    public static final MessageType<String> STORY_AUDIO_FAIL = new MessageType<>("story_audio_fail", 19);
     public static final Set<MessageType<?>> TYPES = Set.of(STATUS, SERVICE, SWITCH_NAME, PERMISSION,
         PUNISH, ALIAS, TASK, COMMAND, PROXY_COMMAND, PERM_GROUP, DISPLAY_GROUP, TEAM, STATISTICS, CUSTOM, SOUND,
         STORY_START, STORY_END, STORY_AUDIO_PLAY, STORY_AUDIO_END, STORY_AUDIO_FAIL);
@@ -112,11 +187,11 @@ public class MessageType<Value extends Serializable> implements Serializable {
 
   public abstract static class Support<Value extends Serializable> extends MessageType<Value> {
 
-    public static final MessageType<Integer> TICKET_LOCK = new MessageType<>("ticket_lock");
-    public static final MessageType<Integer> SUBMIT = new MessageType<>("submit");
-    public static final MessageType<Integer> REJECT = new MessageType<>("reject");
-    public static final MessageType<Integer> ACCEPT = new MessageType<>("accept");
-    public static final MessageType<Integer> CREATION = new MessageType<>("creation");
+    public static final MessageType<Integer> TICKET_LOCK = new MessageType<>("ticket_lock", 0);
+    public static final MessageType<Integer> SUBMIT = new MessageType<>("submit", 1);
+    public static final MessageType<Integer> REJECT = new MessageType<>("reject", 2);
+    public static final MessageType<Integer> ACCEPT = new MessageType<>("accept", 3);
+    public static final MessageType<Integer> CREATION = new MessageType<>("creation", 4);
 
     public static final Set<MessageType<?>> TYPES = Set.of(TICKET_LOCK, SUBMIT, REJECT, ACCEPT, CREATION);
 
@@ -125,23 +200,29 @@ public class MessageType<Value extends Serializable> implements Serializable {
     }
   }
 
+  /**
+   * @deprecated the control types are internal to the channel implementation, moved to {@link ControlMessageType}
+   */
+  @Deprecated
   public abstract static class Control<Value extends Serializable> extends MessageType<Value> {
 
-    public static final MessageType<FilterMessage<MessageListenerData<?>>> INIT = new MessageType<>("init");
-    public static final MessageType<FilterMessage<MessageListenerData<?>>> INIT_ACK = new MessageType<>("init_ack");
-    public static final MessageType<VoidMessage> HOSTS_REQUEST = new MessageType<>("hosts_request");
-    public static final MessageType<ArrayList<ChannelParticipant>> HOSTS_LIST = new MessageType<>("hosts_list");
-    public static final MessageType<VoidMessage> INIT_FIN = new MessageType<>("init_fin");
-    public static final MessageType<VoidMessage> RECONNECT = new MessageType<>("reconnect");
-    public static final MessageType<VoidMessage> CLOSE = new MessageType<>("close");
+    public static final MessageType<ListenerFilter> INIT = ControlMessageType.INIT;
+    public static final MessageType<ListenerFilter> INIT_ACK = ControlMessageType.INIT_ACK;
+    public static final MessageType<VoidMessage> INIT_FIN = ControlMessageType.INIT_FIN;
+    public static final MessageType<VoidMessage> RECONNECT = ControlMessageType.RECONNECT;
+    public static final MessageType<VoidMessage> CLOSE = ControlMessageType.CLOSE;
+    public static final MessageType<Long> SEQUENCE = ControlMessageType.SEQUENCE;
+    public static final MessageType<Long> ACK = ControlMessageType.ACK;
+    public static final MessageType<VoidMessage> HEARTBEAT = ControlMessageType.HEARTBEAT;
+    public static final MessageType<VoidMessage> SPOKE = ControlMessageType.SPOKE;
+    public static final MessageType<ArrayList<MemberState>> GOSSIP = ControlMessageType.GOSSIP;
 
-    public static final MessageType<ArrayList<MessageListenerData<?>>> LISTENER_ADD = new MessageType<>("listener_add");
-    public static final MessageType<ArrayList<MessageListenerData<?>>> LISTENER_REMOVE = new MessageType<>(
-        "listener_remove");
+    public static final MessageType<Subscriptions> LISTENER_ADD = ControlMessageType.LISTENER_ADD;
+    public static final MessageType<Subscriptions> LISTENER_REMOVE = ControlMessageType.LISTENER_REMOVE;
+    public static final MessageType<ListenerDelta> LISTENER_DELTA = ControlMessageType.LISTENER_DELTA;
+    public static final MessageType<ListenerVersion> LISTENER_SYNC = ControlMessageType.LISTENER_SYNC;
 
-    public static final Set<MessageType<?>> TYPES = Set.of(
-        INIT, INIT_ACK, HOSTS_REQUEST, HOSTS_LIST, INIT_FIN, RECONNECT, CLOSE,
-        LISTENER_ADD, LISTENER_REMOVE);
+    public static final Set<MessageType<?>> TYPES = ControlMessageType.TYPES;
 
     public Control(String name) {
       super(name);
@@ -150,8 +231,8 @@ public class MessageType<Value extends Serializable> implements Serializable {
 
   public abstract static class Group<Value extends Serializable> extends MessageType<Value> {
 
-    public static final MessageType<VoidMessage> ALIAS = new MessageType<>("alias");
-    public static final MessageType<VoidMessage> PERMISSION = new MessageType<>("permission");
+    public static final MessageType<VoidMessage> ALIAS = new MessageType<>("alias", 0);
+    public static final MessageType<VoidMessage> PERMISSION = new MessageType<>("permission", 1);
 
     public static final Set<MessageType<?>> TYPES = Set.of(ALIAS, PERMISSION);
 
@@ -162,15 +243,16 @@ public class MessageType<Value extends Serializable> implements Serializable {
 
   public abstract static class Discord<Value extends Serializable> extends MessageType<Value> {
 
-    public static final MessageType<LinkedList<String>> DESTROY_CHANNELS = new MessageType<>("destroy_teams") {
+    public static final MessageType<LinkedList<String>> DESTROY_CHANNELS = new MessageType<>("destroy_teams", 0) {
     };
 
-    public static final MessageType<VoidMessage> DELETE_UNUSED = new MessageType<>("delete_unused");
-    public static final MessageType<Boolean> HIDE_CHANNELS = new MessageType<>("hide_channels");
-    public static final MessageType<String> MUTE_CHANNEL = new MessageType<>("mute_channel");
-    public static final MessageType<UUID> DISCONNECT_MEMBER = new MessageType<>("disconnect_member");
+    public static final MessageType<VoidMessage> DELETE_UNUSED = new MessageType<>("delete_unused", 1);
+    public static final MessageType<Boolean> HIDE_CHANNELS = new MessageType<>("hide_channels", 2);
+    public static final MessageType<String> MUTE_CHANNEL = new MessageType<>("mute_channel", 3);
+    public static final MessageType<UUID> DISCONNECT_MEMBER = new MessageType<>("disconnect_member", 4);
 
-    public static final MessageType<ChannelDiscordMessage.Allocation> MOVE_MEMBERS = new MessageType<>("move_members") {
+    public static final MessageType<ChannelDiscordMessage.Allocation> MOVE_MEMBERS = new MessageType<>("move_members",
+        5) {
 
     };
 
@@ -184,9 +266,10 @@ public class MessageType<Value extends Serializable> implements Serializable {
 
   public abstract static class Templates<Value extends Serializable> extends MessageType<Value> {
 
-    public static final MessageType<String> INIT_PLAYER_SERVER = new MessageType<>("init_player_server");
-    public static final MessageType<String> INIT_PUBLIC_PLAYER_SERVER = new MessageType<>("init_public_player_server");
-    public static final MessageType<LinkedList<String>> UPDATE_WORLD = new MessageType<>("update_world");
+    public static final MessageType<String> INIT_PLAYER_SERVER = new MessageType<>("init_player_server", 0);
+    public static final MessageType<String> INIT_PUBLIC_PLAYER_SERVER = new MessageType<>(
+        "init_public_player_server", 1);
+    public static final MessageType<LinkedList<String>> UPDATE_WORLD = new MessageType<>("update_world", 2);
 
     public static final Set<MessageType<?>> TYPES = Set.of(INIT_PLAYER_SERVER, INIT_PUBLIC_PLAYER_SERVER, UPDATE_WORLD);
 
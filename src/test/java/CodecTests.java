@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+import de.timesnake.channel.core.*;
+import de.timesnake.channel.util.message.*;
+import de.timesnake.library.basic.util.Status;
+import de.timesnake.library.basic.util.Tuple;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+
+public class CodecTests {
+
+  private final ChannelCodec codec = new BinaryChannelCodec();
+  private final ChannelParticipant source = new ChannelParticipant("127.0.0.1", 10000);
+
+  private ChannelMessage<?, ?> roundTrip(ChannelMessage<?, ?> msg) {
+    msg.setSource(this.source);
+    ByteBuffer frame = this.codec.encode(msg);
+    ChannelMessage<?, ?> decoded = this.codec.decode(frame);
+
+    Assertions.assertEquals(msg.getClass(), decoded.getClass());
+    Assertions.assertEquals(msg.getChannelType(), decoded.getChannelType());
+    Assertions.assertEquals(msg.getMessageType(), decoded.getMessageType());
+    Assertions.assertEquals(msg.getIdentifier(), decoded.getIdentifier());
+    Assertions.assertEquals(msg.getSource(), decoded.getSource());
+    return decoded;
+  }
+
+  @Test
+  void serverMessages() {
+    Assertions.assertEquals(Status.Server.ONLINE, roundTrip(new ChannelServerMessage<>("lobby",
+        MessageType.Server.STATUS, Status.Server.ONLINE)).getValue());
+    Assertions.assertEquals(42, roundTrip(new ChannelServerMessage<>("lobby",
+        MessageType.Server.ONLINE_PLAYERS, 42)).getValue());
+    Assertions.assertEquals(-7L, roundTrip(new ChannelServerMessage<>("lobby",
+        MessageType.Server.KILL_DESTROY, -7L)).getValue());
+    Assertions.assertEquals(true, roundTrip(new ChannelServerMessage<>("lobby",
+        MessageType.Server.OLD_PVP, true)).getValue());
+    Assertions.assertNull(roundTrip(new ChannelServerMessage<>("lobby", MessageType.Server.PING)).getValue());
+  }
+
+  @Test
+  void requestIds() {
+    ChannelServerMessage<?> request = new ChannelServerMessage<>("lobby", MessageType.Server.PING);
+    request.setRequest(300);
+    ChannelMessage<?, ?> decoded = roundTrip(request);
+    Assertions.assertTrue(decoded.isRequest());
+    Assertions.assertEquals(300, decoded.getRequestId());
+
+    ChannelServerMessage<?> response = new ChannelServerMessage<>("lobby", MessageType.Server.PONG);
+    response.setResponse(300);
+    decoded = roundTrip(response);
+    Assertions.assertTrue(decoded.isResponse());
+    Assertions.assertEquals(300, decoded.getRequestId());
+
+    Assertions.assertEquals(0, roundTrip(new ChannelServerMessage<>("lobby",
+        MessageType.Server.PING)).getRequestId());
+  }
+
+  @Test
+  void userMessages() {
+    UUID uuid = UUID.randomUUID();
+    Assertions.assertEquals(new Tuple<>("a", "b"), roundTrip(new ChannelUserMessage<>(uuid,
+        MessageType.User.STORY_START, new Tuple<>("a", "b"))).getValue());
+    Assertions.assertEquals(ChannelUserMessage.Sound.PLONG, roundTrip(new ChannelUserMessage<>(uuid,
+        MessageType.User.SOUND, ChannelUserMessage.Sound.PLONG)).getValue());
+  }
+
+  @Test
+  void collectionMessages() {
+    LinkedList<String> worlds = new LinkedList<>(List.of("world", "world_nether"));
+    Object value = roundTrip(new ChannelTemplatesMessage<>("lobby", MessageType.Templates.UPDATE_WORLD, worlds))
+        .getValue();
+    Assertions.assertInstanceOf(LinkedList.class, value);
+    Assertions.assertEquals(worlds, value);
+
+    Subscriptions data = new Subscriptions(List.of(
+        new MessageListenerData<>(ChannelType.SERVER, MessageType.Server.STATUS, null),
+        new MessageListenerData<>(ChannelType.SERVER, MessageType.Server.STATUS, "lobby"),
+        new MessageListenerData<>(ChannelType.USER, MessageType.User.STATUS, UUID.randomUUID())));
+    Assertions.assertEquals(new HashSet<>(data), new HashSet<>((Subscriptions) roundTrip(
+        new ChannelControlMessage<>(this.source, ControlMessageType.LISTENER_ADD, data)).getValue()));
+  }
+
+  @Test
+  void listenerFilter() {
+    ListenerFilter filter = ListenerFilter.of(ChannelType.USER)
+        .withMessageTypes(MessageType.User.STATUS)
+        .withIdentifiers(List.of(UUID.randomUUID()))
+        .withIdentifierPattern("lobby-.*");
+    Assertions.assertEquals(filter, roundTrip(new ChannelControlMessage<>(this.source, ControlMessageType.INIT,
+        filter)).getValue());
+  }
+
+  @Test
+  void controlPayloads() {
+    Subscriptions added = new Subscriptions(List.of(
+        new MessageListenerData<>(ChannelType.USER, MessageType.User.STATUS, UUID.randomUUID()),
+        new MessageListenerData<>(ChannelType.SERVER, MessageType.Server.STATUS, null)));
+    ListenerDelta delta = (ListenerDelta) roundTrip(new ChannelControlMessage<>(this.source,
+        ControlMessageType.LISTENER_DELTA, new ListenerDelta(3, 5, 6, added, new Subscriptions()))).getValue();
+    Assertions.assertEquals(List.of(3L, 5L, 6L), List.of(delta.getEpoch(), delta.getSince(), delta.getVersion()));
+    Assertions.assertEquals(new HashSet<>(added), new HashSet<>(delta.getAdded()));
+    Assertions.assertTrue(delta.getRemoved().isEmpty());
+
+    ListenerVersion version = (ListenerVersion) roundTrip(new ChannelControlMessage<>(this.source,
+        ControlMessageType.LISTENER_SYNC, new ListenerVersion(-1, 7))).getValue();
+    Assertions.assertEquals(-1, version.getEpoch());
+    Assertions.assertEquals(7, version.getVersion());
+
+    ArrayList<MemberState> states = new ArrayList<>(List.of(
+        new MemberState(this.source, MemberState.Status.SUSPECT, 2),
+        new MemberState(new ChannelParticipant("127.0.0.1", 10001), MemberState.Status.DEAD, 0)));
+    ChannelControlMessage<?> gossip = new ChannelControlMessage<>(this.source, ControlMessageType.GOSSIP, states);
+    Assertions.assertEquals(states, roundTrip(gossip).getValue());
+
+    // no control payload falls back to java serialization
+    ByteBuffer frame = this.codec.encode(gossip);
+    for (int i = 0; i < frame.limit() - 1; i++) {
+      Assertions.assertFalse(frame.get(i) == (byte) 0xAC && frame.get(i + 1) == (byte) 0xED);
+    }
+  }
+
+  @Test
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  void rejectedSerializedClass() {
+    ChannelMessage<?, ?> msg = new ChannelServerMessage<>("lobby", (MessageType) MessageType.Server.CUSTOM,
+        URI.create("http://localhost"));
+    msg.setSource(this.source);
+    ByteBuffer frame = new BinaryChannelCodec(new FrameCompressor(), info -> ObjectInputFilter.Status.ALLOWED)
+        .encode(msg);
+    Assertions.assertThrows(ChannelCodecException.class, () -> this.codec.decode(frame));
+  }
+
+  @Test
+  void limitedPatterns() {
+    ListenerFilter filter = ListenerFilter.of(ChannelType.SERVER).withIdentifierPattern("(a+)+b");
+    MessageListenerData<?> data = new MessageListenerData<>(ChannelType.SERVER, MessageType.Server.STATUS,
+        "a".repeat(64));
+    Assertions.assertFalse(Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> filter.test(data)));
+
+    Assertions.assertThrows(IllegalArgumentException.class, () -> filter.withIdentifierPattern("a".repeat(257)));
+    ListenerFilter many = ListenerFilter.all();
+    for (int i = 0; i < 16; i++) {
+      many = many.withIdentifierPattern("lobby-" + i);
+    }
+    ListenerFilter full = many;
+    Assertions.assertThrows(IllegalArgumentException.class, () -> full.withIdentifierPattern("lobby-16"));
+  }
+
+  @Test
+  void compressedValues() {
+    ChannelCodec compressing = new BinaryChannelCodec(new FrameCompressor(Compression.DEFLATE, t -> 64, null));
+    LinkedList<String> worlds = new LinkedList<>();
+    for (int i = 0; i < 100; i++) {
+      worlds.add("world_" + i);
+    }
+    ChannelMessage<?, ?> msg = new ChannelTemplatesMessage<>("lobby", MessageType.Templates.UPDATE_WORLD, worlds);
+    msg.setSource(this.source);
+
+    ByteBuffer frame = compressing.encode(msg);
+    Assertions.assertTrue(frame.remaining() < this.codec.encode(msg).remaining() / 2);
+    // values are decompressed without own compression
+    Assertions.assertEquals(worlds, this.codec.decode(frame.duplicate()).getValue());
+    Assertions.assertEquals("lobby", this.codec.decodeHeader(frame).getIdentifier());
+
+    // small values stay uncompressed
+    ChannelMessage<?, ?> status = new ChannelServerMessage<>("lobby", MessageType.Server.STATUS, Status.Server.ONLINE);
+    Assertions.assertEquals(this.codec.encode(status), compressing.encode(status));
+  }
+
+  @Test
+  void compressionDictionary() {
+    byte[] dictionary = "world_nether world_the_end lobby".getBytes(StandardCharsets.UTF_8);
+    ChannelCodec compressing = new BinaryChannelCodec(new FrameCompressor(Compression.DEFLATE, t -> 0, dictionary));
+    ChannelMessage<?, ?> msg = new ChannelTemplatesMessage<>("lobby", MessageType.Templates.UPDATE_WORLD,
+        new LinkedList<>(List.of("world_nether", "world_the_end")));
+    msg.setSource(this.source);
+
+    ByteBuffer frame = compressing.encode(msg);
+    Assertions.assertEquals(msg.getValue(), compressing.decode(frame.duplicate()).getValue());
+    Assertions.assertThrows(ChannelCodecException.class, () -> this.codec.decode(frame));
+  }
+
+  @Test
+  void reusedFrameBuffer() {
+    ChannelMessage<?, ?> msg = new ChannelServerMessage<>("lobby", MessageType.Server.CUSTOM, "ready");
+    msg.setSource(this.source);
+    ByteBuffer frame = this.codec.encode(msg);
+    Assertions.assertEquals(frame.capacity(), frame.remaining());
+
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    buffer.put(frame).flip();
+    ChannelMessage<?, ?> first = this.codec.decode(buffer.duplicate());
+    buffer.put(0, new byte[buffer.limit()]);
+    Assertions.assertEquals("lobby", first.getIdentifier());
+    Assertions.assertEquals("ready", first.getValue());
+
+    ChannelMessage<?, ?> second = this.codec.decode(this.codec.encode(msg));
+    Assertions.assertSame(first.getIdentifier(), second.getIdentifier());
+    Assertions.assertSame(first.getValue(), second.getValue());
+    Assertions.assertSame(first.getSource(), second.getSource());
+  }
+
+  @Test
+  void cachedMalformedString() {
+    ByteBuffer frame = this.codec.encode(new ChannelServerMessage<>("lobby", MessageType.Server.PING));
+    int index = 0;
+    while (frame.get(index) != 'l' || frame.get(index + 1) != 'o') {
+      index++;
+    }
+    frame.put(index, (byte) 0xFF);
+
+    Object identifier = this.codec.decode(frame.duplicate()).getIdentifier();
+    Assertions.assertEquals("\uFFFDobby", identifier);
+    Assertions.assertSame(identifier, this.codec.decode(frame.duplicate()).getIdentifier());
+  }
+
+  @Test
+  void malformedFrame() {
+    ByteBuffer frame = this.codec.encode(new ChannelServerMessage<>("lobby", MessageType.Server.ONLINE_PLAYERS, 1));
+    Assertions.assertThrows(ChannelCodecException.class,
+        () -> this.codec.decode(frame.limit(frame.limit() - 1)));
+
+    // the enum value tag followed by the class index -1 as varint and ordinal 0
+    ByteBuffer valid = this.codec.encode(new ChannelServerMessage<>("lobby", MessageType.Server.STATUS,
+        Status.Server.ONLINE));
+    ByteBuffer header = valid.slice(0, valid.remaining() - 3);
+    ByteBuffer negativeEnum = ByteBuffer.allocate(header.remaining() + 7).put(header)
+        .put(new byte[]{6, -1, -1, -1, -1, 0x0F, 0}).flip();
+    Assertions.assertThrows(ChannelCodecException.class, () -> this.codec.decode(negativeEnum));
+  }
+
+  @Test
+  void typeRegistry() throws Exception {
+    Assertions.assertNotEquals(MessageType.Server.STATUS, MessageType.User.STATUS);
+    Assertions.assertSame(ChannelType.SERVER, MessageType.Server.STATUS.getChannelType());
+    Assertions.assertSame(ChannelType.USER, MessageType.User.STATUS.getChannelType());
+    Assertions.assertSame(MessageType.Server.STATUS,
+        ChannelType.SERVER.getMessageType(MessageType.Server.STATUS.getOrdinal()));
+    // wire tags are explicit, adding a type must not renumber the others
+    Assertions.assertEquals(0, MessageType.Server.STATUS.getOrdinal());
+    Assertions.assertEquals(23, MessageType.Server.CUSTOM.getOrdinal());
+    Assertions.assertEquals(13, ControlMessageType.LISTENER_SYNC.getOrdinal());
+    Assertions.assertEquals(ChannelType.TYPES.stream().mapToLong(t -> t.getMessageTypes().size()).sum(),
+        ChannelType.TYPES.stream().flatMap(t -> t.getMessageTypes().stream()).mapToInt(MessageType::getSlot)
+            .distinct().count());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(new MessageListenerData<>(ChannelType.USER, MessageType.User.STATUS, null));
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      MessageListenerData<?> data = (MessageListenerData<?>) in.readObject();
+      Assertions.assertSame(ChannelType.USER, data.getChannelType());
+      Assertions.assertSame(MessageType.User.STATUS, data.getMessageType());
+    }
+  }
+}
@@ -2,7 +2,14 @@
  * Copyright (C) 2023 timesnake
  */
 
+import de.timesnake.channel.core.BackpressurePolicy;
 import de.timesnake.channel.core.Channel;
+import de.timesnake.channel.core.ChannelConnection;
+import de.timesnake.channel.core.ChannelParticipant;
+import de.timesnake.channel.core.PeerState;
+import de.timesnake.channel.util.listener.ResultMessage;
+import de.timesnake.channel.util.message.ChannelServerMessage;
+import de.timesnake.channel.util.message.MessageType;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.junit.jupiter.api.Assertions;
@@ -11,8 +18,13 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.net.URI;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ExceptionTests extends TestNetwork {
 
@@ -32,19 +44,18 @@ public class ExceptionTests extends TestNetwork {
 
     client.start();
     client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
-    sleep();
+    await(() -> core.getSender().getListenerVersion(client.getSelf()) != null
+        && client.getSender().getListenerVersion(core.getSelf()) != null);
 
     Assertions.assertEquals(1, core.getChannelConnections().size(), core.getSelf().getName());
     Assertions.assertEquals(1, client.getChannelConnections().size(), client.getSelf().getName());
 
-    sleep();
     core.getChannelConnection(client.getSelf()).updateSocket(new Socket(client.getSelf().getHostname(),
         client.getSelf().getListenPort()), true);
-    sleep();
 
     client.addListener(listener(msg -> {
     }));
-    sleep();
+    await(() -> core.getSender().getListenerParticipants(anyMessage()).size() == 1);
 
     Assertions.assertEquals(1, core.getChannelConnections().size(), core.getSelf().getName());
     Assertions.assertEquals(1, client.getChannelConnections().size(), client.getSelf().getName());
@@ -63,22 +74,196 @@ public class ExceptionTests extends TestNetwork {
 
     client.start();
     client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
-    sleep();
+    await(() -> core.getSender().getListenerVersion(client.getSelf()) != null
+        && client.getSender().getListenerVersion(core.getSelf()) != null);
 
     Assertions.assertEquals(1, core.getChannelConnections().size(), core.getSelf().getName());
     Assertions.assertEquals(1, client.getChannelConnections().size(), client.getSelf().getName());
 
-    sleep();
     core.getChannelConnection(client.getSelf()).close();
-    sleep();
 
     client.addListener(listener(msg -> {
     }));
-    sleep();
+    await(() -> core.getSender().getListenerParticipants(anyMessage()).size() == 1);
 
     Assertions.assertEquals(1, core.getChannelConnections().size(), core.getSelf().getName());
     Assertions.assertEquals(1, client.getChannelConnections().size(), client.getSelf().getName());
     Assertions.assertEquals(1, core.getSender().getListenerParticipants(anyMessage()).size(),
         client.getSelf().getName());
   }
+
+  @Test
+  void backpressureFailFast() {
+    Channel channel = createChannelInstance(new Settings().inlineSync().maxPendingFrames(0)
+        .backpressure(BackpressurePolicy.FAIL, null));
+
+    ChannelParticipant peer = new ChannelParticipant("127.0.0.1", anyPort());
+    ResultMessage result = channel.getSender().sendMessageSync(peer, anyMessage());
+
+    Assertions.assertFalse(result.isSuccessful());
+    Assertions.assertEquals("too many pending messages", result.getSendResults().get(peer).getB().getMessage());
+    Assertions.assertEquals(0, channel.getSender().getPendingFrameCount());
+  }
+
+  @Test
+  void backpressureWaitsWithoutBlocking() throws Exception {
+    Channel channel = createChannelInstance(new Settings().inlineSync().maxPendingFrames(0)
+        .backpressure(BackpressurePolicy.BLOCK, Duration.ofSeconds(2)));
+
+    ChannelParticipant peer = new ChannelParticipant("127.0.0.1", anyPort());
+    CompletableFuture<ResultMessage> result = channel.getSender().sendMessage(peer, anyMessage());
+    Assertions.assertFalse(result.isDone());
+
+    ResultMessage message = result.get(10, TimeUnit.SECONDS);
+    Assertions.assertFalse(message.isSuccessful());
+    Assertions.assertEquals("too many pending messages", message.getSendResults().get(peer).getB().getMessage());
+    Assertions.assertEquals(0, channel.getSender().getPendingFrameCount());
+  }
+
+  @Test
+  void circuitOpensForUnreachablePeer() {
+    Channel channel = createChannelInstance(new Settings().inlineSync().reconnectBackoff(Duration.ofMillis(10)));
+
+    ChannelParticipant peer = new ChannelParticipant("127.0.0.1", anyPort());
+    ResultMessage result = channel.getSender().sendMessageSync(peer, anyMessage());
+
+    Assertions.assertFalse(result.isSuccessful());
+    Assertions.assertEquals("unable to reach '" + peer + "'", result.getSendResults().get(peer).getB().getMessage());
+    Assertions.assertEquals(PeerState.OPEN_CIRCUIT, channel.getChannelConnection(peer).getWriter().getState());
+
+    long start = System.nanoTime();
+    result = channel.getSender().sendMessageSync(peer, anyMessage());
+
+    Assertions.assertFalse(result.isSuccessful());
+    Assertions.assertEquals("circuit to '" + peer + "' is open", result.getSendResults().get(peer).getB().getMessage());
+    Assertions.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+  }
+
+  @Test
+  void reliableReplayAfterReconnect() throws Exception {
+    Channel core = createChannelInstance(new Settings().reliableDelivery(Duration.ofSeconds(2)));
+    Channel client = createChannelInstance(new Settings().reliableDelivery(Duration.ofMillis(10)));
+    AtomicInteger received = new AtomicInteger();
+
+    core.start();
+    core.selfInit();
+
+    client.start();
+    client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    await(() -> client.getChannelConnection(core.getSelf()) != null);
+
+    core.addListener(listener(msg -> received.incrementAndGet()));
+    await(() -> client.getSender().getListenerParticipants(anyMessage()).size() == 1);
+
+    List<CompletableFuture<ResultMessage>> results = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      results.add(client.sendMessage(distinctMessage()));
+    }
+    await(() -> received.get() == 50);
+
+    // delivered, but not acknowledged yet, so the frames are replayed over the new socket
+    ChannelConnection connection = client.getChannelConnection(core.getSelf());
+    Assertions.assertEquals(50, connection.getWriter().getUnacknowledgedCount());
+    connection.closeSocket();
+    results.add(client.sendMessage(distinctMessage()));
+
+    for (CompletableFuture<ResultMessage> result : results) {
+      Assertions.assertTrue(result.get(5, TimeUnit.SECONDS).isSuccessful());
+    }
+    // listeners run after the frame is counted
+    await(() -> connection.getWriter().getUnacknowledgedCount() == 0 && received.get() >= 51);
+
+    Assertions.assertEquals(51, received.get());
+    Assertions.assertEquals(0, connection.getWriter().getUnacknowledgedCount());
+
+    core.stop();
+    client.stop();
+  }
+
+  @Test
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  void undecodableFrameCounted() throws Exception {
+    Channel core = createChannelInstance(new Settings().reliableDelivery(Duration.ofMillis(10)));
+    Channel client = createChannelInstance(new Settings().reliableDelivery(Duration.ofMillis(10)));
+    AtomicInteger received = new AtomicInteger();
+
+    core.start();
+    core.selfInit();
+
+    client.start();
+    client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    await(() -> client.getChannelConnection(core.getSelf()) != null);
+
+    core.addListener(listener(msg -> received.incrementAndGet()));
+    await(() -> client.getSender().getListenerParticipants(anyMessage()).size() == 1);
+
+    client.sendMessage(distinctMessage());
+    // encoded by the sender, but rejected by the serialization filter of the receiver
+    client.sendMessage(new ChannelServerMessage<>("test", (MessageType) MessageType.Server.STATUS,
+        URI.create("http://localhost")));
+    client.sendMessage(distinctMessage());
+
+    ChannelConnection connection = client.getChannelConnection(core.getSelf());
+    await(() -> received.get() == 2 && connection.getWriter().getUnacknowledgedCount() == 0);
+    Assertions.assertEquals(2, received.get());
+
+    core.stop();
+    client.stop();
+  }
+
+  @Test
+  void connectingPeerNotIdle() throws InterruptedException {
+    Channel channel = createChannelInstance(new Settings().heartbeat(Duration.ofMillis(50), Duration.ofMillis(200))
+        .reconnectBackoff(Duration.ofSeconds(5)));
+    channel.start();
+    channel.selfInit();
+
+    ChannelParticipant peer = new ChannelParticipant("127.0.0.1", anyPort());
+    channel.getSender().sendMessage(peer, anyMessage());
+    await(() -> channel.getChannelConnection(peer) != null
+        && channel.getChannelConnection(peer).getWriter().getState() == PeerState.BACKOFF);
+
+    // never read, but still in the backoff of its writer
+    Thread.sleep(500);
+    Assertions.assertNotNull(channel.getChannelConnection(peer));
+    Assertions.assertEquals(PeerState.BACKOFF, channel.getChannelConnection(peer).getWriter().getState());
+
+    channel.stop();
+  }
+
+  @Test
+  void idleParticipantDisconnected() throws InterruptedException {
+    Channel core = heartbeatChannel(Duration.ofMillis(500));
+    Channel live = heartbeatChannel(Duration.ofMillis(500));
+    // sends no heartbeats, like a participant behind a half-open link
+    Channel silent = heartbeatChannel(Duration.ZERO);
+
+    core.start();
+    core.selfInit();
+
+    live.start();
+    live.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    silent.start();
+    silent.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    await(() -> core.getChannelConnections().size() == 2);
+
+    silent.addListener(listener(msg -> {}));
+    await(() -> !core.getSender().getListenerParticipants(anyMessage()).isEmpty());
+    Assertions.assertEquals(List.of(silent.getSelf()), core.getSender().getListenerParticipants(anyMessage()));
+
+    await(() -> core.getChannelConnection(silent.getSelf()) == null);
+    Assertions.assertNotNull(core.getChannelConnection(live.getSelf()));
+    Assertions.assertNull(core.getChannelConnection(silent.getSelf()));
+    Assertions.assertTrue(core.getSender().getListenerParticipants(anyMessage()).isEmpty());
+
+    core.stop();
+    live.stop();
+    silent.stop();
+  }
+
+  private static Channel heartbeatChannel(Duration interval) {
+    // a silent participant does not refute its suspicion either
+    return createChannelInstance(new Settings().heartbeat(interval, interval.multipliedBy(4))
+        .gossip(interval.isZero() ? Duration.ZERO : null, null));
+  }
 }
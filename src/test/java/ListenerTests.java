@@ -2,15 +2,31 @@
  * Copyright (C) 2023 timesnake
  */
 
-import de.timesnake.channel.core.Channel;
+import de.timesnake.channel.core.*;
+import de.timesnake.channel.util.listener.ChannelHandler;
+import de.timesnake.channel.util.listener.ChannelListener;
+import de.timesnake.channel.util.listener.ListenerType;
+import de.timesnake.channel.util.listener.ResultMessage;
+import de.timesnake.channel.util.message.ChannelMessage;
+import de.timesnake.channel.util.message.ChannelServerMessage;
+import de.timesnake.channel.util.message.MessageType;
+import de.timesnake.library.basic.util.Status;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ListenerTests extends TestNetwork {
 
@@ -53,4 +69,336 @@ public class ListenerTests extends TestNetwork {
 
     clients.forEach(Channel::stop);
   }
+
+  @Test
+  public void filteredAndRemovedListener() throws InterruptedException {
+    List<Channel> clients = createChannelInstances(2);
+
+    AtomicInteger filteredCounter = new AtomicInteger();
+    AtomicInteger counter = new AtomicInteger();
+
+    clients.get(0).start();
+    clients.get(0).selfInit();
+
+    clients.get(1).start();
+    clients.get(1).registerToNetwork(clients.get(0).getSelf(), Duration.ofSeconds(10));
+    sleep();
+
+    ChannelListener listener = listener(msg -> counter.incrementAndGet());
+    clients.get(1).addListener(new ChannelListener() {
+      @ChannelHandler(type = ListenerType.SERVER_STATUS, filtered = true)
+      public void onMessage(ChannelServerMessage<Status> msg) {
+        filteredCounter.incrementAndGet();
+      }
+    }, Set.of("a"));
+    clients.get(1).addListener(listener);
+    sleep();
+
+    clients.get(0).sendMessage(new ChannelServerMessage<>("a", MessageType.Server.STATUS, Status.Server.ONLINE));
+    clients.get(0).sendMessage(new ChannelServerMessage<>("b", MessageType.Server.STATUS, Status.Server.ONLINE));
+    sleep();
+
+    Assertions.assertEquals(1, filteredCounter.get());
+    Assertions.assertEquals(2, counter.get());
+
+    clients.get(1).removeListener(listener);
+    sleep();
+
+    clients.get(0).sendMessage(new ChannelServerMessage<>("a", MessageType.Server.STATUS, Status.Server.ONLINE));
+    sleep();
+
+    Assertions.assertEquals(2, filteredCounter.get());
+    Assertions.assertEquals(2, counter.get());
+
+    clients.forEach(Channel::stop);
+  }
+
+  @Test
+  public void broadcastEncodedOnce() throws InterruptedException {
+    AtomicInteger encoded = new AtomicInteger();
+    Channel core = createChannelInstance(new Settings().codec(() -> new BinaryChannelCodec() {
+      @Override
+      public ByteBuffer encode(ChannelMessage<?, ?> message) {
+        if (message.getChannelType() != ChannelType.CONTROL) {
+          encoded.incrementAndGet();
+        }
+        return super.encode(message);
+      }
+    }));
+    List<Channel> clients = List.of(createChannelInstance(anyPort()), createChannelInstance(anyPort()),
+        createChannelInstance(anyPort()));
+    AtomicInteger counter = new AtomicInteger();
+
+    core.start();
+    core.selfInit();
+
+    for (Channel client : clients) {
+      client.start();
+      client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    }
+    await(() -> core.getChannelConnections().size() == 3);
+
+    clients.forEach(c -> c.addListener(listener(msg -> counter.incrementAndGet())));
+    await(() -> core.getSender().getListenerParticipants(anyMessage()).size() == 3);
+
+    core.sendMessageSync(anyMessage());
+    await(() -> counter.get() == 3);
+
+    Assertions.assertEquals(1, encoded.get());
+    Assertions.assertEquals(3, counter.get());
+
+    core.stop();
+    clients.forEach(Channel::stop);
+  }
+
+  @Test
+  public void coalescedStateUpdates() throws InterruptedException {
+    Channel core = createChannelInstance(new Settings().maxBatchLinger(Duration.ofMillis(100)));
+    Channel client = createChannelInstance(anyPort());
+    List<Integer> received = new CopyOnWriteArrayList<>();
+
+    core.start();
+    core.selfInit();
+
+    client.start();
+    client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    await(() -> core.getChannelConnection(client.getSelf()) != null);
+
+    client.addListener(new ChannelListener() {
+      @ChannelHandler(type = ListenerType.SERVER_ONLINE_PLAYERS, async = true)
+      public void onMessage(ChannelServerMessage<Integer> msg) {
+        received.add(msg.getValue());
+      }
+    });
+    await(() -> !core.getSender().getListenerParticipants(new ChannelServerMessage<>("test",
+        MessageType.Server.ONLINE_PLAYERS, 0)).isEmpty());
+
+    for (int i = 0; i < 50; i++) {
+      core.sendMessage(new ChannelServerMessage<>("test", MessageType.Server.ONLINE_PLAYERS, i));
+    }
+    await(() -> !received.isEmpty() && received.get(received.size() - 1) == 49);
+
+    Assertions.assertTrue(received.size() < 50, "received " + received.size() + " updates");
+    Assertions.assertEquals(49, received.get(received.size() - 1));
+
+    core.stop();
+    client.stop();
+  }
+
+  @Test
+  public void coalescingDrained() throws Exception {
+    Channel core = createChannelInstance(anyPort());
+    Channel client = createChannelInstance(anyPort());
+
+    core.start();
+    core.selfInit();
+
+    client.start();
+    client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    await(() -> core.getChannelConnection(client.getSelf()) != null);
+
+    client.addListener(new ChannelListener() {
+      @ChannelHandler(type = ListenerType.SERVER_ONLINE_PLAYERS)
+      public void onMessage(ChannelServerMessage<Integer> msg) {
+      }
+    });
+    await(() -> !core.getSender().getListenerParticipants(new ChannelServerMessage<>("test-0",
+        MessageType.Server.ONLINE_PLAYERS, 0)).isEmpty());
+
+    List<CompletableFuture<ResultMessage>> results = new CopyOnWriteArrayList<>();
+    List<Thread> senders = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      senders.add(Thread.ofPlatform().start(() -> {
+        for (int i = 0; i < 500; i++) {
+          results.add(core.sendMessage(new ChannelServerMessage<>("test-" + i % 4, MessageType.Server.ONLINE_PLAYERS,
+              i)));
+        }
+      }));
+    }
+    for (Thread sender : senders) {
+      sender.join();
+    }
+    for (CompletableFuture<ResultMessage> result : results) {
+      Assertions.assertTrue(result.get(5, TimeUnit.SECONDS).isSuccessful());
+    }
+
+    // every entry left the coalescing map together with its frame
+    ConnectionWriter writer = core.getChannelConnection(client.getSelf()).getWriter();
+    Assertions.assertEquals(0, writer.getQueueSize());
+    Assertions.assertEquals(0, writer.getCoalescableCount());
+
+    core.stop();
+    client.stop();
+  }
+
+  @Test
+  public void listenerChangesBatched() throws InterruptedException {
+    Channel core = createChannelInstance(anyPort());
+    // never elapses during the test, changes are only sent by an explicit flush
+    Channel client = createChannelInstance(new Settings().listenerBatchWindow(Duration.ofHours(1)));
+
+    core.start();
+    core.selfInit();
+
+    client.start();
+    client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    await(() -> core.getSender().getListenerVersion(client.getSelf()) != null);
+
+    long initialVersion = core.getSender().getListenerVersion(client.getSelf()).getVersion();
+    for (int i = 0; i < 200; i++) {
+      client.addListenerSync(new ChannelListener() {
+        @ChannelHandler(type = ListenerType.SERVER_STATUS, filtered = true)
+        public void onMessage(ChannelServerMessage<Status> msg) {
+        }
+      }, Set.of("player-" + i));
+    }
+    client.getSender().flushListeners();
+    await(() -> core.getSender().getListenerVersion(client.getSelf()).getVersion() > initialVersion);
+
+    Assertions.assertEquals(initialVersion + 1, core.getSender().getListenerVersion(client.getSelf()).getVersion());
+    for (int i = 0; i < 200; i += 50) {
+      Assertions.assertEquals(List.of(client.getSelf()), core.getSender().getListenerParticipants(
+          new ChannelServerMessage<>("player-" + i, MessageType.Server.STATUS, Status.Server.ONLINE)));
+    }
+
+    core.stop();
+    client.stop();
+  }
+
+  @Test
+  public void missedListenerDeltaRequested() throws InterruptedException {
+    AtomicBoolean dropDelta = new AtomicBoolean();
+    // loses the next listener delta, like a frame lost with its link
+    Channel core = createChannelInstance(new Settings().codec(() -> new BinaryChannelCodec() {
+      @Override
+      public ChannelMessage<?, ?> decode(ByteBuffer frame) {
+        ChannelMessage<?, ?> msg = super.decode(frame);
+        if (msg.getMessageType() == ControlMessageType.LISTENER_DELTA && dropDelta.compareAndSet(true, false)) {
+          return new ChannelControlMessage<>((ChannelParticipant) msg.getIdentifier(), ControlMessageType.HEARTBEAT);
+        }
+        return msg;
+      }
+    }));
+    AtomicInteger syncs = new AtomicInteger();
+    // answers the first sync late, so the following deltas arrive at the core while it is outstanding
+    Channel client = createChannelInstance(new Settings().listenerBatchWindow(Duration.ofHours(1))
+        .codec(() -> new BinaryChannelCodec() {
+          @Override
+          public ChannelMessage<?, ?> decode(ByteBuffer frame) {
+            ChannelMessage<?, ?> msg = super.decode(frame);
+            if (msg.getMessageType() == ControlMessageType.LISTENER_SYNC && syncs.incrementAndGet() == 1) {
+              try {
+                Thread.sleep(500);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            }
+            return msg;
+          }
+        }));
+
+    core.start();
+    core.selfInit();
+
+    client.start();
+    client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    await(() -> core.getSender().getListenerVersion(client.getSelf()) != null);
+    long initialVersion = core.getSender().getListenerVersion(client.getSelf()).getVersion();
+
+    dropDelta.set(true);
+    client.addListenerSync(listener(msg -> {}));
+    client.getSender().flushListeners();
+    await(() -> !dropDelta.get());
+
+    client.addListenerSync(new ChannelListener() {
+      @ChannelHandler(type = ListenerType.SERVER_ONLINE_PLAYERS)
+      public void onMessage(ChannelServerMessage<Integer> msg) {
+      }
+    });
+    client.getSender().flushListeners();
+    client.addListenerSync(new ChannelListener() {
+      @ChannelHandler(type = ListenerType.SERVER_MAX_PLAYERS)
+      public void onMessage(ChannelServerMessage<Integer> msg) {
+      }
+    });
+    client.getSender().flushListeners();
+    client.addListenerSync(new ChannelListener() {
+      @ChannelHandler(type = ListenerType.SERVER_GAME_PLAYERS)
+      public void onMessage(ChannelServerMessage<Integer> msg) {
+      }
+    });
+    client.getSender().flushListeners();
+    await(() -> core.getSender().getListenerVersion(client.getSelf()).getVersion() == initialVersion + 4);
+    sleep();
+
+    // requested once while outstanding, not once per delta after the gap
+    Assertions.assertEquals(1, syncs.get());
+
+    // the changes of the lost delta are requested instead of skipped
+    Assertions.assertEquals(List.of(client.getSelf()), core.getSender().getListenerParticipants(anyMessage()));
+    Assertions.assertEquals(List.of(client.getSelf()), core.getSender().getListenerParticipants(
+        new ChannelServerMessage<>("test", MessageType.Server.ONLINE_PLAYERS, 1)));
+
+    core.stop();
+    client.stop();
+  }
+
+  @Test
+  public void listenerFilterApplied() throws InterruptedException {
+    Channel core = createChannelInstance(new Settings().listenerFilter(ListenerFilter.of(ChannelType.SERVER)
+        .withIdentifierPattern("lobby-.*")));
+    Channel client = createChannelInstance(anyPort());
+
+    core.start();
+    core.selfInit();
+
+    client.start();
+    client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    await(() -> core.getChannelConnection(client.getSelf()) != null);
+
+    client.addListenerSync(new ChannelListener() {
+      @ChannelHandler(type = ListenerType.SERVER_STATUS, filtered = true)
+      public void onMessage(ChannelServerMessage<Status> msg) {
+      }
+    }, Set.of("lobby-1", "game-1"));
+    await(() -> !core.getSender().getListenerParticipants(
+        new ChannelServerMessage<>("lobby-1", MessageType.Server.STATUS, Status.Server.ONLINE)).isEmpty());
+
+    Assertions.assertEquals(List.of(client.getSelf()), core.getSender().getListenerParticipants(
+        new ChannelServerMessage<>("lobby-1", MessageType.Server.STATUS, Status.Server.ONLINE)));
+    Assertions.assertEquals(List.of(), core.getSender().getListenerParticipants(
+        new ChannelServerMessage<>("game-1", MessageType.Server.STATUS, Status.Server.ONLINE)));
+
+    core.stop();
+    client.stop();
+  }
+
+  @Test
+  public void listenersRestoredAfterReconnect() throws InterruptedException {
+    List<Channel> clients = createChannelInstances(2);
+    ListenerBasedChannelSender sender = clients.get(0).getSender();
+
+    clients.get(0).start();
+    clients.get(0).selfInit();
+
+    clients.get(1).start();
+    clients.get(1).registerToNetwork(clients.get(0).getSelf(), Duration.ofSeconds(10));
+    await(() -> clients.get(0).getChannelConnection(clients.get(1).getSelf()) != null);
+
+    clients.get(1).addListener(listener(msg -> {}));
+    await(() -> sender.getListenerParticipants(anyMessage()).size() == 1);
+
+    ListenerVersion version = sender.getListenerVersion(clients.get(1).getSelf());
+    sender.removeReceiverHost(clients.get(1).getSelf());
+    Assertions.assertEquals(List.of(), sender.getListenerParticipants(anyMessage()));
+
+    clients.get(1).registerToNetwork(clients.get(0).getSelf(), Duration.ofSeconds(10));
+    await(() -> sender.getListenerParticipants(anyMessage()).size() == 1);
+
+    Assertions.assertEquals(List.of(clients.get(1).getSelf()), sender.getListenerParticipants(anyMessage()));
+    Assertions.assertEquals(version.getEpoch(), sender.getListenerVersion(clients.get(1).getSelf()).getEpoch());
+    Assertions.assertEquals(version.getVersion(), sender.getListenerVersion(clients.get(1).getSelf()).getVersion());
+
+    clients.forEach(Channel::stop);
+  }
 }
@@ -2,15 +2,24 @@
  * Copyright (C) 2023 timesnake
  */
 
+import de.timesnake.channel.core.BlockingChannelTransport;
 import de.timesnake.channel.core.Channel;
+import de.timesnake.channel.core.ChannelConnection;
+import de.timesnake.channel.core.ChannelParticipant;
+import de.timesnake.channel.core.MemberState;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MultiClientSetupTests extends TestNetwork {
 
@@ -62,6 +71,102 @@ public class MultiClientSetupTests extends TestNetwork {
     clients.forEach(Channel::stop);
   }
 
+  @Test
+  void simultaneousDialKeepsOneLink() throws InterruptedException {
+    List<Channel> clients = createChannelInstances(2);
+    Channel first = clients.get(0);
+    Channel second = clients.get(1);
+
+    first.start();
+    second.start();
+    first.selfInit();
+    second.selfInit();
+
+    first.registerToNetwork(second.getSelf(), Duration.ofSeconds(10));
+    second.registerToNetwork(first.getSelf(), Duration.ofSeconds(10));
+    sleep();
+
+    Assertions.assertEquals(1, first.getChannelConnections().size());
+    Assertions.assertEquals(1, second.getChannelConnections().size());
+
+    // both ends of the same socket
+    Socket firstSocket = first.getChannelConnection(second.getSelf()).getSocket();
+    Socket secondSocket = second.getChannelConnection(first.getSelf()).getSocket();
+    Assertions.assertFalse(firstSocket.isClosed());
+    Assertions.assertFalse(secondSocket.isClosed());
+    Assertions.assertEquals(firstSocket.getLocalPort(), secondSocket.getPort());
+    Assertions.assertEquals(firstSocket.getPort(), secondSocket.getLocalPort());
+
+    clients.forEach(Channel::stop);
+  }
+
+  @Test
+  void dialInWhileDialingOut() throws InterruptedException {
+    // the slow dialer is the smaller participant in the first round and the larger one in the second
+    for (int round = 0; round < 2; round++) {
+      int smallerPort = anyPort();
+      int largerPort = anyPort();
+      Channel slow = createChannelInstance(round == 0 ? smallerPort : largerPort,
+          new Settings().transport(SlowConnectTransport::new));
+      Channel fast = createChannelInstance(round == 0 ? largerPort : smallerPort);
+
+      slow.start();
+      fast.start();
+      slow.selfInit();
+      fast.selfInit();
+
+      // the link dialed by the fast channel is adopted while the slow one is still dialing
+      slow.registerToNetwork(fast.getSelf(), Duration.ofSeconds(10));
+      fast.registerToNetwork(slow.getSelf(), Duration.ofSeconds(10));
+      await(() -> ((SlowConnectTransport) slow.getTransport()).connects.get() > 0);
+      await(() -> sameSocket(slow.getChannelConnection(fast.getSelf()), fast.getChannelConnection(slow.getSelf())));
+
+      AtomicInteger received = new AtomicInteger();
+      slow.addListener(listener(msg -> received.incrementAndGet()));
+      fast.addListener(listener(msg -> received.incrementAndGet()));
+      await(() -> !slow.getSender().getListenerParticipants(anyMessage()).isEmpty()
+          && !fast.getSender().getListenerParticipants(anyMessage()).isEmpty());
+      slow.sendMessage(anyMessage());
+      fast.sendMessage(anyMessage());
+      await(() -> received.get() == 2);
+
+      Assertions.assertEquals(1, slow.getChannelConnections().size());
+      Assertions.assertEquals(1, fast.getChannelConnections().size());
+      Assertions.assertTrue(sameSocket(slow.getChannelConnection(fast.getSelf()),
+          fast.getChannelConnection(slow.getSelf())));
+
+      slow.stop();
+      fast.stop();
+    }
+  }
+
+  private static boolean sameSocket(ChannelConnection connection, ChannelConnection other) {
+    Socket socket = connection != null ? connection.getSocket() : null;
+    Socket otherSocket = other != null ? other.getSocket() : null;
+    return socket != null && otherSocket != null && !socket.isClosed() && !otherSocket.isClosed()
+        && socket.getLocalPort() == otherSocket.getPort() && socket.getPort() == otherSocket.getLocalPort();
+  }
+
+  private static class SlowConnectTransport extends BlockingChannelTransport {
+
+    private final AtomicInteger connects = new AtomicInteger();
+
+    SlowConnectTransport(Channel manager) {
+      super(manager);
+    }
+
+    @Override
+    public void connect(ChannelConnection connection, boolean reconnect) throws IOException {
+      try {
+        Thread.sleep(500);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      super.connect(connection, reconnect);
+      this.connects.incrementAndGet();
+    }
+  }
+
   @Test
   void check7Clients() throws InterruptedException {
     List<Channel> clients = createChannelInstances(7);
@@ -81,4 +186,89 @@ public class MultiClientSetupTests extends TestNetwork {
 
     clients.forEach(Channel::stop);
   }
+
+  @Test
+  void joinThroughAnyMember() throws InterruptedException {
+    List<Channel> clients = createChannelInstances(5);
+
+    clients.get(0).start();
+    clients.get(0).selfInit();
+
+    for (int i = 1; i < clients.size(); i++) {
+      clients.get(i).start();
+      clients.get(i).registerToNetwork(clients.get(i - 1).getSelf(), Duration.ofSeconds(10));
+      sleep();
+    }
+
+    for (Channel client : clients) {
+      Assertions.assertEquals(4, client.getChannelConnections().size(), client.getSelf().getName());
+    }
+
+    clients.forEach(Channel::stop);
+  }
+
+  @Test
+  void gossipedMembersConnectOnBoundedPool() throws InterruptedException {
+    List<Channel> clients = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      clients.add(createChannelInstance(new Settings().maxConcurrentConnects(1)));
+    }
+
+    clients.get(0).start();
+    clients.get(0).selfInit();
+    for (int i = 1; i < clients.size(); i++) {
+      clients.get(i).start();
+      clients.get(i).registerToNetwork(clients.get(0).getSelf(), Duration.ofSeconds(10));
+    }
+
+    // the members learned by gossip are dialed one at a time
+    await(() -> clients.stream().allMatch(c -> c.getChannelConnections().size() == 4));
+
+    clients.forEach(Channel::stop);
+  }
+
+  @Test
+  void deadMemberNotRevivedByStaleState() throws InterruptedException {
+    Duration suspicionTimeout = Duration.ofMillis(200);
+    Channel channel = createChannelInstance(new Settings().gossip(Duration.ofMillis(20), suspicionTimeout));
+    ChannelParticipant dead = new ChannelParticipant("127.0.0.1", anyPort());
+
+    channel.start();
+    channel.getMembership().merge(List.of(new MemberState(dead, MemberState.Status.DEAD, 5)));
+    // no longer gossiped and past the suspicion timeout
+    Thread.sleep(suspicionTimeout.multipliedBy(2).toMillis());
+
+    channel.getMembership().merge(List.of(new MemberState(dead, MemberState.Status.ALIVE, 5)));
+    Assertions.assertEquals(MemberState.Status.DEAD, channel.getMembership().getStatus(dead));
+
+    channel.getMembership().merge(List.of(new MemberState(dead, MemberState.Status.ALIVE, 6)));
+    Assertions.assertEquals(MemberState.Status.ALIVE, channel.getMembership().getStatus(dead));
+
+    channel.stop();
+  }
+
+  @Test
+  void suspicionRefuted() throws InterruptedException {
+    List<Channel> clients = createChannelInstances(3);
+
+    clients.get(0).start();
+    clients.get(0).selfInit();
+    for (int i = 1; i < clients.size(); i++) {
+      clients.get(i).start();
+      clients.get(i).registerToNetwork(clients.get(0).getSelf(), Duration.ofSeconds(10));
+    }
+    sleep();
+
+    Channel suspected = clients.get(1);
+    clients.get(0).getMembership().suspect(suspected.getSelf());
+    Assertions.assertEquals(MemberState.Status.SUSPECT, clients.get(0).getMembership().getStatus(suspected.getSelf()));
+    sleep();
+
+    for (Channel client : List.of(clients.get(0), clients.get(2))) {
+      Assertions.assertEquals(MemberState.Status.ALIVE, client.getMembership().getStatus(suspected.getSelf()));
+      Assertions.assertEquals(2, client.getChannelConnections().size(), client.getSelf().getName());
+    }
+
+    clients.forEach(Channel::stop);
+  }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+import de.timesnake.channel.core.Channel;
+import de.timesnake.channel.core.TransportType;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioTests extends TestNetwork {
+
+  @BeforeAll
+  static void logInfo() {
+    Configurator.setAllLevels("channel", Level.INFO);
+  }
+
+  @Test
+  void listener3Clients() throws InterruptedException {
+    List<Channel> clients = createChannelInstances(3, TransportType.NIO);
+
+    int[] listenerCounter = new int[3];
+
+    clients.get(0).start();
+    clients.get(0).selfInit();
+
+    for (int i = 1; i < clients.size(); i++) {
+      clients.get(i).start();
+      clients.get(i).registerToNetwork(clients.get(0).getSelf(), Duration.ofSeconds(10));
+      sleep();
+    }
+
+    clients.get(0).addListener(listener(msg -> listenerCounter[0]++));
+    clients.get(1).addListener(listener(msg -> listenerCounter[1]++));
+    sleep();
+
+    clients.get(2).sendMessage(anyMessage());
+    sleep();
+
+    for (Channel client : clients) {
+      Assertions.assertEquals(2, client.getChannelConnections().size(), client.getSelf().getName());
+    }
+
+    Assertions.assertEquals(1, listenerCounter[0], clients.get(0).getSelf().getName());
+    Assertions.assertEquals(1, listenerCounter[1], clients.get(1).getSelf().getName());
+    Assertions.assertEquals(0, listenerCounter[2], clients.get(2).getSelf().getName());
+
+    clients.forEach(Channel::stop);
+  }
+
+  @Test
+  void mixedTransports() throws InterruptedException {
+    Channel core = createChannelInstance(anyPort(), TransportType.NIO);
+    Channel client = createChannelInstance(anyPort(), TransportType.BLOCKING);
+
+    AtomicInteger counter = new AtomicInteger();
+
+    core.start();
+    core.selfInit();
+
+    client.start();
+    client.registerToNetwork(core.getSelf(), Duration.ofSeconds(10));
+    sleep();
+
+    core.addListener(listener(msg -> counter.incrementAndGet()));
+    sleep();
+
+    for (int i = 0; i < 100; i++) {
+      client.sendMessage(distinctMessage());
+    }
+    sleep();
+
+    Assertions.assertEquals(1, core.getChannelConnections().size());
+    Assertions.assertEquals(1, client.getChannelConnections().size());
+    Assertions.assertEquals(100, counter.get());
+
+    core.stop();
+    client.stop();
+  }
+}
@@ -3,12 +3,26 @@
  */
 
 import de.timesnake.channel.core.Channel;
+import de.timesnake.channel.util.listener.ChannelHandler;
 import de.timesnake.channel.util.listener.ChannelListener;
+import de.timesnake.channel.util.listener.ListenerType;
+import de.timesnake.channel.util.listener.ResultMessage;
+import de.timesnake.channel.util.message.ChannelMessage;
+import de.timesnake.channel.util.message.ChannelServerMessage;
+import de.timesnake.channel.util.message.MessageType;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.junit.jupiter.api.*;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class P2PTests extends TestNetwork {
 
@@ -112,4 +126,96 @@ public class P2PTests extends TestNetwork {
     Assertions.assertEquals(1, client.getSender().getListenerParticipants(anyMessage()).size());
     Assertions.assertEquals(3, recvMsg[0]);
   }
+
+  @Test
+  void asyncSendCompletesWhenWritten() throws Exception {
+    core.addListener(listener(msg -> {
+    }));
+    sleep();
+
+    ResultMessage result = client.sendMessage(anyMessage()).get(5, TimeUnit.SECONDS);
+
+    Assertions.assertTrue(result.isSuccessful());
+    Assertions.assertTrue(result.getSendResults().containsKey(core.getSelf()));
+  }
+
+  @Test
+  void stashedSendCompletesOnInit() throws Exception {
+    Channel channel = createChannelInstance(anyPort());
+    channel.start();
+
+    CompletableFuture<ResultMessage> result = channel.sendMessage(anyMessage());
+    Assertions.assertFalse(result.isDone());
+
+    channel.selfInit();
+    Assertions.assertTrue(result.get(5, TimeUnit.SECONDS).isSuccessful());
+
+    channel.stop();
+  }
+
+  @Test
+  void stashedSendsDuringInit() throws Exception {
+    Channel channel = createChannelInstance(anyPort());
+    channel.start();
+
+    List<CompletableFuture<ResultMessage>> results = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch started = new CountDownLatch(4);
+    List<Thread> senders = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      senders.add(Thread.ofPlatform().start(() -> {
+        started.countDown();
+        for (int j = 0; j < 500; j++) {
+          results.add(channel.sendMessage(anyMessage()));
+        }
+      }));
+    }
+    started.await();
+    channel.selfInit();
+    for (Thread sender : senders) {
+      sender.join();
+    }
+
+    Assertions.assertEquals(2000, results.size());
+    for (CompletableFuture<ResultMessage> result : results) {
+      Assertions.assertTrue(result.get(5, TimeUnit.SECONDS).isSuccessful());
+    }
+
+    channel.stop();
+  }
+
+  @Test
+  void requestResponse() throws Exception {
+    core.addListener(new ChannelListener() {
+      @ChannelHandler(type = ListenerType.SERVER_PING)
+      public ChannelServerMessage<?> onPing(ChannelServerMessage<?> msg) {
+        return new ChannelServerMessage<>(msg.getIdentifier(), MessageType.Server.PONG);
+      }
+    });
+    sleep();
+
+    ChannelMessage<?, ?> response = client.request(new ChannelServerMessage<>("lobby", MessageType.Server.PING),
+        Duration.ofSeconds(3)).get(5, TimeUnit.SECONDS);
+
+    Assertions.assertEquals(MessageType.Server.PONG, response.getMessageType());
+    Assertions.assertEquals("lobby", response.getIdentifier());
+    Assertions.assertEquals(0, client.getChannelConnection(core.getSelf()).getPendingRequests().size());
+  }
+
+  @Test
+  void requestTimeout() throws InterruptedException {
+    core.addListener(new ChannelListener() {
+      @ChannelHandler(type = ListenerType.SERVER_PING)
+      public void onPing(ChannelServerMessage<?> msg) {
+
+      }
+    });
+    sleep();
+
+    ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> client.request(
+        new ChannelServerMessage<>("lobby", MessageType.Server.PING), Duration.ofMillis(500)).get(5, TimeUnit.SECONDS));
+
+    Assertions.assertInstanceOf(TimeoutException.class, e.getCause());
+    sleep();
+    Assertions.assertEquals(0, client.getChannelConnection(core.getSelf()).getPendingRequests().size());
+  }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+import de.timesnake.channel.core.*;
+import de.timesnake.channel.util.listener.ChannelHandler;
+import de.timesnake.channel.util.listener.ChannelListener;
+import de.timesnake.channel.util.listener.ListenerType;
+import de.timesnake.channel.util.message.ChannelMessage;
+import de.timesnake.channel.util.message.ChannelServerMessage;
+import de.timesnake.channel.util.message.MessageType;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RelayTests extends TestNetwork {
+
+  @BeforeAll
+  static void logInfo() {
+    Configurator.setAllLevels("channel", Level.INFO);
+  }
+
+  @Test
+  void spokesConnectToHubsOnly() throws InterruptedException {
+    Channel hub = createChannelInstance(anyPort(), Topology.HUB);
+    Channel otherHub = createChannelInstance(anyPort(), Topology.HUB);
+    List<Channel> spokes = List.of(createChannelInstance(anyPort(), Topology.SPOKE),
+        createChannelInstance(anyPort(), Topology.SPOKE), createChannelInstance(anyPort(), Topology.SPOKE));
+    AtomicInteger[] received = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+
+    hub.start();
+    hub.selfInit();
+    otherHub.start();
+    otherHub.registerToNetwork(hub.getSelf(), Duration.ofSeconds(10));
+    await(() -> hub.getChannelConnection(otherHub.getSelf()) != null);
+
+    spokes.get(0).start();
+    spokes.get(0).registerToNetwork(hub.getSelf(), Duration.ofSeconds(10));
+    spokes.get(1).start();
+    spokes.get(1).registerToNetwork(hub.getSelf(), Duration.ofSeconds(10));
+    spokes.get(2).start();
+    spokes.get(2).registerToNetwork(otherHub.getSelf(), Duration.ofSeconds(10));
+    await(() -> hub.getChannelConnections().size() == 3 && otherHub.getChannelConnections().size() == 2);
+
+    spokes.get(1).addListener(listener(msg -> received[1].incrementAndGet()));
+    spokes.get(2).addListener(listener(msg -> received[2].incrementAndGet()));
+    await(() -> hub.getSender().getListenerParticipants(anyMessage()).size() == 2
+        && !spokes.get(0).getSender().getListenerParticipants(anyMessage()).isEmpty());
+
+    spokes.get(0).sendMessage(anyMessage());
+    await(() -> received[1].get() == 1 && received[2].get() == 1);
+
+    Assertions.assertEquals(0, received[0].get());
+    Assertions.assertEquals(1, received[1].get());
+    Assertions.assertEquals(1, received[2].get());
+
+    Assertions.assertEquals(3, hub.getChannelConnections().size());
+    Assertions.assertEquals(2, otherHub.getChannelConnections().size());
+    for (Channel spoke : spokes) {
+      Assertions.assertEquals(1, spoke.getChannelConnections().size(), spoke.getSelf().getName());
+    }
+
+    hub.stop();
+    otherHub.stop();
+    spokes.forEach(Channel::stop);
+  }
+
+  @Test
+  void requestRelayedByHub() throws Exception {
+    Channel hub = createChannelInstance(anyPort(), Topology.HUB);
+    Channel requester = createChannelInstance(anyPort(), Topology.SPOKE);
+    Channel responder = createChannelInstance(anyPort(), Topology.SPOKE);
+
+    hub.start();
+    hub.selfInit();
+    requester.start();
+    requester.registerToNetwork(hub.getSelf(), Duration.ofSeconds(10));
+    responder.start();
+    responder.registerToNetwork(hub.getSelf(), Duration.ofSeconds(10));
+    await(() -> hub.getChannelConnections().size() == 2);
+
+    responder.addListener(new ChannelListener() {
+      @ChannelHandler(type = ListenerType.SERVER_PING)
+      public ChannelServerMessage<?> onPing(ChannelServerMessage<?> msg) {
+        return new ChannelServerMessage<>(msg.getIdentifier(), MessageType.Server.PONG);
+      }
+    });
+    await(() -> !requester.getSender().getListenerParticipants(new ChannelServerMessage<>("lobby",
+        MessageType.Server.PING)).isEmpty());
+
+    ChannelMessage<?, ?> response = requester.request(new ChannelServerMessage<>("lobby", MessageType.Server.PING),
+        Duration.ofSeconds(3)).get(5, TimeUnit.SECONDS);
+
+    Assertions.assertEquals(MessageType.Server.PONG, response.getMessageType());
+    Assertions.assertEquals("lobby", response.getIdentifier());
+    Assertions.assertNull(requester.getChannelConnection(responder.getSelf()));
+
+    hub.stop();
+    requester.stop();
+    responder.stop();
+  }
+
+  @Test
+  void forwardedWithoutDecoding() throws InterruptedException {
+    AtomicInteger decoded = new AtomicInteger();
+    Channel hub = createChannelInstance(new Settings().topology(Topology.HUB).codec(() -> new BinaryChannelCodec() {
+      @Override
+      public ChannelMessage<?, ?> decode(ByteBuffer frame) {
+        ChannelMessage<?, ?> msg = super.decode(frame);
+        if (msg.getChannelType() != ChannelType.CONTROL) {
+          decoded.incrementAndGet();
+        }
+        return msg;
+      }
+    }));
+    Channel sender = createChannelInstance(anyPort(), Topology.SPOKE);
+    Channel receiver = createChannelInstance(anyPort(), Topology.SPOKE);
+    AtomicInteger received = new AtomicInteger();
+
+    hub.start();
+    hub.selfInit();
+    sender.start();
+    sender.registerToNetwork(hub.getSelf(), Duration.ofSeconds(10));
+    receiver.start();
+    receiver.registerToNetwork(hub.getSelf(), Duration.ofSeconds(10));
+    await(() -> hub.getChannelConnections().size() == 2);
+
+    receiver.addListener(listener(msg -> received.incrementAndGet()));
+    await(() -> !sender.getSender().getListenerParticipants(anyMessage()).isEmpty());
+
+    for (int i = 0; i < 10; i++) {
+      sender.sendMessage(distinctMessage());
+    }
+    await(() -> received.get() == 10);
+
+    Assertions.assertEquals(10, received.get());
+    Assertions.assertEquals(0, decoded.get());
+
+    hub.stop();
+    sender.stop();
+    receiver.stop();
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+import de.timesnake.channel.core.ChannelParticipant;
+import de.timesnake.channel.core.ChannelType;
+import de.timesnake.channel.core.MessageListenerData;
+import de.timesnake.channel.core.RoutingTable;
+import de.timesnake.channel.util.message.ChannelServerMessage;
+import de.timesnake.channel.util.message.ChannelUserMessage;
+import de.timesnake.channel.util.message.MessageType;
+import de.timesnake.library.basic.util.Status;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class RoutingTableTests {
+
+  private static final ChannelParticipant A = new ChannelParticipant("127.0.0.1", 1);
+  private static final ChannelParticipant B = new ChannelParticipant("127.0.0.1", 2);
+
+  @Test
+  void mergedFanOut() {
+    RoutingTable table = new RoutingTable();
+    table.add(A, List.of(new MessageListenerData<>(ChannelType.SERVER, MessageType.Server.STATUS, "a")));
+    table.add(B, List.of(new MessageListenerData<>(ChannelType.SERVER, MessageType.Server.STATUS, null)));
+
+    Assertions.assertEquals(List.of(A, B), table.get(message("a")));
+    Assertions.assertEquals(List.of(B), table.get(message("b")));
+    Assertions.assertEquals(List.of(), table.get(
+        new ChannelServerMessage<>("a", MessageType.Server.ONLINE_PLAYERS, 1)));
+
+    // lookups must not change the table
+    table.get(message("a"));
+    Assertions.assertEquals(List.of(B), table.get(message("b")));
+
+    table.remove(B);
+    Assertions.assertEquals(List.of(A), table.get(message("a")));
+    Assertions.assertEquals(List.of(), table.get(message("b")));
+
+    table.remove(A, List.of(new MessageListenerData<>(ChannelType.SERVER, MessageType.Server.STATUS, "a")));
+    Assertions.assertEquals(List.of(), table.get(message("a")));
+  }
+
+  @Test
+  void manyUserFilters() {
+    List<UUID> users = new ArrayList<>();
+    List<MessageListenerData<?>> data = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      UUID uuid = UUID.randomUUID();
+      users.add(uuid);
+      data.add(new MessageListenerData<>(ChannelType.USER, MessageType.User.STATUS, uuid));
+    }
+
+    RoutingTable table = new RoutingTable();
+    table.add(A, data);
+    table.add(B, List.of(new MessageListenerData<>(ChannelType.USER, MessageType.User.STATUS, users.get(0))));
+
+    Assertions.assertEquals(List.of(A, B), table.get(userMessage(users.get(0))));
+    Assertions.assertEquals(List.of(A), table.get(userMessage(users.get(9999))));
+    Assertions.assertEquals(List.of(), table.get(userMessage(UUID.randomUUID())));
+
+    table.remove(A, data.subList(0, 5000));
+    Assertions.assertEquals(List.of(B), table.get(userMessage(users.get(0))));
+    Assertions.assertEquals(List.of(), table.get(userMessage(users.get(4999))));
+    Assertions.assertEquals(List.of(A), table.get(userMessage(users.get(5000))));
+  }
+
+  @Test
+  void singleUserChanges() {
+    List<UUID> users = new ArrayList<>();
+    List<MessageListenerData<?>> data = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      UUID uuid = UUID.randomUUID();
+      users.add(uuid);
+      data.add(new MessageListenerData<>(ChannelType.USER, MessageType.User.STATUS, uuid));
+    }
+
+    RoutingTable table = new RoutingTable();
+    table.add(A, data);
+    List<UUID> joined = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      UUID uuid = UUID.randomUUID();
+      joined.add(uuid);
+      table.add(A, List.of(new MessageListenerData<>(ChannelType.USER, MessageType.User.STATUS, uuid)));
+      table.remove(A, List.of(data.get(i)));
+      if (i % 2 == 0) {
+        table.add(A, List.of(data.get(i)));
+      }
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      Assertions.assertEquals(i >= 500 || i % 2 == 0 ? List.of(A) : List.of(), table.get(userMessage(users.get(i))));
+    }
+    for (UUID uuid : joined) {
+      Assertions.assertEquals(List.of(A), table.get(userMessage(uuid)));
+    }
+    table.add(A, List.of(new MessageListenerData<>(ChannelType.SERVER, MessageType.Server.STATUS, "lobby")));
+    Assertions.assertEquals(List.of(A), table.get(message("lobby")));
+    Assertions.assertEquals(List.of(), table.get(message("game")));
+  }
+
+  private static ChannelUserMessage<Status.User> userMessage(UUID uuid) {
+    return new ChannelUserMessage<>(uuid, MessageType.User.STATUS, Status.User.ONLINE);
+  }
+
+  private static ChannelServerMessage<Status.Server> message(String identifier) {
+    return new ChannelServerMessage<>(identifier, MessageType.Server.STATUS, Status.Server.ONLINE);
+  }
+}
@@ -2,8 +2,7 @@
  * Copyright (C) 2023 timesnake
  */
 
-import de.timesnake.channel.core.Channel;
-import de.timesnake.channel.core.ChannelParticipant;
+import de.timesnake.channel.core.*;
 import de.timesnake.channel.util.listener.ChannelHandler;
 import de.timesnake.channel.util.listener.ChannelListener;
 import de.timesnake.channel.util.listener.ListenerType;
@@ -13,49 +12,216 @@ import de.timesnake.channel.util.message.MessageType;
 import de.timesnake.library.basic.util.Status;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Assertions;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class TestNetwork {
 
   public static final Logger LOGGER = LogManager.getLogger("test");
   private static int PORT_COUNTER = 10000;
+  private static final AtomicInteger MESSAGE_COUNTER = new AtomicInteger();
+  public static final Duration AWAIT_TIMEOUT = Duration.ofSeconds(10);
 
   public static List<Channel> createChannelInstances(int number) {
+    return createChannelInstances(number, TransportType.BLOCKING);
+  }
+
+  public static List<Channel> createChannelInstances(int number, TransportType transportType) {
+    return createChannelInstances(number, transportType, ChannelExecutorFactory.PLATFORM);
+  }
+
+  public static List<Channel> createChannelInstances(int number, TransportType transportType,
+                                                     ChannelExecutorFactory executorFactory) {
     int corePort = anyPort();
 
     List<Channel> channels = new ArrayList<>();
-    channels.add(createChannelInstance(corePort));
+    channels.add(createChannelInstance(corePort, transportType, executorFactory));
 
     for (int i = 1; i < number; i++) {
-      channels.add(createChannelInstance(anyPort()));
+      channels.add(createChannelInstance(anyPort(), transportType, executorFactory));
     }
     return channels;
   }
 
   public static Channel createChannelInstance(int port) {
-    return new Channel(Thread.currentThread(),
-        new ChannelParticipant("127.0.0.1", port),
-        "0.0.0.0"
-    ) {
+    return createChannelInstance(port, TransportType.BLOCKING);
+  }
+
+  public static Channel createChannelInstance(int port, TransportType transportType) {
+    return createChannelInstance(port, transportType, ChannelExecutorFactory.PLATFORM);
+  }
+
+  public static Channel createChannelInstance(int port, TransportType transportType,
+                                              ChannelExecutorFactory threads) {
+    return createChannelInstance(port, new Settings().transport(transportType).executors(threads));
+  }
+
+  public static Channel createChannelInstance(int port, Topology topology) {
+    return createChannelInstance(port, new Settings().topology(topology));
+  }
+
+  public static Channel createChannelInstance(Settings settings) {
+    return createChannelInstance(anyPort(), settings);
+  }
+
+  /**
+   * @return a channel using the given settings and the defaults of {@link Channel} otherwise
+   */
+  public static Channel createChannelInstance(int port, Settings settings) {
+    return new Channel(Thread.currentThread(), new ChannelParticipant("127.0.0.1", port), "0.0.0.0") {
       @Override
       protected void runSync(Runnable runnable) {
-        new Thread(runnable).start();
+        if (settings.inlineSync) {
+          runnable.run();
+        } else {
+          new Thread(runnable).start();
+        }
+      }
+
+      @Override
+      protected TransportType getTransportType() {
+        return settings.transport;
+      }
+
+      @Override
+      protected ChannelExecutorFactory createExecutorFactory() {
+        return settings.executors;
+      }
+
+      @Override
+      protected ChannelTransport createTransport() {
+        return settings.transportFactory != null ? settings.transportFactory.apply(this) : super.createTransport();
+      }
+
+      @Override
+      protected ChannelCodec createCodec() {
+        return settings.codec != null ? settings.codec.get() : super.createCodec();
+      }
+
+      @Override
+      protected Topology getTopology() {
+        return settings.topology != null ? settings.topology : super.getTopology();
+      }
+
+      @Override
+      protected ListenerFilter getListenerFilter() {
+        return settings.listenerFilter != null ? settings.listenerFilter : super.getListenerFilter();
+      }
+
+      @Override
+      protected int getMaxPendingFrames() {
+        return settings.maxPendingFrames != null ? settings.maxPendingFrames : super.getMaxPendingFrames();
+      }
+
+      @Override
+      protected int getMaxConcurrentConnects() {
+        return settings.maxConcurrentConnects != null ? settings.maxConcurrentConnects
+            : super.getMaxConcurrentConnects();
+      }
+
+      @Override
+      protected BackpressurePolicy getBackpressurePolicy() {
+        return settings.backpressurePolicy != null ? settings.backpressurePolicy : super.getBackpressurePolicy();
+      }
+
+      @Override
+      protected Duration getBackpressureTimeout() {
+        return orDefault(settings.backpressureTimeout, super.getBackpressureTimeout());
+      }
+
+      @Override
+      protected Duration getMaxBatchLinger() {
+        return orDefault(settings.maxBatchLinger, super.getMaxBatchLinger());
+      }
+
+      @Override
+      protected boolean isReliableDelivery() {
+        return settings.reliableDelivery || super.isReliableDelivery();
+      }
+
+      @Override
+      protected Duration getAckDelay() {
+        return orDefault(settings.ackDelay, super.getAckDelay());
+      }
+
+      @Override
+      protected Duration getReconnectBackoff() {
+        return orDefault(settings.reconnectBackoff, super.getReconnectBackoff());
+      }
+
+      @Override
+      protected Duration getHeartbeatInterval() {
+        return orDefault(settings.heartbeatInterval, super.getHeartbeatInterval());
+      }
+
+      @Override
+      protected Duration getIdleTimeout() {
+        return orDefault(settings.idleTimeout, super.getIdleTimeout());
+      }
+
+      @Override
+      protected Duration getGossipInterval() {
+        return orDefault(settings.gossipInterval, super.getGossipInterval());
+      }
+
+      @Override
+      protected Duration getSuspicionTimeout() {
+        return orDefault(settings.suspicionTimeout, super.getSuspicionTimeout());
+      }
+
+      @Override
+      protected Duration getListenerBatchWindow() {
+        return orDefault(settings.listenerBatchWindow, super.getListenerBatchWindow());
       }
     };
   }
 
+  private static Duration orDefault(Duration value, Duration defaultValue) {
+    return value != null ? value : defaultValue;
+  }
+
   public static void sleep() throws InterruptedException {
     LOGGER.info("sleep");
     Thread.sleep(1000);
   }
 
+  /**
+   * Waits until the condition holds, fails the test after {@link #AWAIT_TIMEOUT}.
+   */
+  public static void await(BooleanSupplier condition) throws InterruptedException {
+    await(condition, "condition not met within " + AWAIT_TIMEOUT.toMillis() + " ms");
+  }
+
+  public static void await(BooleanSupplier condition, String message) throws InterruptedException {
+    long deadline = System.nanoTime() + AWAIT_TIMEOUT.toNanos();
+    while (!condition.getAsBoolean()) {
+      if (System.nanoTime() - deadline > 0) {
+        Assertions.fail(message);
+      }
+      Thread.sleep(10);
+    }
+  }
+
   public static ChannelMessage<?, ?> anyMessage() {
     return new ChannelServerMessage<>("test", MessageType.Server.STATUS, Status.Server.ONLINE);
   }
 
+  /**
+   * @return a status message with a new identifier, so it is never coalesced with a queued one
+   */
+  public static ChannelMessage<?, ?> distinctMessage() {
+    return new ChannelServerMessage<>("test-" + MESSAGE_COUNTER.incrementAndGet(), MessageType.Server.STATUS,
+        Status.Server.ONLINE);
+  }
+
   public static ChannelListener listener(Consumer<ChannelMessage<?, ?>> consumer) {
     return new ChannelListener() {
       @ChannelHandler(type = ListenerType.SERVER_STATUS)
@@ -68,4 +234,118 @@ public class TestNetwork {
   public static int anyPort() {
     return PORT_COUNTER++;
   }
+
+  /**
+   * Settings overriding the defaults of a test channel, unset values keep the default.
+   */
+  public static class Settings {
+
+    private boolean inlineSync;
+    private TransportType transport = TransportType.BLOCKING;
+    private Function<Channel, ChannelTransport> transportFactory;
+    private ChannelExecutorFactory executors = ChannelExecutorFactory.PLATFORM;
+    private Supplier<ChannelCodec> codec;
+    private Topology topology;
+    private ListenerFilter listenerFilter;
+    private Integer maxPendingFrames;
+    private Integer maxConcurrentConnects;
+    private BackpressurePolicy backpressurePolicy;
+    private Duration backpressureTimeout;
+    private Duration maxBatchLinger;
+    private boolean reliableDelivery;
+    private Duration ackDelay;
+    private Duration reconnectBackoff;
+    private Duration heartbeatInterval;
+    private Duration idleTimeout;
+    private Duration gossipInterval;
+    private Duration suspicionTimeout;
+    private Duration listenerBatchWindow;
+
+    /**
+     * Runs sync tasks on the calling thread instead of a new one.
+     */
+    public Settings inlineSync() {
+      this.inlineSync = true;
+      return this;
+    }
+
+    public Settings transport(TransportType transport) {
+      this.transport = transport;
+      return this;
+    }
+
+    public Settings transport(Function<Channel, ChannelTransport> transportFactory) {
+      this.transportFactory = transportFactory;
+      return this;
+    }
+
+    public Settings executors(ChannelExecutorFactory executors) {
+      this.executors = executors;
+      return this;
+    }
+
+    public Settings codec(Supplier<ChannelCodec> codec) {
+      this.codec = codec;
+      return this;
+    }
+
+    public Settings topology(Topology topology) {
+      this.topology = topology;
+      return this;
+    }
+
+    public Settings listenerFilter(ListenerFilter listenerFilter) {
+      this.listenerFilter = listenerFilter;
+      return this;
+    }
+
+    public Settings maxPendingFrames(int maxPendingFrames) {
+      this.maxPendingFrames = maxPendingFrames;
+      return this;
+    }
+
+    public Settings maxConcurrentConnects(int maxConcurrentConnects) {
+      this.maxConcurrentConnects = maxConcurrentConnects;
+      return this;
+    }
+
+    public Settings backpressure(BackpressurePolicy policy, Duration timeout) {
+      this.backpressurePolicy = policy;
+      this.backpressureTimeout = timeout;
+      return this;
+    }
+
+    public Settings maxBatchLinger(Duration maxBatchLinger) {
+      this.maxBatchLinger = maxBatchLinger;
+      return this;
+    }
+
+    public Settings reliableDelivery(Duration ackDelay) {
+      this.reliableDelivery = true;
+      this.ackDelay = ackDelay;
+      return this;
+    }
+
+    public Settings reconnectBackoff(Duration reconnectBackoff) {
+      this.reconnectBackoff = reconnectBackoff;
+      return this;
+    }
+
+    public Settings heartbeat(Duration interval, Duration idleTimeout) {
+      this.heartbeatInterval = interval;
+      this.idleTimeout = idleTimeout;
+      return this;
+    }
+
+    public Settings gossip(Duration interval, Duration suspicionTimeout) {
+      this.gossipInterval = interval;
+      this.suspicionTimeout = suspicionTimeout;
+      return this;
+    }
+
+    public Settings listenerBatchWindow(Duration listenerBatchWindow) {
+      this.listenerBatchWindow = listenerBatchWindow;
+      return this;
+    }
+  }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2023 timesnake
+ */
+
+import de.timesnake.channel.core.Channel;
+import de.timesnake.channel.core.ChannelExecutorFactory;
+import de.timesnake.channel.core.TransportType;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VirtualThreadTests extends TestNetwork {
+
+  @BeforeAll
+  static void logInfo() {
+    Configurator.setAllLevels("channel", Level.INFO);
+  }
+
+  @Test
+  void blockingTransport() throws InterruptedException {
+    this.listener3Clients(TransportType.BLOCKING);
+  }
+
+  @Test
+  void nioTransport() throws InterruptedException {
+    this.listener3Clients(TransportType.NIO);
+  }
+
+  private void listener3Clients(TransportType transportType) throws InterruptedException {
+    List<Channel> clients = createChannelInstances(3, transportType, ChannelExecutorFactory.VIRTUAL);
+
+    AtomicInteger counter = new AtomicInteger();
+
+    clients.get(0).start();
+    clients.get(0).selfInit();
+
+    for (int i = 1; i < clients.size(); i++) {
+      clients.get(i).start();
+      clients.get(i).registerToNetwork(clients.get(0).getSelf(), Duration.ofSeconds(10));
+      sleep();
+    }
+
+    clients.get(0).addListener(listener(msg -> counter.incrementAndGet()));
+    clients.get(1).addListener(listener(msg -> counter.incrementAndGet()));
+    sleep();
+
+    for (int i = 0; i < 500; i++) {
+      clients.get(2).sendMessage(distinctMessage());
+    }
+    sleep();
+
+    for (Channel client : clients) {
+      Assertions.assertEquals(2, client.getChannelConnections().size(), client.getSelf().getName());
+    }
+    Assertions.assertEquals(1000, counter.get());
+
+    clients.forEach(Channel::stop);
+  }
+}